@@ -0,0 +1,147 @@
+package com.wolfgoes.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.wolfgoes.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Compares the ways of inserting many weather rows: SQLiteDatabase#insert for each
+    ContentValues, as bulkInsert used to, the compiled insert bound from ContentValues, and the
+    compiled insert bound from a WeatherBatch.  Rows are inserted in chunks, one transaction
+    each, as a backfill would send them; building the rows is not timed.  Each way fills an
+    empty in-memory database.  Timings are logged, not asserted.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    // Rows per transaction
+    private static final int CHUNK = 10000;
+    // Days per location
+    private static final int DAYS = 1000;
+
+    private static final long FIRST_DAY = 1419033600000L;  // December 20th, 2014
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final String[] DESCRIPTIONS = {"Clear", "Clouds", "Rain", "Snow"};
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = SQLiteDatabase.create(null);
+        new WeatherDbHelper(mContext).onCreate(mDb);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testInsert10kRows() {
+        benchmark(10000);
+    }
+
+    public void testInsert100kRows() {
+        benchmark(100000);
+    }
+
+    private void benchmark(int rows) {
+        long insertNanos = 0;
+        for (int start = 0; start < rows; start += CHUNK) {
+            ContentValues[] chunk = createValues(start, Math.min(CHUNK, rows - start));
+            long chunkStart = System.nanoTime();
+            insertOneByOne(chunk);
+            insertNanos += System.nanoTime() - chunkStart;
+        }
+        assertEquals(rows, countRows());
+        clear();
+
+        long statementNanos = 0;
+        for (int start = 0; start < rows; start += CHUNK) {
+            ContentValues[] chunk = createValues(start, Math.min(CHUNK, rows - start));
+            long chunkStart = System.nanoTime();
+            assertEquals(chunk.length, WeatherInserter.insert(mDb, chunk));
+            statementNanos += System.nanoTime() - chunkStart;
+        }
+        assertEquals(rows, countRows());
+        clear();
+
+        long batchNanos = 0;
+        WeatherBatch batch = new WeatherBatch(CHUNK);
+        for (int start = 0; start < rows; start += CHUNK) {
+            batch.clear();
+            fillBatch(batch, start, Math.min(CHUNK, rows - start));
+            long chunkStart = System.nanoTime();
+            assertEquals(batch.size(), WeatherInserter.insert(mDb, batch));
+            batchNanos += System.nanoTime() - chunkStart;
+        }
+        assertEquals(rows, countRows());
+
+        Log.i(LOG_TAG, rows + " rows. SQLiteDatabase#insert: " + rowsPerSecond(rows, insertNanos) +
+                " rows/s. Compiled insert from ContentValues: " + rowsPerSecond(rows, statementNanos) +
+                " rows/s. Compiled insert from a WeatherBatch: " + rowsPerSecond(rows, batchNanos) +
+                " rows/s.");
+    }
+
+    // What bulkInsert did for each row before the compiled insert
+    private void insertOneByOne(ContentValues[] values) {
+        mDb.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                WeatherInserter.normalizeDate(value);
+                assertTrue(mDb.insert(WeatherEntry.TABLE_NAME, null, value) != -1);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    // Rows first..first + count, DAYS consecutive days for each location
+    private static ContentValues[] createValues(int first, int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            int row = first + i;
+            ContentValues value = new ContentValues();
+            value.put(WeatherEntry.COLUMN_LOC_KEY, 1 + row / DAYS);
+            value.put(WeatherEntry.COLUMN_DATE, FIRST_DAY + DAY_IN_MILLIS * (row % DAYS));
+            value.put(WeatherEntry.COLUMN_WEATHER_ID, 800 + row % 4);
+            value.put(WeatherEntry.COLUMN_SHORT_DESC, DESCRIPTIONS[row % DESCRIPTIONS.length]);
+            value.put(WeatherEntry.COLUMN_MIN_TEMP, 10.5 + row % 7);
+            value.put(WeatherEntry.COLUMN_MAX_TEMP, 20.5 + row % 9);
+            value.put(WeatherEntry.COLUMN_HUMIDITY, 60.0 + row % 30);
+            value.put(WeatherEntry.COLUMN_PRESSURE, 1013.2);
+            value.put(WeatherEntry.COLUMN_WIND_SPEED, 3.4);
+            value.put(WeatherEntry.COLUMN_DEGREES, 120.0);
+            values[i] = value;
+        }
+        return values;
+    }
+
+    private static void fillBatch(WeatherBatch batch, int first, int count) {
+        for (int i = 0; i < count; i++) {
+            int row = first + i;
+            batch.add(1 + row / DAYS, FIRST_DAY + DAY_IN_MILLIS * (row % DAYS), 800 + row % 4,
+                    DESCRIPTIONS[row % DESCRIPTIONS.length], 10.5 + row % 7, 20.5 + row % 9,
+                    60.0 + row % 30, 1013.2, 3.4, 120.0);
+        }
+    }
+
+    private long countRows() {
+        return DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME);
+    }
+
+    private void clear() {
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+    }
+
+    private static long rowsPerSecond(int rows, long nanos) {
+        return nanos == 0 ? 0 : rows * 1000000000L / nanos;
+    }
+}
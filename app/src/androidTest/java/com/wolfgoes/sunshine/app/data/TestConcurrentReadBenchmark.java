@@ -0,0 +1,139 @@
+package com.wolfgoes.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.wolfgoes.sunshine.app.data.WeatherContract.LocationEntry;
+import com.wolfgoes.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Measures how long the forecast list query takes while a sync writes, with a rollback journal
+    and with write-ahead logging.  A writer thread replaces the forecast of every location in one
+    transaction after the other, as the sync does, while the test thread keeps running the
+    query of ForecastFragment.  Timings are logged, not asserted.
+ */
+public class TestConcurrentReadBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = TestConcurrentReadBenchmark.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "benchmark_" + WeatherDbHelper.DATABASE_NAME;
+
+    private static final int LOCATIONS = 20;
+    private static final int DAYS = 14;
+    // Transactions written by the sync
+    private static final int BATCHES = 30;
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // The forecast list: the days of one location from today on
+    private static final String FORECAST_QUERY = "SELECT " +
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID + ", " + WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " + WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " + LocationEntry.COLUMN_COORD_LAT + ", " +
+            LocationEntry.COLUMN_COORD_LONG +
+            " FROM " + WeatherEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME +
+            " ON " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID +
+            " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " >= ? ORDER BY " + WeatherEntry.COLUMN_DATE + " ASC";
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testQueryLatencyDuringSync() throws Exception {
+        Latency rollbackJournal = measure(false);
+        Latency writeAheadLog = measure(true);
+
+        Log.i(LOG_TAG, "Forecast query while syncing, rollback journal: " + rollbackJournal +
+                ". Write-ahead log: " + writeAheadLog + ".");
+        assertTrue("Error: no query ran during the sync", writeAheadLog.queries > 0);
+    }
+
+    private Latency measure(boolean writeAheadLogging) throws Exception {
+        mContext.deleteDatabase(DATABASE_NAME);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, DATABASE_NAME, writeAheadLogging,
+                WeatherDbHelper.DEFAULT_WAL_AUTOCHECKPOINT_PAGES, WeatherDbHelper.DEFAULT_SYNCHRONOUS);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        final long[] locationIds = new long[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, TestUtilities.TEST_LOCATION + i);
+            locationIds[i] = db.insertOrThrow(LocationEntry.TABLE_NAME, null, location);
+        }
+        final long firstDay = TestUtilities.TEST_DATE;
+        writeForecasts(db, locationIds, firstDay);
+
+        Thread sync = new Thread("sync") {
+            @Override
+            public void run() {
+                for (int batch = 0; batch < BATCHES; batch++) {
+                    writeForecasts(db, locationIds, firstDay);
+                }
+            }
+        };
+
+        List<Long> nanos = new ArrayList<>();
+        String[] selectionArgs = {TestUtilities.TEST_LOCATION + 0, Long.toString(firstDay)};
+        sync.start();
+        while (sync.isAlive()) {
+            long start = System.nanoTime();
+            Cursor cursor = db.rawQuery(FORECAST_QUERY, selectionArgs);
+            cursor.getCount();
+            cursor.close();
+            nanos.add(System.nanoTime() - start);
+        }
+        sync.join();
+        helper.close();
+
+        return new Latency(nanos);
+    }
+
+    private static void writeForecasts(SQLiteDatabase db, long[] locationIds, long firstDay) {
+        db.beginTransaction();
+        try {
+            for (long locationId : locationIds) {
+                db.delete(WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                        new String[]{Long.toString(locationId)});
+                for (int day = 0; day < DAYS; day++) {
+                    ContentValues values = TestUtilities.createWeatherValues(locationId);
+                    values.put(WeatherEntry.COLUMN_DATE, firstDay + DAY_IN_MILLIS * day);
+                    db.insertOrThrow(WeatherEntry.TABLE_NAME, null, values);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static class Latency {
+        final int queries;
+        final long medianMicros;
+        final long p95Micros;
+        final long maxMicros;
+
+        Latency(List<Long> nanos) {
+            Collections.sort(nanos);
+            queries = nanos.size();
+            medianMicros = queries == 0 ? 0 : nanos.get(queries / 2) / 1000;
+            p95Micros = queries == 0 ? 0 : nanos.get(queries * 95 / 100) / 1000;
+            maxMicros = queries == 0 ? 0 : nanos.get(queries - 1) / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return queries + " queries, median " + medianMicros + "us, 95th percentile " +
+                    p95Micros + "us, max " + maxMicros + "us";
+        }
+    }
+}
@@ -17,7 +17,9 @@ package com.wolfgoes.sunshine.app.data;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.test.AndroidTestCase;
 
 import java.util.HashSet;
@@ -55,6 +57,9 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.SyncMetricsEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HourlyEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.CurrentEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -91,6 +96,12 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_CITY_ID);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_ETAG);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LAST_SYNCED);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_EXPIRES_AT);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_VOLATILITY);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
@@ -105,6 +116,68 @@ public class TestDb extends AndroidTestCase {
         db.close();
     }
 
+    /*
+        The database is opened with write-ahead logging and the configured synchronous level, so
+        the UI can read while a sync writes.
+     */
+    public void testJournalMode() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        assertEquals("Error: the database should use write-ahead logging",
+                "wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null).toLowerCase());
+        // 1 is NORMAL
+        assertEquals(1, DatabaseUtils.longForQuery(db, "PRAGMA synchronous", null));
+        assertEquals(WeatherDbHelper.DEFAULT_WAL_AUTOCHECKPOINT_PAGES,
+                DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint", null));
+        db.close();
+    }
+
+    /*
+        The weather queries pick a location, then a date or a range of dates.  Make sure SQLite
+        answers them from the location-first unique index instead of scanning the weather table,
+        which grows with every location and day stored.
+     */
+    public void testWeatherQueriesUseIndex() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        String[] locationAndDate = {TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)};
+
+        // The forecast list
+        assertSearchesWeather(db, WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                WeatherContract.FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingWithStartDateSelection,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC", null), locationAndDate);
+        // The detail view
+        assertSearchesWeather(db, WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                WeatherContract.FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingAndDaySelection,
+                null, null, null, null), locationAndDate);
+        // The stored forecast of a location, read by the sync to compare with the new one
+        assertSearchesWeather(db, SQLiteQueryBuilder.buildQueryString(false,
+                WeatherContract.WeatherEntry.TABLE_NAME, null,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                null, null, null, null), new String[]{"1"});
+        db.close();
+    }
+
+    private static void assertSearchesWeather(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        int detailIndex = plan.getColumnIndex("detail");
+        StringBuilder details = new StringBuilder();
+        boolean searched = false;
+        while (plan.moveToNext()) {
+            String detail = plan.getString(detailIndex);
+            details.append(detail).append('\n');
+            if (detail.matches(".*\\b" + WeatherContract.WeatherEntry.TABLE_NAME + "\\b.*")) {
+                searched = detail.startsWith("SEARCH") &&
+                        detail.contains(WeatherContract.WeatherEntry.COLUMN_LOC_KEY + "=?");
+            }
+        }
+        plan.close();
+
+        assertTrue("Error: the weather table is not searched by location:\n" + details, searched);
+        assertFalse("Error: the rows are sorted after being read:\n" + details,
+                details.toString().contains("TEMP B-TREE"));
+    }
+
     /*
         Students:  Here is where you will build code to test that we can insert and query the
         location database.  We've done a lot of work for you.  You'll want to look in TestUtilities
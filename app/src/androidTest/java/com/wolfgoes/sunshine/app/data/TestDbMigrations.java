@@ -0,0 +1,323 @@
+package com.wolfgoes.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.wolfgoes.sunshine.app.data.WeatherContract.CurrentEntry;
+import com.wolfgoes.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.wolfgoes.sunshine.app.data.WeatherContract.LocationEntry;
+import com.wolfgoes.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.wolfgoes.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Upgrades databases created by every released version and checks that their rows survive
+    and that the schema ends up the same as a new database's.  The old schemas are written out
+    here as each version created them, on purpose independently of the migration steps.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    private static final String DATABASE_NAME = "migration_" + WeatherDbHelper.DATABASE_NAME;
+    private static final String FRESH_DATABASE_NAME = "fresh_" + WeatherDbHelper.DATABASE_NAME;
+
+    private static final long EPOCH_HOUR = 394176;  // December 20th, 2014
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        WeatherDbHelper freshHelper = createHelper(FRESH_DATABASE_NAME);
+        SQLiteDatabase fresh = freshHelper.getReadableDatabase();
+
+        for (int version = WeatherDbMigrations.OLDEST_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(DATABASE_NAME);
+            SQLiteDatabase old = mContext.openOrCreateDatabase(DATABASE_NAME, 0, null);
+            createSchema(old, version);
+            long locationId = old.insertOrThrow(LocationEntry.TABLE_NAME, null,
+                    createLocationValues(version));
+            ContentValues weather = TestUtilities.createWeatherValues(locationId);
+            old.insertOrThrow(WeatherEntry.TABLE_NAME, null, weather);
+            ContentValues metrics = null;
+            if (version >= 5) {
+                metrics = createSyncMetricsValues(version);
+                old.insertOrThrow(SyncMetricsEntry.TABLE_NAME, null, metrics);
+            }
+            ContentValues hourly = null;
+            if (version >= 10) {
+                hourly = TestProvider.createHourlyValues(locationId, EPOCH_HOUR, 0);
+                hourly.remove(HourlyEntry.COLUMN_LOC_KEY);
+                hourly.remove(HourlyEntry.COLUMN_EPOCH_HOUR);
+                hourly.put(HourlyEntry._ID, HourlyEntry.buildKey(locationId, EPOCH_HOUR));
+                old.insertOrThrow(HourlyEntry.TABLE_NAME, null, hourly);
+            }
+            ContentValues current = null;
+            if (version >= 11) {
+                current = TestProvider.createCurrentValues(locationId, TestUtilities.TEST_DATE);
+                old.insertOrThrow(CurrentEntry.TABLE_NAME, null, current);
+            }
+            old.setVersion(version);
+            old.close();
+
+            WeatherDbHelper helper = createHelper(DATABASE_NAME);
+            SQLiteDatabase db = helper.getWritableDatabase();
+            String error = "Error: upgrading from version " + version + ".";
+            assertEquals(error, WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+
+            ContentValues location = createLocationValues(version);
+            if (version < 7) {
+                location.put(LocationEntry.COLUMN_LAST_SYNCED, 0);
+                location.put(LocationEntry.COLUMN_EXPIRES_AT, 0);
+            }
+            TestUtilities.validateCursor(error, db.query(LocationEntry.TABLE_NAME, null,
+                    null, null, null, null, null), location);
+            TestUtilities.validateCursor(error, db.query(WeatherEntry.TABLE_NAME, null,
+                    null, null, null, null, null), weather);
+            if (metrics != null) {
+                // Columns added later read 0 on the rows written before them
+                if (version < 6) {
+                    metrics.put(SyncMetricsEntry.COLUMN_WIRE_BYTES, 0);
+                }
+                if (version < 9) {
+                    metrics.put(SyncMetricsEntry.COLUMN_THROTTLED, 0);
+                    metrics.put(SyncMetricsEntry.COLUMN_RATE_LIMITED, 0);
+                }
+                TestUtilities.validateCursor(error, db.query(SyncMetricsEntry.TABLE_NAME, null,
+                        null, null, null, null, null), metrics);
+            }
+            if (hourly != null) {
+                TestUtilities.validateCursor(error, db.query(HourlyEntry.TABLE_NAME, null,
+                        null, null, null, null, null), hourly);
+            }
+            if (current != null) {
+                TestUtilities.validateCursor(error, db.query(CurrentEntry.TABLE_NAME, null,
+                        null, null, null, null, null), current);
+            }
+
+            assertEquals(error, describeSchema(fresh), describeSchema(db));
+            helper.close();
+        }
+        freshHelper.close();
+    }
+
+    public void testVersionsWithoutMigrationAreRecreated() {
+        SQLiteDatabase old = mContext.openOrCreateDatabase(DATABASE_NAME, 0, null);
+        old.execSQL("CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry._ID + " INTEGER PRIMARY KEY, " +
+                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT)");
+        old.execSQL("INSERT INTO " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry.COLUMN_LOCATION_SETTING + ") VALUES ('" + TestUtilities.TEST_LOCATION + "')");
+        old.setVersion(WeatherDbMigrations.OLDEST_VERSION - 1);
+        old.close();
+
+        WeatherDbHelper helper = createHelper(DATABASE_NAME);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals("Error: the tables of an unknown version should have been recreated",
+                0, cursor.getCount());
+        cursor.close();
+
+        WeatherDbHelper freshHelper = createHelper(FRESH_DATABASE_NAME);
+        assertEquals(describeSchema(freshHelper.getReadableDatabase()), describeSchema(db));
+        freshHelper.close();
+        helper.close();
+    }
+
+    private WeatherDbHelper createHelper(String name) {
+        return new WeatherDbHelper(mContext, name, true,
+                WeatherDbHelper.DEFAULT_WAL_AUTOCHECKPOINT_PAGES, WeatherDbHelper.DEFAULT_SYNCHRONOUS);
+    }
+
+    // The tables as the given version's onCreate made them
+    private static void createSchema(SQLiteDatabase db, int version) {
+        String location = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL," +
+                LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL," +
+                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL," +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL";
+        if (version >= 4) {
+            location += ", " + LocationEntry.COLUMN_CITY_ID + " INTEGER";
+        }
+        if (version >= 3) {
+            location += ", " + LocationEntry.COLUMN_ETAG + " TEXT, " +
+                    LocationEntry.COLUMN_LAST_MODIFIED + " TEXT";
+        }
+        if (version >= 7) {
+            location += ", " + LocationEntry.COLUMN_LAST_SYNCED + " INTEGER NOT NULL DEFAULT 0, " +
+                    LocationEntry.COLUMN_EXPIRES_AT + " INTEGER NOT NULL DEFAULT 0";
+        }
+        if (version >= 8) {
+            location += ", " + LocationEntry.COLUMN_VOLATILITY + " REAL NOT NULL DEFAULT 0";
+        }
+        db.execSQL(location + ");");
+
+        db.execSQL("CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);");
+
+        if (version >= 5) {
+            String metrics = "CREATE TABLE " + SyncMetricsEntry.TABLE_NAME + " (" +
+                    SyncMetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    SyncMetricsEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                    SyncMetricsEntry.COLUMN_TOTAL + " INTEGER NOT NULL, " +
+                    SyncMetricsEntry.COLUMN_REQUESTS + " INTEGER NOT NULL, " +
+                    SyncMetricsEntry.COLUMN_FAILURES + " INTEGER NOT NULL, ";
+            if (version >= 9) {
+                metrics += SyncMetricsEntry.COLUMN_THROTTLED + " INTEGER NOT NULL DEFAULT 0, " +
+                        SyncMetricsEntry.COLUMN_RATE_LIMITED + " INTEGER NOT NULL DEFAULT 0, ";
+            }
+            metrics += SyncMetricsEntry.COLUMN_CONNECT + " INTEGER NOT NULL, " +
+                    SyncMetricsEntry.COLUMN_FIRST_BYTE + " INTEGER NOT NULL, " +
+                    SyncMetricsEntry.COLUMN_DOWNLOAD + " INTEGER NOT NULL, ";
+            if (version >= 6) {
+                metrics += SyncMetricsEntry.COLUMN_WIRE_BYTES + " INTEGER NOT NULL, ";
+            }
+            metrics += SyncMetricsEntry.COLUMN_BYTES + " INTEGER NOT NULL, " +
+                    SyncMetricsEntry.COLUMN_PARSE + " INTEGER NOT NULL, " +
+                    SyncMetricsEntry.COLUMN_DB_WRITE + " INTEGER NOT NULL, " +
+                    SyncMetricsEntry.COLUMN_STALE_DELETE + " INTEGER NOT NULL, " +
+                    SyncMetricsEntry.COLUMN_NOTIFY + " INTEGER NOT NULL );";
+            db.execSQL(metrics);
+        }
+
+        if (version >= 10) {
+            db.execSQL("CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                    HourlyEntry._ID + " INTEGER PRIMARY KEY, " +
+                    HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                    HourlyEntry.COLUMN_TEMP + " INTEGER NOT NULL, " +
+                    HourlyEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                    HourlyEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                    HourlyEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                    HourlyEntry.COLUMN_DEGREES + " INTEGER NOT NULL );");
+        }
+
+        if (version >= 11) {
+            db.execSQL("CREATE TABLE " + CurrentEntry.TABLE_NAME + " (" +
+                    CurrentEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    CurrentEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL UNIQUE ON CONFLICT REPLACE, " +
+                    CurrentEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                    CurrentEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                    CurrentEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                    CurrentEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+                    CurrentEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                    CurrentEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                    CurrentEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                    CurrentEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                    CurrentEntry.COLUMN_LAST_SYNCED + " INTEGER NOT NULL, " +
+                    CurrentEntry.COLUMN_EXPIRES_AT + " INTEGER NOT NULL, " +
+                    " FOREIGN KEY (" + CurrentEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                    LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "));");
+        }
+    }
+
+    private static ContentValues createLocationValues(int version) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        if (version >= 3) {
+            values.put(LocationEntry.COLUMN_ETAG, "\"north-pole\"");
+            values.put(LocationEntry.COLUMN_LAST_MODIFIED, "Sat, 20 Dec 2014 00:00:00 GMT");
+        }
+        if (version >= 4) {
+            values.put(LocationEntry.COLUMN_CITY_ID, 5861897);
+        }
+        if (version >= 7) {
+            values.put(LocationEntry.COLUMN_LAST_SYNCED, 1419033600000L);
+            values.put(LocationEntry.COLUMN_EXPIRES_AT, 1419037200000L);
+        }
+        if (version >= 8) {
+            values.put(LocationEntry.COLUMN_VOLATILITY, 0.5);
+        }
+        return values;
+    }
+
+    private static ContentValues createSyncMetricsValues(int version) {
+        ContentValues values = new ContentValues();
+        values.put(SyncMetricsEntry.COLUMN_START_TIME, 1419033600000L);
+        values.put(SyncMetricsEntry.COLUMN_TOTAL, 900);
+        values.put(SyncMetricsEntry.COLUMN_REQUESTS, 2);
+        values.put(SyncMetricsEntry.COLUMN_FAILURES, 1);
+        values.put(SyncMetricsEntry.COLUMN_CONNECT, 120);
+        values.put(SyncMetricsEntry.COLUMN_FIRST_BYTE, 300);
+        values.put(SyncMetricsEntry.COLUMN_DOWNLOAD, 200);
+        values.put(SyncMetricsEntry.COLUMN_BYTES, 16384);
+        values.put(SyncMetricsEntry.COLUMN_PARSE, 80);
+        values.put(SyncMetricsEntry.COLUMN_DB_WRITE, 60);
+        values.put(SyncMetricsEntry.COLUMN_STALE_DELETE, 10);
+        values.put(SyncMetricsEntry.COLUMN_NOTIFY, 5);
+        if (version >= 6) {
+            values.put(SyncMetricsEntry.COLUMN_WIRE_BYTES, 4096);
+        }
+        if (version >= 9) {
+            values.put(SyncMetricsEntry.COLUMN_THROTTLED, 1);
+            values.put(SyncMetricsEntry.COLUMN_RATE_LIMITED, 1);
+        }
+        return values;
+    }
+
+    /*
+        Every table with its columns and the columns of its indexes, in a stable order.  Column
+        order and defaults are left out: added columns go last, and a column added as NOT NULL
+        needs a default a new table does not.
+     */
+    private static List<String> describeSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor tables = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND " +
+                "name NOT IN ('android_metadata', 'sqlite_sequence')", null);
+        while (tables.moveToNext()) {
+            String table = tables.getString(0);
+            Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            while (columns.moveToNext()) {
+                schema.add(table + "." + columns.getString(columns.getColumnIndex("name")) + " " +
+                        columns.getString(columns.getColumnIndex("type")) +
+                        (columns.getInt(columns.getColumnIndex("notnull")) == 1 ? " NOT NULL" : "") +
+                        (columns.getInt(columns.getColumnIndex("pk")) == 1 ? " PRIMARY KEY" : ""));
+            }
+            columns.close();
+
+            Cursor indexes = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            while (indexes.moveToNext()) {
+                String index = indexes.getString(indexes.getColumnIndex("name"));
+                StringBuilder indexColumns = new StringBuilder(table + " index (");
+                Cursor info = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+                while (info.moveToNext()) {
+                    indexColumns.append(' ').append(info.getString(info.getColumnIndex("name")));
+                }
+                info.close();
+                schema.add(indexColumns.append(" )").toString());
+            }
+            indexes.close();
+        }
+        tables.close();
+        Collections.sort(schema);
+        return schema;
+    }
+}
@@ -16,20 +16,29 @@
 package com.wolfgoes.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
+import android.os.RemoteException;
 import android.util.Log;
 
+import com.wolfgoes.sunshine.app.data.WeatherContract.CurrentEntry;
+import com.wolfgoes.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.wolfgoes.sunshine.app.data.WeatherContract.LocationEntry;
 import com.wolfgoes.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -56,6 +65,16 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().delete(
+                CurrentEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -527,4 +546,405 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        A WeatherBatch goes through the provider's call method rather than bulkInsert.  Its
+        rows should read back like the ones inserted from ContentValues.
+     */
+    public void testWeatherBatchInsert() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+
+        ContentValues[] expected = createBulkInsertWeatherValues(locationRowId);
+        // Grows past its initial capacity
+        WeatherBatch batch = new WeatherBatch(1);
+        for (ContentValues values : expected) {
+            batch.add(values.getAsLong(WeatherEntry.COLUMN_LOC_KEY),
+                    values.getAsLong(WeatherEntry.COLUMN_DATE),
+                    values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    values.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY),
+                    values.getAsDouble(WeatherEntry.COLUMN_PRESSURE),
+                    values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                    values.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+        }
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, batch.size());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, batch.insert(mContext.getContentResolver()));
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        // Inserting the same days again replaces them
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, batch.insert(mContext.getContentResolver()));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testWeatherBatchInsert.  Error validating WeatherEntry " + i,
+                    cursor, expected[i]);
+        }
+        cursor.close();
+    }
+
+    /*
+        The sync adapter writes a whole sync with one applyBatch call.  Make sure a batch is
+        committed as a unit, that back references reach the new location id, and that a failed
+        batch leaves nothing behind.
+     */
+    public void testApplyBatch() throws RemoteException, OperationApplicationException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(-1);
+        for (ContentValues values : weatherValues) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        assertTrue(locationRowId != -1);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationRowId)},
+                null
+        );
+        assertEquals("Error: weather rows were not linked to the new location",
+                weatherValues.length, cursor.getCount());
+        cursor.close();
+
+        // A batch whose last operation fails must not keep the rows written before it
+        operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI).build());
+        operations.add(ContentProviderOperation.newAssertQuery(LocationEntry.CONTENT_URI)
+                .withExpectedCount(2)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: the assert operation should have failed the batch");
+        } catch (OperationApplicationException e) {
+            // expected
+        }
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: a failed batch was partially committed",
+                weatherValues.length, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Upserting a location must insert it once and then keep returning the same row, until
+        the row is deleted.
+     */
+    public void testUpsertLocation() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+
+        Uri firstUri = mContext.getContentResolver().insert(LocationEntry.UPSERT_URI, testValues);
+        long firstId = ContentUris.parseId(firstUri);
+        assertTrue(firstId != -1);
+
+        Uri secondUri = mContext.getContentResolver().insert(LocationEntry.UPSERT_URI, testValues);
+        assertEquals("Error: upserting an existing location returned another row",
+                firstId, ContentUris.parseId(secondUri));
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: upserting twice inserted two locations", 1, cursor.getCount());
+        cursor.close();
+
+        // Deleting the location must not leave its id cached
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        Uri thirdUri = mContext.getContentResolver().insert(LocationEntry.UPSERT_URI, testValues);
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(ContentUris.parseId(thirdUri))}, null);
+        assertEquals("Error: upsert returned the id of a deleted location", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        The sync state of a location can be updated through its own uri, which takes nothing
+        but the columns the sync keeps for itself.
+     */
+    public void testUpdateLocationSyncState() {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+
+        ContentValues syncState = new ContentValues();
+        syncState.put(LocationEntry.COLUMN_ETAG, "\"v2\"");
+        syncState.put(LocationEntry.COLUMN_LAST_SYNCED, TestUtilities.TEST_DATE);
+        syncState.put(LocationEntry.COLUMN_EXPIRES_AT, TestUtilities.TEST_DATE + 1000);
+        syncState.put(LocationEntry.COLUMN_VOLATILITY, 0.25);
+        int count = mContext.getContentResolver().update(LocationEntry.SYNC_STATE_URI, syncState,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)});
+        assertEquals(1, count);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)}, null);
+        values.putAll(syncState);
+        TestUtilities.validateCursor("testUpdateLocationSyncState.  Error validating the sync state.",
+                cursor, values);
+        cursor.close();
+
+        ContentValues cityName = new ContentValues();
+        cityName.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        try {
+            mContext.getContentResolver().update(LocationEntry.SYNC_STATE_URI, cityName,
+                    LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)});
+            fail("Error: the sync state uri should only update the sync state");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /*
+        The sync metrics table only keeps the most recent syncs, and can't be changed from
+        outside once written.
+     */
+    public void testSyncMetrics() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        db.delete(WeatherContract.SyncMetricsEntry.TABLE_NAME, null, null);
+        db.close();
+
+        int syncs = WeatherProvider.MAX_SYNC_METRICS + 5;
+        for (int i = 0; i < syncs; i++) {
+            Bundle values = new Bundle();
+            values.putLong(WeatherContract.SyncMetricsEntry.COLUMN_START_TIME, TestUtilities.TEST_DATE + i);
+            values.putLong(WeatherContract.SyncMetricsEntry.COLUMN_TOTAL, 100 + i);
+            values.putLong(WeatherContract.SyncMetricsEntry.COLUMN_REQUESTS, 1);
+            values.putLong(WeatherContract.SyncMetricsEntry.COLUMN_FAILURES, 0);
+            values.putLong(WeatherContract.SyncMetricsEntry.COLUMN_THROTTLED, 0);
+            values.putLong(WeatherContract.SyncMetricsEntry.COLUMN_RATE_LIMITED, 0);
+            values.putLong(WeatherContract.SyncMetricsEntry.COLUMN_CONNECT, 10);
+            values.putLong(WeatherContract.SyncMetricsEntry.COLUMN_FIRST_BYTE, 20);
+            values.putLong(WeatherContract.SyncMetricsEntry.COLUMN_DOWNLOAD, 30);
+            values.putLong(WeatherContract.SyncMetricsEntry.COLUMN_WIRE_BYTES, 512);
+            values.putLong(WeatherContract.SyncMetricsEntry.COLUMN_BYTES, 4096);
+            values.putLong(WeatherContract.SyncMetricsEntry.COLUMN_PARSE, 5);
+            values.putLong(WeatherContract.SyncMetricsEntry.COLUMN_DB_WRITE, 15);
+            values.putLong(WeatherContract.SyncMetricsEntry.COLUMN_STALE_DELETE, 1);
+            values.putLong(WeatherContract.SyncMetricsEntry.COLUMN_NOTIFY, 2);
+            mContext.getContentResolver().call(WeatherContract.SyncMetricsEntry.CONTENT_URI,
+                    WeatherContract.SyncMetricsEntry.METHOD_RECORD, null, values);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.SyncMetricsEntry.CONTENT_URI,
+                new String[]{WeatherContract.SyncMetricsEntry.COLUMN_START_TIME},
+                null,
+                null,
+                WeatherContract.SyncMetricsEntry.COLUMN_START_TIME + " ASC"
+        );
+        assertEquals("Error: the sync metrics table was not trimmed",
+                WeatherProvider.MAX_SYNC_METRICS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: the oldest syncs should be the ones dropped",
+                TestUtilities.TEST_DATE + syncs - WeatherProvider.MAX_SYNC_METRICS, cursor.getLong(0));
+        cursor.close();
+
+        try {
+            mContext.getContentResolver().delete(WeatherContract.SyncMetricsEntry.CONTENT_URI, null, null);
+            fail("Error: sync metrics should not be deletable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            mContext.getContentResolver().insert(WeatherContract.SyncMetricsEntry.CONTENT_URI,
+                    new ContentValues());
+            fail("Error: sync metrics should only be recorded through their provider method");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /*
+        Hourly points are stored under a key packing their location and hour.  Make sure both
+        read back as columns, that a location's range comes back in time order without the
+        points of other locations, and that points can be deleted by hour.
+     */
+    public void testHourlyRangeQuery() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "North Pole, AK");
+        long otherLocationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, otherLocation));
+
+        long firstHour = HourlyEntry.getEpochHour(TestUtilities.TEST_DATE);
+        int points = 40;
+        ContentValues[] values = new ContentValues[points * 2];
+        for (int i = 0; i < points; i++) {
+            // Inserted out of order on purpose
+            long hour = firstHour + (points - 1 - i) * 3;
+            values[i] = createHourlyValues(locationRowId, hour, i);
+            values[points + i] = createHourlyValues(otherLocationRowId, hour, i);
+        }
+        assertEquals(points * 2, mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, values));
+
+        // The 8 points of the second day
+        long dayStart = HourlyEntry.HOUR_IN_MILLIS * (firstHour + 24);
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithRange(TestUtilities.TEST_LOCATION,
+                        dayStart, dayStart + HourlyEntry.HOUR_IN_MILLIS * 24),
+                new String[]{HourlyEntry.COLUMN_LOC_KEY, HourlyEntry.COLUMN_EPOCH_HOUR,
+                        HourlyEntry.COLUMN_TEMP},
+                null,
+                null,
+                null
+        );
+        assertEquals("Error: the range query did not return one day of points", 8, cursor.getCount());
+        long previousHour = 0;
+        while (cursor.moveToNext()) {
+            assertEquals(locationRowId, cursor.getLong(0));
+            assertTrue("Error: points not in time order", cursor.getLong(1) > previousHour);
+            previousHour = cursor.getLong(1);
+            assertTrue(cursor.getLong(1) >= firstHour + 24 && cursor.getLong(1) < firstHour + 48);
+        }
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation("unknown"), null, null, null, null);
+        assertEquals("Error: an unknown location should have no points", 0, cursor.getCount());
+        cursor.close();
+
+        int deleted = mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI,
+                HourlyEntry.COLUMN_EPOCH_HOUR + " < ?", new String[]{Long.toString(firstHour + 24)});
+        assertEquals("Error: the first day of both locations should have been deleted", 16, deleted);
+    }
+
+    /*
+        There is one row of current conditions per location: storing them again replaces the
+        previous ones.  They are read back by location setting.
+     */
+    public void testCurrentConditions() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        ContentValues current = createCurrentValues(locationRowId, TestUtilities.TEST_DATE);
+        mContext.getContentResolver().insert(CurrentEntry.CONTENT_URI, current);
+        current = createCurrentValues(locationRowId, TestUtilities.TEST_DATE + 1000 * 60 * 10);
+        current.put(CurrentEntry.COLUMN_TEMP, 25.5);
+        mContext.getContentResolver().insert(CurrentEntry.CONTENT_URI, current);
+
+        Cursor cursor = mContext.getContentResolver().query(CurrentEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: storing the current conditions again should replace them",
+                1, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                CurrentEntry.buildCurrentLocation(TestUtilities.TEST_LOCATION),
+                WeatherContract.CURRENT_COLUMNS,
+                null,
+                null,
+                null
+        );
+        assertTrue("Error: no current conditions for the location", cursor.moveToFirst());
+        assertEquals(25.5, cursor.getDouble(WeatherContract.COL_CURRENT_TEMP), 1e-6);
+        assertEquals(TestUtilities.TEST_DATE + 1000 * 60 * 10,
+                cursor.getLong(WeatherContract.COL_CURRENT_DATE));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                CurrentEntry.buildCurrentLocation("unknown"), null, null, null, null);
+        assertEquals("Error: an unknown location should have no current conditions",
+                0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Deleting a location deletes its hourly points and current conditions, and only theirs.
+     */
+    public void testDeleteLocationDeletesItsRows() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "North Pole, AK");
+        long otherLocationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, otherLocation));
+
+        long hour = HourlyEntry.getEpochHour(TestUtilities.TEST_DATE);
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, new ContentValues[]{
+                createHourlyValues(locationRowId, hour, 0),
+                createHourlyValues(locationRowId, hour + 3, 1),
+                createHourlyValues(otherLocationRowId, hour, 0)});
+        mContext.getContentResolver().insert(CurrentEntry.CONTENT_URI,
+                createCurrentValues(locationRowId, TestUtilities.TEST_DATE));
+        mContext.getContentResolver().insert(CurrentEntry.CONTENT_URI,
+                createCurrentValues(otherLocationRowId, TestUtilities.TEST_DATE));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(otherLocationRowId));
+
+        assertEquals(1, mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)}));
+
+        Cursor cursor = mContext.getContentResolver().query(HourlyEntry.CONTENT_URI,
+                new String[]{HourlyEntry.COLUMN_LOC_KEY}, null, null, null);
+        assertEquals("Error: the hourly points of the deleted location were kept", 1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(otherLocationRowId, cursor.getLong(0));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(CurrentEntry.CONTENT_URI,
+                new String[]{CurrentEntry.COLUMN_LOC_KEY}, null, null, null);
+        assertEquals("Error: the current conditions of the deleted location were kept", 1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(otherLocationRowId, cursor.getLong(0));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_LOC_KEY}, null, null, null);
+        assertEquals("Error: the forecasts of the deleted location were kept", 1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(otherLocationRowId, cursor.getLong(0));
+        cursor.close();
+    }
+
+    static ContentValues createCurrentValues(long locationRowId, long date) {
+        ContentValues values = new ContentValues();
+        values.put(CurrentEntry.COLUMN_LOC_KEY, locationRowId);
+        values.put(CurrentEntry.COLUMN_DATE, date);
+        values.put(CurrentEntry.COLUMN_WEATHER_ID, 800);
+        values.put(CurrentEntry.COLUMN_SHORT_DESC, "Clear");
+        values.put(CurrentEntry.COLUMN_TEMP, 22.5);
+        values.put(CurrentEntry.COLUMN_HUMIDITY, 70);
+        values.put(CurrentEntry.COLUMN_PRESSURE, 1012.5);
+        values.put(CurrentEntry.COLUMN_WIND_SPEED, 4.1);
+        values.put(CurrentEntry.COLUMN_DEGREES, 200);
+        values.put(CurrentEntry.COLUMN_LAST_SYNCED, date);
+        values.put(CurrentEntry.COLUMN_EXPIRES_AT, date + 1000 * 60 * 10);
+        return values;
+    }
+
+    static ContentValues createHourlyValues(long locationRowId, long epochHour, int index) {
+        ContentValues values = new ContentValues();
+        values.put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+        values.put(HourlyEntry.COLUMN_EPOCH_HOUR, epochHour);
+        values.put(HourlyEntry.COLUMN_WEATHER_ID, 800);
+        values.put(HourlyEntry.COLUMN_TEMP, HourlyEntry.encode(20.5 + index));
+        values.put(HourlyEntry.COLUMN_PRESSURE, HourlyEntry.encode(1013.2));
+        values.put(HourlyEntry.COLUMN_WIND_SPEED, HourlyEntry.encode(3.4));
+        values.put(HourlyEntry.COLUMN_HUMIDITY, 80);
+        values.put(HourlyEntry.COLUMN_DEGREES, 120);
+        return values;
+    }
 }
@@ -0,0 +1,177 @@
+package com.wolfgoes.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.wolfgoes.sunshine.app.data.WeatherContract.LocationEntry;
+import com.wolfgoes.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+public class TestQueryCache extends AndroidTestCase {
+
+    private static final String OTHER_LOCATION = "94043";
+
+    private long mLocationId;
+    private long mOtherLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+
+        mLocationId = insertLocation(TestUtilities.TEST_LOCATION);
+        mOtherLocationId = insertLocation(OTHER_LOCATION);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                TestProvider.createBulkInsertWeatherValues(mLocationId));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                TestProvider.createBulkInsertWeatherValues(mOtherLocationId));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testRepeatedQueriesAreCached() {
+        Uri forecast = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Bundle before = getStats();
+
+        Cursor first = query(forecast);
+        Cursor second = query(forecast);
+        assertEquals(1, getStats().getInt(QueryCache.EXTRA_MISSES) - before.getInt(QueryCache.EXTRA_MISSES));
+        assertEquals(1, getStats().getInt(QueryCache.EXTRA_HITS) - before.getInt(QueryCache.EXTRA_HITS));
+
+        assertEquals(first.getCount(), second.getCount());
+        assertTrue(first.moveToFirst());
+        assertTrue(second.moveToFirst());
+        ContentValues firstRow = new ContentValues();
+        DatabaseUtils.cursorRowToContentValues(first, firstRow);
+        TestUtilities.validateCurrentRecord("Error: the cached row differs", second, firstRow);
+        first.close();
+        second.close();
+
+        // Another projection is another query
+        Cursor dates = mContext.getContentResolver().query(forecast,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        dates.close();
+        assertEquals(2, getStats().getInt(QueryCache.EXTRA_MISSES) - before.getInt(QueryCache.EXTRA_MISSES));
+    }
+
+    public void testWritesInvalidateTheirLocationOnly() {
+        Uri forecast = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Uri otherForecast = WeatherEntry.buildWeatherLocation(OTHER_LOCATION);
+        query(forecast).close();
+        query(otherForecast).close();
+
+        ContentValues weather = TestUtilities.createWeatherValues(mLocationId);
+        weather.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + 1000L * 60 * 60 * 24 * 30);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weather);
+
+        Bundle before = getStats();
+        Cursor cursor = query(forecast);
+        assertEquals("Error: the new day should be read from the database",
+                TestProvider.createBulkInsertWeatherValues(mLocationId).length + 1, cursor.getCount());
+        cursor.close();
+        query(otherForecast).close();
+        assertEquals(1, getStats().getInt(QueryCache.EXTRA_MISSES) - before.getInt(QueryCache.EXTRA_MISSES));
+        assertEquals(1, getStats().getInt(QueryCache.EXTRA_HITS) - before.getInt(QueryCache.EXTRA_HITS));
+
+        // A delete only invalidates the locations whose rows it removed
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(mOtherLocationId)});
+        before = getStats();
+        query(forecast).close();
+        cursor = query(otherForecast);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        assertEquals(1, getStats().getInt(QueryCache.EXTRA_MISSES) - before.getInt(QueryCache.EXTRA_MISSES));
+        assertEquals(1, getStats().getInt(QueryCache.EXTRA_HITS) - before.getInt(QueryCache.EXTRA_HITS));
+    }
+
+    public void testBatchInvalidatesOnCommit() throws Exception {
+        Uri day = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        query(day).close();
+
+        ContentValues update = new ContentValues();
+        update.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newUpdate(WeatherEntry.CONTENT_URI)
+                .withValues(update)
+                .withSelection(WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                        new String[]{Long.toString(mLocationId)})
+                .build());
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        Cursor cursor = query(day);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Meteors", cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        cursor.close();
+    }
+
+    /*
+        A result read before an invalidation may predate the write, it must not be cached.
+     */
+    public void testResultsReadBeforeAnInvalidationAreNotCached() {
+        QueryCache cache = new QueryCache(QueryCache.MAX_VALUES);
+        long generation = cache.getGeneration();
+        cache.invalidate(Collections.singleton(mOtherLocationId));
+
+        cache.put("key", mLocationId, generation, createCursor()).close();
+        assertNull(cache.get("key"));
+
+        cache.put("key", mLocationId, cache.getGeneration(), createCursor()).close();
+        Cursor cursor = cache.get("key");
+        assertNotNull(cursor);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(Cursor.FIELD_TYPE_INTEGER, cursor.getType(0));
+        assertEquals(42, cursor.getLong(0));
+        assertEquals(Cursor.FIELD_TYPE_FLOAT, cursor.getType(1));
+        assertEquals(1.5, cursor.getDouble(1), 0);
+        assertEquals("Clear", cursor.getString(2));
+        assertTrue(cursor.isNull(3));
+        cursor.close();
+
+        cache.invalidate(Collections.singleton(mLocationId));
+        assertNull(cache.get("key"));
+        assertEquals(1, cache.getStats().getInt(QueryCache.EXTRA_INVALIDATIONS));
+    }
+
+    // Through the provider, so the cache is invalidated as well
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static Cursor createCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"id", "temp", "desc", "none"});
+        cursor.addRow(new Object[]{42L, 1.5, "Clear", null});
+        return cursor;
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+    }
+
+    private Cursor query(Uri uri) {
+        return mContext.getContentResolver().query(uri, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    private Bundle getStats() {
+        return mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                QueryCache.METHOD_GET_STATS, null, null);
+    }
+}
@@ -0,0 +1,153 @@
+package com.wolfgoes.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.wolfgoes.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.wolfgoes.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Compares the hourly table, keyed by its packed row id with integer measurements, with the
+    row-per-day layout of the weather table: the space a row takes and how long reading a range
+    of one location takes.  Each layout is filled on its own in an in-memory database.  Timings
+    are logged, not asserted.
+ */
+public class TestTimeSeriesBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = TestTimeSeriesBenchmark.class.getSimpleName();
+
+    private static final int LOCATIONS = 50;
+    private static final int DAYS = 14;
+    // Points of the 3 hour forecast
+    private static final int HOURS = 40;
+    private static final int QUERIES = 500;
+
+    private static final long FIRST_DAY = 1419033600000L;  // December 20th, 2014
+    private static final long DAY_IN_MILLIS = HourlyEntry.HOUR_IN_MILLIS * 24;
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = SQLiteDatabase.create(null);
+        new WeatherDbHelper(mContext).onCreate(mDb);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testStoragePerLocationDay() {
+        long emptyBytes = getDatabaseBytes();
+        insertDays();
+        long dayBytes = getDatabaseBytes() - emptyBytes;
+
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+        mDb.execSQL("VACUUM");
+        emptyBytes = getDatabaseBytes();
+        insertHours();
+        long hourBytes = getDatabaseBytes() - emptyBytes;
+
+        double bytesPerDayRow = (double) dayBytes / (LOCATIONS * DAYS);
+        double bytesPerHourRow = (double) hourBytes / (LOCATIONS * HOURS);
+        // The 3 hour forecast holds 8 points a day
+        Log.i(LOG_TAG, "Row per day: " + bytesPerDayRow + " bytes per location-day. " +
+                "Hourly: " + bytesPerHourRow + " bytes per point, " + bytesPerHourRow * 8 +
+                " bytes per location-day.");
+
+        assertTrue("Error: an hourly point should take less space than a daily row, " +
+                bytesPerHourRow + " vs " + bytesPerDayRow, bytesPerHourRow < bytesPerDayRow);
+    }
+
+    public void testRangeQueryLatency() {
+        insertDays();
+        insertHours();
+
+        // Reading 2 days of one location, from either layout
+        long dayNanos = 0;
+        long hourNanos = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            long locationId = 1 + i % LOCATIONS;
+            long start = FIRST_DAY + DAY_IN_MILLIS * (i % (DAYS - 2));
+
+            long queryStart = System.nanoTime();
+            Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME, null,
+                    WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE +
+                            " >= ? AND " + WeatherEntry.COLUMN_DATE + " < ?",
+                    new String[]{Long.toString(locationId), Long.toString(start),
+                            Long.toString(start + DAY_IN_MILLIS * 2)},
+                    null, null, WeatherEntry.COLUMN_DATE);
+            assertEquals(2, readAll(cursor));
+            dayNanos += System.nanoTime() - queryStart;
+
+            long hourStart = HourlyEntry.getEpochHour(FIRST_DAY) + 24 * (i % 3);
+            queryStart = System.nanoTime();
+            cursor = mDb.query(HourlyEntry.TABLE_NAME, null,
+                    HourlyEntry._ID + " >= ? AND " + HourlyEntry._ID + " < ?",
+                    new String[]{Long.toString(HourlyEntry.buildKey(locationId, hourStart)),
+                            Long.toString(HourlyEntry.buildKey(locationId, hourStart + 48))},
+                    null, null, HourlyEntry._ID);
+            assertEquals(16, readAll(cursor));
+            hourNanos += System.nanoTime() - queryStart;
+        }
+
+        Log.i(LOG_TAG, "Range query of 2 days, row per day: " + dayNanos / QUERIES / 1000 +
+                "us for 2 rows. Hourly: " + hourNanos / QUERIES / 1000 + "us for 16 points.");
+    }
+
+    private void insertDays() {
+        mDb.beginTransaction();
+        try {
+            for (int location = 1; location <= LOCATIONS; location++) {
+                for (int day = 0; day < DAYS; day++) {
+                    ContentValues values = TestUtilities.createWeatherValues(location);
+                    values.put(WeatherEntry.COLUMN_DATE, FIRST_DAY + DAY_IN_MILLIS * day);
+                    mDb.insertOrThrow(WeatherEntry.TABLE_NAME, null, values);
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private void insertHours() {
+        long firstHour = HourlyEntry.getEpochHour(FIRST_DAY);
+        mDb.beginTransaction();
+        try {
+            for (int location = 1; location <= LOCATIONS; location++) {
+                for (int i = 0; i < HOURS; i++) {
+                    ContentValues values = TestProvider.createHourlyValues(location, firstHour + i * 3, i);
+                    values.remove(HourlyEntry.COLUMN_LOC_KEY);
+                    values.remove(HourlyEntry.COLUMN_EPOCH_HOUR);
+                    values.put(HourlyEntry._ID, HourlyEntry.buildKey(location, firstHour + i * 3));
+                    mDb.insertOrThrow(HourlyEntry.TABLE_NAME, null, values);
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private long getDatabaseBytes() {
+        return DatabaseUtils.longForQuery(mDb, "PRAGMA page_count", null) *
+                DatabaseUtils.longForQuery(mDb, "PRAGMA page_size", null);
+    }
+
+    private static int readAll(Cursor cursor) {
+        int rows = 0;
+        while (cursor.moveToNext()) {
+            cursor.getLong(0);
+            rows++;
+        }
+        cursor.close();
+        return rows;
+    }
+}
@@ -36,6 +36,20 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.wolfgoes.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.wolfgoes.sunshine.app/location/upsert"
+    private static final Uri TEST_LOCATION_UPSERT = WeatherContract.LocationEntry.UPSERT_URI;
+    // content://com.wolfgoes.sunshine.app/location/sync_state"
+    private static final Uri TEST_LOCATION_SYNC_STATE = WeatherContract.LocationEntry.SYNC_STATE_URI;
+    // content://com.wolfgoes.sunshine.app/sync_metrics"
+    private static final Uri TEST_SYNC_METRICS_DIR = WeatherContract.SyncMetricsEntry.CONTENT_URI;
+    // content://com.wolfgoes.sunshine.app/hourly"
+    private static final Uri TEST_HOURLY_DIR = WeatherContract.HourlyEntry.CONTENT_URI;
+    private static final Uri TEST_HOURLY_WITH_LOCATION_DIR =
+            WeatherContract.HourlyEntry.buildHourlyLocationWithRange(LOCATION_QUERY, 0, TEST_DATE);
+    // content://com.wolfgoes.sunshine.app/current"
+    private static final Uri TEST_CURRENT_DIR = WeatherContract.CurrentEntry.CONTENT_URI;
+    private static final Uri TEST_CURRENT_WITH_LOCATION =
+            WeatherContract.CurrentEntry.buildCurrentLocation(LOCATION_QUERY);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +67,19 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION UPSERT URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_UPSERT), WeatherProvider.LOCATION_UPSERT);
+        assertEquals("Error: The LOCATION SYNC STATE URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_SYNC_STATE), WeatherProvider.LOCATION_SYNC_STATE);
+        assertEquals("Error: The SYNC METRICS URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_METRICS_DIR), WeatherProvider.SYNC_METRICS);
+        assertEquals("Error: The HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_DIR), WeatherProvider.HOURLY);
+        assertEquals("Error: The HOURLY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_DIR), WeatherProvider.HOURLY_WITH_LOCATION);
+        assertEquals("Error: The CURRENT URI was matched incorrectly.",
+                testMatcher.match(TEST_CURRENT_DIR), WeatherProvider.CURRENT);
+        assertEquals("Error: The CURRENT WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_CURRENT_WITH_LOCATION), WeatherProvider.CURRENT_WITH_LOCATION);
     }
 }
@@ -0,0 +1,68 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+public class TestAdaptiveSyncScheduler extends AndroidTestCase {
+
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+
+    public void testVolatilityFollowsChanges() {
+        double volatility = 0;
+        // Half of the days changed in the 2 hours since the last sync: 0.25 per hour
+        for (int sync = 0; sync < 20; sync++) {
+            volatility = AdaptiveSyncScheduler.updateVolatility(volatility, 7, 14, 2 * HOUR_IN_MILLIS);
+        }
+        assertEquals(0.25, volatility, 0.01);
+
+        double stable = AdaptiveSyncScheduler.updateVolatility(volatility, 0, 14, 2 * HOUR_IN_MILLIS);
+        assertTrue("Error: volatility did not drop with a stable forecast", stable < volatility);
+
+        assertEquals("Nothing to compare should not change the volatility",
+                volatility, AdaptiveSyncScheduler.updateVolatility(volatility, 0, 0, HOUR_IN_MILLIS));
+        assertEquals("Unknown sync age should not change the volatility",
+                volatility, AdaptiveSyncScheduler.updateVolatility(volatility, 3, 14, 0));
+    }
+
+    public void testIntervalStaysWithinBounds() {
+        int interval = AdaptiveSyncScheduler.DEFAULT_INTERVAL;
+
+        assertEquals("Stable forecasts should be synced as rarely as allowed",
+                AdaptiveSyncScheduler.MAX_INTERVAL, AdaptiveSyncScheduler.computeInterval(interval, 0));
+        assertEquals("Volatile forecasts should be synced as often as allowed",
+                AdaptiveSyncScheduler.MIN_INTERVAL, AdaptiveSyncScheduler.computeInterval(interval, 10));
+
+        // A quarter of the days changing every 2 hours
+        int next = AdaptiveSyncScheduler.computeInterval(interval, 0.125);
+        assertEquals(2 * 60 * 60, next);
+    }
+
+    public void testSmallChangesKeepTheInterval() {
+        int interval = AdaptiveSyncScheduler.DEFAULT_INTERVAL;
+        // Would ask for 2h50, too close to 3h to register the periodic sync again
+        double volatility = AdaptiveSyncScheduler.TARGET_CHANGE / 2.83;
+        assertEquals(interval, AdaptiveSyncScheduler.computeInterval(interval, volatility));
+    }
+
+    public void testJitterIsStablePerInstall() {
+        int interval = AdaptiveSyncScheduler.DEFAULT_INTERVAL;
+        int maxJitter = (int) Math.ceil(interval * AdaptiveSyncScheduler.MAX_JITTER);
+
+        String installId = "2f1c0b7e-3a54-4e2a-9b1d-0c5e8f6a7d21";
+        int jittered = AdaptiveSyncScheduler.addJitter(interval, installId);
+        assertEquals(jittered, AdaptiveSyncScheduler.addJitter(interval, installId));
+        assertTrue(Math.abs(jittered - interval) <= maxJitter);
+
+        // Installs should not all land on the same interval
+        Set<Integer> intervals = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            int other = AdaptiveSyncScheduler.addJitter(interval, UUID.randomUUID().toString());
+            assertTrue(Math.abs(other - interval) <= maxJitter);
+            intervals.add(other);
+        }
+        assertTrue(intervals.size() > 1);
+    }
+}
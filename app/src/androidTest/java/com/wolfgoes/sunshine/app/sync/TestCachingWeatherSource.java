@@ -0,0 +1,144 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.wolfgoes.sunshine.app.utils.StubHttpServer;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+
+public class TestCachingWeatherSource extends AndroidTestCase {
+
+    private static final String LOCATION_A = "94043";
+    private static final String LOCATION_B = "10001";
+    // Answered with a body which is not a forecast
+    private static final String LOCATION_INVALID = "00000";
+    private static final long MAX_AGE_MILLIS = 60 * 1000;
+
+    private StubHttpServer mServer;
+    private HttpWeatherSource mHttpSource;
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mServer.setDispatcher(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                String location = Uri.parse(request.path).getQueryParameter("q");
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                        .setHeader("ETag", "\"" + location + "\"")
+                        .setBody(LOCATION_INVALID.equals(location)
+                                ? "{\"cod\":\"200\",\"list\":[]}"
+                                : TestForecastJsonParser.FORECAST_JSON);
+            }
+        });
+        mServer.start();
+        mHttpSource = new HttpWeatherSource(mServer.getUrl("/data/2.5/forecast/daily?"), "test-key");
+
+        mDirectory = new File(mContext.getCacheDir(), "forecast-cache-test");
+        TestReplayWeatherSource.deleteDirectory(mDirectory);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        TestReplayWeatherSource.deleteDirectory(mDirectory);
+        super.tearDown();
+    }
+
+    private static ForecastSyncEngine.Result fetch(WeatherSource source, String locationSetting, String etag)
+            throws InterruptedException {
+        return new ForecastSyncEngine(source).fetch(
+                new ForecastSyncEngine.Target(locationSetting, 0, etag, null), new SyncMetrics());
+    }
+
+    public void testFreshEntryIsServedWithoutNetwork() throws Exception {
+        CachingWeatherSource cache = new CachingWeatherSource(mHttpSource, mDirectory,
+                MAX_AGE_MILLIS, CachingWeatherSource.DEFAULT_MAX_SIZE_BYTES);
+
+        assertEquals(ForecastSyncEngine.STATUS_OK, fetch(cache, LOCATION_A, null).status);
+        ForecastSyncEngine.Result cached = fetch(cache, LOCATION_A, null);
+
+        assertEquals("Error: a fresh entry should not reach the server", 1, mServer.getRequestCount());
+        assertEquals(ForecastSyncEngine.STATUS_OK, cached.status);
+        assertEquals(2, cached.days.size());
+        assertEquals("\"" + LOCATION_A + "\"", cached.etag);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // The caller already holding the cached forecast gets a not modified answer
+        assertEquals(ForecastSyncEngine.STATUS_NOT_MODIFIED,
+                fetch(cache, LOCATION_A, "\"" + LOCATION_A + "\"").status);
+        assertEquals(1, mServer.getRequestCount());
+
+        // Entries survive the cache instance
+        CachingWeatherSource reopened = new CachingWeatherSource(mHttpSource, mDirectory,
+                MAX_AGE_MILLIS, CachingWeatherSource.DEFAULT_MAX_SIZE_BYTES);
+        assertEquals(ForecastSyncEngine.STATUS_OK, fetch(reopened, LOCATION_A, null).status);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    public void testUnparseableBodyIsNotCached() throws Exception {
+        CachingWeatherSource cache = new CachingWeatherSource(mHttpSource, mDirectory,
+                MAX_AGE_MILLIS, CachingWeatherSource.DEFAULT_MAX_SIZE_BYTES);
+
+        assertNotNull(fetch(cache, LOCATION_INVALID, null).error);
+        assertNotNull(fetch(cache, LOCATION_INVALID, null).error);
+        assertEquals("Error: a body which could not be parsed should not be cached",
+                2, mServer.getRequestCount());
+        assertEquals(0, cache.getHitCount());
+
+        String[] files = mDirectory.list();
+        assertEquals("Error: the partial copy should have been deleted", 0, files.length);
+    }
+
+    public void testForcedRequestSkipsFreshEntry() throws Exception {
+        CachingWeatherSource cache = new CachingWeatherSource(mHttpSource, mDirectory,
+                MAX_AGE_MILLIS, CachingWeatherSource.DEFAULT_MAX_SIZE_BYTES);
+        fetch(cache, LOCATION_A, null);
+
+        ForecastSyncEngine.Result forced = new ForecastSyncEngine(cache).fetch(
+                new ForecastSyncEngine.Target(LOCATION_A, 0, null, null, true), new SyncMetrics());
+
+        assertEquals("Error: a forced request should reach the server", 2, mServer.getRequestCount());
+        assertEquals(ForecastSyncEngine.STATUS_OK, forced.status);
+        assertEquals(0, cache.getHitCount());
+
+        // What the forced request downloaded is served to the next ones
+        fetch(cache, LOCATION_A, null);
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testExpiredEntryIsRefetched() throws Exception {
+        CachingWeatherSource cache = new CachingWeatherSource(mHttpSource, mDirectory,
+                0, CachingWeatherSource.DEFAULT_MAX_SIZE_BYTES);
+
+        fetch(cache, LOCATION_A, null);
+        fetch(cache, LOCATION_A, null);
+
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+        // Room for a single forecast
+        long entrySize = TestForecastJsonParser.FORECAST_JSON.getBytes("UTF-8").length + 64;
+        CachingWeatherSource cache = new CachingWeatherSource(mHttpSource, mDirectory,
+                MAX_AGE_MILLIS, entrySize + entrySize / 2);
+
+        fetch(cache, LOCATION_A, null);
+        fetch(cache, LOCATION_B, null);
+        assertEquals(1, cache.getEvictionCount());
+
+        fetch(cache, LOCATION_B, null);
+        assertEquals("Error: the most recent entry should have been kept", 2, mServer.getRequestCount());
+
+        fetch(cache, LOCATION_A, null);
+        assertEquals("Error: the oldest entry should have been evicted", 3, mServer.getRequestCount());
+    }
+}
@@ -0,0 +1,84 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+import com.wolfgoes.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastDiff extends AndroidTestCase {
+
+    private static final long LOCATION_ID = 1;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(1419033600000L);
+
+    private static ContentValues createDay(int dayIndex, double high) {
+        DayForecast day = new DayForecast();
+        day.dayIndex = dayIndex;
+        day.pressure = 1013.5;
+        day.humidity = 80;
+        day.windSpeed = 3.4;
+        day.windDirection = 120;
+        day.high = high;
+        day.low = 15.2;
+        day.description = "Clear";
+        day.weatherId = 800;
+        return day.toContentValues(LOCATION_ID, FIRST_DAY + dayIndex * DAY_IN_MILLIS);
+    }
+
+    private static void addRow(MatrixCursor cursor, long id, ContentValues values) {
+        Object[] row = new Object[ForecastDiff.PROJECTION.length];
+        row[0] = id;
+        for (int i = 1; i < row.length; i++) {
+            row[i] = values.get(ForecastDiff.PROJECTION[i]);
+        }
+        cursor.addRow(row);
+    }
+
+    public void testDiff() {
+        MatrixCursor stored = new MatrixCursor(ForecastDiff.PROJECTION);
+        // yesterday, before the new forecast starts: left for the stale data cleanup
+        addRow(stored, 10, createDay(-1, 20));
+        // today, unchanged
+        addRow(stored, 11, createDay(0, 25.8));
+        // tomorrow, the high changed
+        addRow(stored, 12, createDay(1, 25.8));
+        // the day after, no longer part of the forecast
+        addRow(stored, 13, createDay(2, 25.8));
+
+        List<ContentValues> incoming = new ArrayList<>();
+        incoming.add(createDay(0, 25.8));
+        incoming.add(createDay(1, 27.0));
+        incoming.add(createDay(3, 22.0));
+        // days in between may be missing from the answer; day 2 is one of them
+        ForecastDiff diff = ForecastDiff.compute(stored, incoming);
+
+        assertTrue(diff.hasChanges());
+        assertEquals(1, diff.unchanged);
+        assertEquals(1, diff.updates.size());
+        assertTrue(diff.updates.containsKey(12L));
+        assertEquals(1, diff.deletes.size());
+        assertEquals(Long.valueOf(13), diff.deletes.get(0));
+        assertEquals(1, diff.inserts.size());
+        assertEquals(FIRST_DAY + 3 * DAY_IN_MILLIS,
+                (long) diff.inserts.get(0).getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+    }
+
+    public void testUnchangedForecastHasNoChanges() {
+        MatrixCursor stored = new MatrixCursor(ForecastDiff.PROJECTION);
+        List<ContentValues> incoming = new ArrayList<>();
+        for (int i = 0; i < 14; i++) {
+            ContentValues day = createDay(i, 20 + i);
+            addRow(stored, 100 + i, day);
+            incoming.add(day);
+        }
+
+        ForecastDiff diff = ForecastDiff.compute(stored, incoming);
+
+        assertFalse(diff.hasChanges());
+        assertEquals(14, diff.unchanged);
+    }
+}
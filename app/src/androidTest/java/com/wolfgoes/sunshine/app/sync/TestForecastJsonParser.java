@@ -0,0 +1,211 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.wolfgoes.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    // Trimmed down response of forecast/daily, with "list" before "city" on purpose
+    static final String FORECAST_JSON = "{\"cod\":\"200\",\"message\":0.01,\"cnt\":2," +
+            "\"list\":[" +
+            "{\"dt\":1419033600,\"temp\":{\"day\":20.5,\"min\":15.2,\"max\":25.8}," +
+            "\"pressure\":1013.5,\"humidity\":80," +
+            "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\"}]," +
+            "\"speed\":3.4,\"deg\":120,\"clouds\":0}," +
+            "{\"dt\":1419120000,\"temp\":{\"day\":18.0,\"min\":12.0,\"max\":21.0}," +
+            "\"pressure\":1009.1,\"humidity\":90," +
+            "\"weather\":[{\"id\":501,\"main\":\"Rain\",\"description\":\"moderate rain\"}]," +
+            "\"speed\":6.1,\"deg\":270,\"rain\":4.2}]," +
+            "\"city\":{\"id\":3448439,\"name\":\"Sao Paulo\"," +
+            "\"coord\":{\"lon\":-46.64,\"lat\":-23.55},\"country\":\"BR\"}}";
+
+    // Trimmed down response of the 3 hour forecast
+    static final String HOURLY_JSON = "{\"cod\":\"200\",\"message\":0.01,\"cnt\":2," +
+            "\"list\":[" +
+            "{\"dt\":1419033600,\"main\":{\"temp\":20.46,\"temp_min\":20.46,\"temp_max\":21.1," +
+            "\"pressure\":1013.53,\"humidity\":80}," +
+            "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\"}]," +
+            "\"clouds\":{\"all\":0},\"wind\":{\"speed\":3.41,\"deg\":120.5}," +
+            "\"dt_txt\":\"2014-12-20 00:00:00\"}," +
+            "{\"dt\":1419044400,\"main\":{\"temp\":18.0,\"pressure\":1012.0,\"humidity\":85}," +
+            "\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\"}]," +
+            "\"wind\":{\"speed\":5.2,\"deg\":250},\"rain\":{\"3h\":0.5}," +
+            "\"dt_txt\":\"2014-12-20 03:00:00\"}]," +
+            "\"city\":{\"id\":3448439,\"name\":\"Sao Paulo\"," +
+            "\"coord\":{\"lon\":-46.64,\"lat\":-23.55},\"country\":\"BR\"}}";
+
+    // Trimmed down response of the current weather
+    static final String CURRENT_JSON = "{\"coord\":{\"lon\":-46.64,\"lat\":-23.55}," +
+            "\"weather\":[{\"id\":802,\"main\":\"Clouds\",\"description\":\"scattered clouds\"}]," +
+            "\"base\":\"stations\",\"main\":{\"temp\":23.4,\"pressure\":1014.2,\"humidity\":64," +
+            "\"temp_min\":22,\"temp_max\":25}," +
+            "\"wind\":{\"speed\":2.6,\"deg\":150},\"clouds\":{\"all\":40},\"dt\":1419037200," +
+            "\"sys\":{\"country\":\"BR\"},\"id\":3448439,\"name\":\"Sao Paulo\",\"cod\":200}";
+
+    static class RecordingCallback implements ForecastJsonParser.Callback {
+        long cityId;
+        String cityName;
+        double lat;
+        double lon;
+        final List<DayForecast> days = new ArrayList<>();
+
+        @Override
+        public void onCity(long cityId, String cityName, double lat, double lon) {
+            this.cityId = cityId;
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public void onDay(DayForecast day) {
+            days.add(day);
+        }
+    }
+
+    public void testParseForecast() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        new ForecastJsonParser().parse(new StringReader(FORECAST_JSON), callback);
+
+        assertEquals(3448439L, callback.cityId);
+        assertEquals("Sao Paulo", callback.cityName);
+        assertEquals(-23.55, callback.lat, 1e-6);
+        assertEquals(-46.64, callback.lon, 1e-6);
+
+        assertEquals(2, callback.days.size());
+
+        DayForecast today = callback.days.get(0);
+        assertEquals(0, today.dayIndex);
+        assertEquals(25.8, today.high, 1e-6);
+        assertEquals(15.2, today.low, 1e-6);
+        assertEquals(1013.5, today.pressure, 1e-6);
+        assertEquals(80, today.humidity);
+        assertEquals(3.4, today.windSpeed, 1e-6);
+        assertEquals(120.0, today.windDirection, 1e-6);
+        assertEquals("Clear", today.description);
+        assertEquals(800, today.weatherId);
+
+        DayForecast tomorrow = callback.days.get(1);
+        assertEquals(1, tomorrow.dayIndex);
+        assertEquals("Rain", tomorrow.description);
+        assertEquals(501, tomorrow.weatherId);
+    }
+
+    public void testParseGroup() throws Exception {
+        String group = "{\"cnt\":2,\"list\":[" + FORECAST_JSON + "," + FORECAST_JSON + "]}";
+        final List<RecordingCallback> forecasts = new ArrayList<>();
+
+        new ForecastJsonParser().parseGroup(new StringReader(group),
+                new ForecastJsonParser.GroupCallback() {
+                    @Override
+                    public ForecastJsonParser.Callback onForecast() {
+                        RecordingCallback callback = new RecordingCallback();
+                        forecasts.add(callback);
+                        return callback;
+                    }
+                });
+
+        assertEquals(2, forecasts.size());
+        for (RecordingCallback callback : forecasts) {
+            assertEquals(3448439L, callback.cityId);
+            assertEquals(2, callback.days.size());
+        }
+    }
+
+    public void testParseHourly() throws Exception {
+        final List<HourForecast> hours = new ArrayList<>();
+        new ForecastJsonParser().parseHourly(new StringReader(HOURLY_JSON),
+                new ForecastJsonParser.HourlyCallback() {
+                    @Override
+                    public void onHour(HourForecast hour) {
+                        hours.add(hour);
+                    }
+                });
+
+        assertEquals(2, hours.size());
+
+        HourForecast first = hours.get(0);
+        assertEquals(1419033600000L, first.time);
+        assertEquals(20.46, first.temperature, 1e-6);
+        assertEquals(1013.53, first.pressure, 1e-6);
+        assertEquals(80, first.humidity);
+        assertEquals(3.41, first.windSpeed, 1e-6);
+        assertEquals(120.5, first.windDirection, 1e-6);
+        assertEquals(800, first.weatherId);
+
+        assertEquals(500, hours.get(1).weatherId);
+        assertEquals(3 * 60 * 60 * 1000L, hours.get(1).time - first.time);
+
+        // Stored in tenths, rounded
+        assertEquals(205, (int) first.toContentValues(1).getAsInteger(
+                WeatherContract.HourlyEntry.COLUMN_TEMP));
+    }
+
+    public void testParseCurrent() throws Exception {
+        CurrentConditions current = new ForecastJsonParser().parseCurrent(new StringReader(CURRENT_JSON));
+
+        assertEquals(3448439, current.cityId);
+        assertEquals("Sao Paulo", current.cityName);
+        assertEquals(-23.55, current.lat, 1e-6);
+        assertEquals(-46.64, current.lon, 1e-6);
+        assertEquals(1419037200000L, current.time);
+        assertEquals(23.4, current.temperature, 1e-6);
+        assertEquals(1014.2, current.pressure, 1e-6);
+        assertEquals(64, current.humidity);
+        assertEquals(2.6, current.windSpeed, 1e-6);
+        assertEquals(150, current.windDirection, 1e-6);
+        assertEquals(802, current.weatherId);
+        assertEquals("Clouds", current.description);
+
+        try {
+            new ForecastJsonParser().parseCurrent(new StringReader("{\"dt\":1419037200}"));
+            fail("Error: current weather without conditions should not be accepted");
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testMissingCityFails() throws Exception {
+        try {
+            new ForecastJsonParser().parse(new StringReader("{\"list\":[]}"), new RecordingCallback());
+            fail("Error: a forecast without a city should not be accepted");
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testMissingDayValueFails() throws Exception {
+        // Each of the fields stored for the first day, taken out in turn
+        String[] withoutField = {
+                FORECAST_JSON.replace("\"pressure\":1013.5,", ""),
+                FORECAST_JSON.replace("\"humidity\":80,", ""),
+                FORECAST_JSON.replace("\"speed\":3.4,", ""),
+                FORECAST_JSON.replace("\"deg\":120,", ""),
+                FORECAST_JSON.replace(",\"max\":25.8", ""),
+                FORECAST_JSON.replace(",\"min\":15.2", ""),
+                FORECAST_JSON.replace("\"main\":\"Clear\",", ""),
+                FORECAST_JSON.replace("\"id\":800,", "")
+        };
+        for (String json : withoutField) {
+            assertFalse(FORECAST_JSON.equals(json));
+            try {
+                new ForecastJsonParser().parse(new StringReader(json), new RecordingCallback());
+                fail("Error: a day with a missing field should not be accepted: " + json);
+            } catch (JSONException expected) {
+            }
+        }
+    }
+
+    public void testMalformedPayloadFails() throws Exception {
+        try {
+            new ForecastJsonParser().parse(new StringReader("{\"city\":[1,2"), new RecordingCallback());
+            fail("Error: a truncated payload should be reported as a parse error");
+        } catch (JSONException expected) {
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.wolfgoes.sunshine.app.utils.StubHttpServer;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestForecastSyncEngine extends AndroidTestCase {
+
+    private static final String GOOD_LOCATION = "94043";
+    private static final String UNCHANGED_LOCATION = "10001";
+    private static final String BROKEN_LOCATION = "99705";
+    // Drops the connection of its first FLAKY_FAILURES requests
+    private static final String FLAKY_LOCATION = "20001";
+    // Always drops the connection
+    private static final String DEAD_LOCATION = "30001";
+    private static final String MISSING_LOCATION = "00000";
+    // Answers 429 Too Many Requests, asking to wait RETRY_AFTER_SECONDS
+    private static final String THROTTLED_LOCATION = "42900";
+
+    private static final int RETRY_AFTER_SECONDS = 120;
+
+    private static final int FLAKY_FAILURES = 2;
+
+    // City id of the forecast in TestForecastJsonParser.FORECAST_JSON
+    private static final long TEST_CITY_ID = 3448439L;
+
+    private StubHttpServer mServer;
+    private HttpWeatherSource mSource;
+    private ForecastSyncEngine mEngine;
+    private volatile boolean mGroupAvailable = true;
+    private final AtomicInteger mFlakyRequests = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mServer.setDispatcher(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                Uri uri = Uri.parse(request.path);
+                if (uri.getPath().endsWith("/group")) {
+                    if (!mGroupAvailable) {
+                        return new StubHttpServer.Response(HttpURLConnection.HTTP_NOT_FOUND);
+                    }
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                            .setBody("{\"cnt\":1,\"list\":[" + TestForecastJsonParser.FORECAST_JSON + "]}");
+                }
+                String location = uri.getQueryParameter("q");
+                if (UNCHANGED_LOCATION.equals(location)) {
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_NOT_MODIFIED);
+                } else if (BROKEN_LOCATION.equals(location)) {
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_INTERNAL_ERROR);
+                } else if (MISSING_LOCATION.equals(location)) {
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_NOT_FOUND);
+                } else if (THROTTLED_LOCATION.equals(location)) {
+                    return new StubHttpServer.Response(WeatherResponse.HTTP_TOO_MANY_REQUESTS)
+                            .setHeader("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+                } else if (DEAD_LOCATION.equals(location)) {
+                    return StubHttpServer.Response.dropConnection();
+                } else if (FLAKY_LOCATION.equals(location)
+                        && mFlakyRequests.incrementAndGet() <= FLAKY_FAILURES) {
+                    return StubHttpServer.Response.dropConnection();
+                }
+                if (uri.getPath().endsWith("/weather")) {
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                            .setBody(TestForecastJsonParser.CURRENT_JSON);
+                }
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                        .setHeader("ETag", "\"" + location + "\"")
+                        .setBody(TestForecastJsonParser.FORECAST_JSON);
+            }
+        });
+        mServer.start();
+        mSource = new HttpWeatherSource(
+                mServer.getUrl("/data/2.5/forecast/daily?"),
+                mServer.getUrl("/data/2.5/forecast/daily/group?"),
+                "test-key");
+        // No retries, so every location costs exactly one request
+        mEngine = new ForecastSyncEngine(mSource, new RetryPolicy(1, 0, 0),
+                CircuitBreaker.DEFAULT_FAILURE_THRESHOLD, CircuitBreaker.DEFAULT_OPEN_MILLIS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testFetchAllReportsEveryLocation() throws Exception {
+        List<ForecastSyncEngine.Target> targets = new ArrayList<>();
+        targets.add(new ForecastSyncEngine.Target(GOOD_LOCATION, 0, null, null));
+        targets.add(new ForecastSyncEngine.Target(UNCHANGED_LOCATION, 0, "\"old\"", null));
+        targets.add(new ForecastSyncEngine.Target(BROKEN_LOCATION, 0, null, null));
+
+        List<ForecastSyncEngine.Result> results = mEngine.fetchAll(targets);
+
+        assertEquals(3, results.size());
+        assertEquals(3, mServer.getRequestCount());
+
+        ForecastSyncEngine.Result good = results.get(0);
+        assertEquals(GOOD_LOCATION, good.locationSetting);
+        assertEquals(ForecastSyncEngine.STATUS_OK, good.status);
+        assertEquals("Sao Paulo", good.cityName);
+        assertEquals(2, good.days.size());
+        assertEquals("\"" + GOOD_LOCATION + "\"", good.etag);
+
+        assertEquals(ForecastSyncEngine.STATUS_NOT_MODIFIED, results.get(1).status);
+
+        ForecastSyncEngine.Result broken = results.get(2);
+        assertEquals(ForecastSyncEngine.STATUS_FAILED, broken.status);
+        assertNotNull(broken.error);
+    }
+
+    public void testResultsAreHandedOverAsTheyComplete() throws Exception {
+        final List<ForecastSyncEngine.Target> targets = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            targets.add(new ForecastSyncEngine.Target(Integer.toString(50000 + i), 0, null, null));
+        }
+        final Thread caller = Thread.currentThread();
+        final List<String> handled = new ArrayList<>();
+
+        List<ForecastSyncEngine.Result> results = mEngine.fetchAll(targets, new SyncMetrics(),
+                new ForecastSyncEngine.ResultHandler() {
+                    @Override
+                    public void onResult(ForecastSyncEngine.Result result) {
+                        assertSame("Error: results should be handled on the calling thread",
+                                caller, Thread.currentThread());
+                        handled.add(result.locationSetting);
+                        // A slow database stage holds the downloads back instead of failing them
+                        SystemClock.sleep(20);
+                    }
+                });
+
+        assertEquals(targets.size(), handled.size());
+        assertEquals(targets.size(), results.size());
+        for (int i = 0; i < targets.size(); i++) {
+            assertEquals(targets.get(i).locationSetting, results.get(i).locationSetting);
+            assertEquals(ForecastSyncEngine.STATUS_OK, results.get(i).status);
+            assertTrue(handled.contains(targets.get(i).locationSetting));
+        }
+    }
+
+    public void testGroupFetchFansOutByCityId() throws Exception {
+        List<ForecastSyncEngine.Target> targets = new ArrayList<>();
+        targets.add(new ForecastSyncEngine.Target(GOOD_LOCATION, TEST_CITY_ID, null, null));
+
+        List<ForecastSyncEngine.Result> results = mEngine.fetchAll(targets);
+
+        assertEquals("Error: a known city should be fetched with one group request",
+                1, mServer.getRequestCount());
+        assertTrue(mServer.getRequests().get(0).path.contains("id=" + TEST_CITY_ID));
+
+        ForecastSyncEngine.Result result = results.get(0);
+        assertEquals(GOOD_LOCATION, result.locationSetting);
+        assertEquals(ForecastSyncEngine.STATUS_OK, result.status);
+        assertEquals(2, result.days.size());
+    }
+
+    public void testGroupFetchFallsBackToSingleRequests() throws Exception {
+        mGroupAvailable = false;
+
+        List<ForecastSyncEngine.Target> targets = new ArrayList<>();
+        targets.add(new ForecastSyncEngine.Target(GOOD_LOCATION, TEST_CITY_ID, null, null));
+
+        List<ForecastSyncEngine.Result> results = mEngine.fetchAll(targets);
+
+        assertEquals("Error: an unavailable group endpoint should fall back to a single request",
+                2, mServer.getRequestCount());
+        assertEquals(ForecastSyncEngine.STATUS_OK, results.get(0).status);
+
+        // the engine remembers the endpoint is missing and goes straight to single requests
+        mEngine.fetchAll(targets);
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    public void testTransientFailuresAreRetried() throws Exception {
+        ForecastSyncEngine engine = new ForecastSyncEngine(mSource, new RetryPolicy(3, 1, 10),
+                CircuitBreaker.DEFAULT_FAILURE_THRESHOLD, CircuitBreaker.DEFAULT_OPEN_MILLIS);
+
+        ForecastSyncEngine.Result result = engine.fetch(
+                new ForecastSyncEngine.Target(FLAKY_LOCATION, 0, null, null), new SyncMetrics());
+
+        assertEquals(ForecastSyncEngine.STATUS_OK, result.status);
+        assertNull(result.error);
+        assertEquals("Error: the days of the failed attempts should have been dropped",
+                2, result.days.size());
+        assertEquals(FLAKY_FAILURES + 1, mServer.getRequestCount());
+    }
+
+    public void testClientErrorsAreNotRetried() throws Exception {
+        ForecastSyncEngine engine = new ForecastSyncEngine(mSource, new RetryPolicy(3, 1, 10),
+                CircuitBreaker.DEFAULT_FAILURE_THRESHOLD, CircuitBreaker.DEFAULT_OPEN_MILLIS);
+
+        ForecastSyncEngine.Result result = engine.fetch(
+                new ForecastSyncEngine.Target(MISSING_LOCATION, 0, null, null), new SyncMetrics());
+
+        assertEquals(ForecastSyncEngine.STATUS_FAILED, result.status);
+        assertEquals(FetchException.KIND_CLIENT_ERROR, result.error.kind);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, result.error.statusCode);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    public void testCurrentConditionsAreFetchedOnTheirOwn() throws Exception {
+        HttpWeatherSource source = new HttpWeatherSource(
+                mServer.getUrl("/data/2.5/forecast/daily?"), null, null,
+                mServer.getUrl("/data/2.5/weather?"), "test-key");
+        ForecastSyncEngine engine = new ForecastSyncEngine(source, new RetryPolicy(3, 1, 10),
+                CircuitBreaker.DEFAULT_FAILURE_THRESHOLD, CircuitBreaker.DEFAULT_OPEN_MILLIS);
+        assertTrue(engine.supportsCurrent());
+        assertFalse(mEngine.supportsCurrent());
+
+        CurrentConditions current = engine.fetchCurrent(FLAKY_LOCATION, new SyncMetrics());
+        assertEquals("Sao Paulo", current.cityName);
+        assertEquals(802, current.weatherId);
+        assertEquals("Error: transient failures should have been retried",
+                FLAKY_FAILURES + 1, mServer.getRequestCount());
+
+        try {
+            engine.fetchCurrent(MISSING_LOCATION, new SyncMetrics());
+            fail("Error: a missing location should fail");
+        } catch (FetchException e) {
+            assertEquals(FetchException.KIND_CLIENT_ERROR, e.kind);
+        }
+        assertEquals(FLAKY_FAILURES + 2, mServer.getRequestCount());
+    }
+
+    public void testServerErrorsAreClassified() throws Exception {
+        ForecastSyncEngine.Result result = mEngine.fetch(
+                new ForecastSyncEngine.Target(BROKEN_LOCATION, 0, null, null), new SyncMetrics());
+        assertEquals(FetchException.KIND_SERVER_ERROR, result.error.kind);
+        assertTrue(result.error.isTransient());
+
+        result = mEngine.fetch(
+                new ForecastSyncEngine.Target(DEAD_LOCATION, 0, null, null), new SyncMetrics());
+        assertEquals(FetchException.KIND_IO, result.error.kind);
+        assertTrue(result.error.isTransient());
+    }
+
+    public void testRateLimitedRequestsWaitForRetryAfter() throws Exception {
+        SharedPreferences prefs = mContext.getSharedPreferences("test_rate_limiter", Context.MODE_PRIVATE);
+        prefs.edit().clear().commit();
+        RateLimiter limiter = new RateLimiter(prefs, 10, 1000);
+        ForecastSyncEngine engine = new ForecastSyncEngine(new RateLimitedWeatherSource(mSource, limiter));
+
+        long start = System.currentTimeMillis();
+        ForecastSyncEngine.Result result = engine.fetch(
+                new ForecastSyncEngine.Target(THROTTLED_LOCATION, 0, null, null), new SyncMetrics());
+        assertEquals(FetchException.KIND_RATE_LIMITED, result.error.kind);
+        assertFalse("Error: a rate limited request should not be retried", result.error.isTransient());
+        assertEquals(1, mServer.getRequestCount());
+        assertTrue(result.error.retryAtMillis >= start + RETRY_AFTER_SECONDS * 1000);
+        assertEquals(1, limiter.getRateLimitedCount());
+
+        // Until then, the limiter answers in place of the server
+        result = engine.fetch(
+                new ForecastSyncEngine.Target(GOOD_LOCATION, 0, null, null), new SyncMetrics());
+        assertEquals("Error: a rate limited client should not reach the server", 1, mServer.getRequestCount());
+        assertEquals(FetchException.KIND_RATE_LIMITED, result.error.kind);
+        assertTrue(result.error.retryAtMillis >= start + (RETRY_AFTER_SECONDS - 1) * 1000);
+        assertEquals(1, limiter.getThrottledCount());
+    }
+
+    public void testCircuitBreakerStopsRequests() throws Exception {
+        ForecastSyncEngine engine = new ForecastSyncEngine(mSource, new RetryPolicy(1, 0, 0), 2, 60 * 1000);
+        ForecastSyncEngine.Target dead = new ForecastSyncEngine.Target(DEAD_LOCATION, 0, null, null);
+
+        engine.fetch(dead, new SyncMetrics());
+        engine.fetch(dead, new SyncMetrics());
+        assertEquals(2, mServer.getRequestCount());
+
+        // The host failed twice in a row, even another location is not requested now
+        ForecastSyncEngine.Result result = engine.fetch(
+                new ForecastSyncEngine.Target(GOOD_LOCATION, 0, null, null), new SyncMetrics());
+        assertEquals("Error: an open circuit should not reach the server", 2, mServer.getRequestCount());
+        assertEquals(ForecastSyncEngine.STATUS_FAILED, result.status);
+        assertEquals(FetchException.KIND_CIRCUIT_OPEN, result.error.kind);
+        assertTrue(result.error.retryAtMillis > System.currentTimeMillis());
+    }
+
+    public void testCircuitBreakerProbesAfterOpenPeriod() throws Exception {
+        ForecastSyncEngine engine = new ForecastSyncEngine(mSource, new RetryPolicy(1, 0, 0), 1, 50);
+
+        engine.fetch(new ForecastSyncEngine.Target(DEAD_LOCATION, 0, null, null), new SyncMetrics());
+        Thread.sleep(100);
+
+        ForecastSyncEngine.Result result = engine.fetch(
+                new ForecastSyncEngine.Target(GOOD_LOCATION, 0, null, null), new SyncMetrics());
+        assertEquals(ForecastSyncEngine.STATUS_OK, result.status);
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    /*
+        A sync cancelled while its request waits for a permit never sends it.  If that request
+        was the probe of a half-open breaker, the next one must be allowed to probe instead.
+     */
+    public void testInterruptedProbeDoesNotBlockTheHost() throws Exception {
+        ForecastSyncEngine engine = new ForecastSyncEngine(mSource, new RetryPolicy(1, 0, 0), 1, 50);
+        ForecastSyncEngine.Target good = new ForecastSyncEngine.Target(GOOD_LOCATION, 0, null, null);
+
+        engine.fetch(new ForecastSyncEngine.Target(DEAD_LOCATION, 0, null, null), new SyncMetrics());
+        Thread.sleep(100);
+
+        Thread.currentThread().interrupt();
+        try {
+            engine.fetch(good, new SyncMetrics());
+            fail("Error: the fetch should have been interrupted");
+        } catch (InterruptedException e) {
+            // expected
+        }
+        assertEquals(1, mServer.getRequestCount());
+
+        ForecastSyncEngine.Result result = engine.fetch(good, new SyncMetrics());
+        assertEquals("Error: the interrupted probe left the host refused",
+                ForecastSyncEngine.STATUS_OK, result.status);
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    public void testBackoffIsJitteredAndCapped() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, new Random(42));
+        for (int attempt = 1; attempt < 10; attempt++) {
+            long ceiling = Math.min(1000, 100L << (attempt - 1));
+            for (int i = 0; i < 20; i++) {
+                long delay = policy.getDelayMillis(attempt);
+                assertTrue("Error: delay " + delay + " out of [0, " + ceiling + ")",
+                        delay >= 0 && delay < ceiling);
+            }
+        }
+    }
+}
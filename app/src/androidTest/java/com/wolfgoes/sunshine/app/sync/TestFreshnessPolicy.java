@@ -0,0 +1,30 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestFreshnessPolicy extends AndroidTestCase {
+
+    private static final long TTL_MILLIS = 1000 * 60 * 14;
+
+    public void testExpiresAt() {
+        FreshnessPolicy policy = new FreshnessPolicy(TTL_MILLIS);
+        assertEquals(5000 + TTL_MILLIS, policy.getExpiresAt(5000));
+    }
+
+    public void testIsFresh() {
+        long now = 1000000;
+        assertTrue(FreshnessPolicy.isFresh(now - 10, now + 10, now));
+        assertFalse("Expired forecast", FreshnessPolicy.isFresh(now - 20, now - 10, now));
+        assertFalse("Never synced", FreshnessPolicy.isFresh(0, 0, now));
+        assertFalse("Synced in the future", FreshnessPolicy.isFresh(now + 10, now + 20, now));
+    }
+
+    public void testInvalidTimeToLive() {
+        try {
+            new FreshnessPolicy(-TTL_MILLIS);
+            fail("A negative time to live should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
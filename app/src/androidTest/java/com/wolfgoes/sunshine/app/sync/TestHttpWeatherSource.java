@@ -0,0 +1,135 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.wolfgoes.sunshine.app.utils.StubHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class TestHttpWeatherSource extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "94043";
+    private static final String TEST_ETAG = "\"5e1c-forecast\"";
+    private static final String TEST_LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+
+    private StubHttpServer mServer;
+    private HttpWeatherSource mSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mServer.start();
+        mSource = new HttpWeatherSource(mServer.getUrl("/data/2.5/forecast/daily?"), "test-key");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testUnconditionalFetchReturnsValidators() throws Exception {
+        mServer.enqueue(new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                .setHeader("ETag", TEST_ETAG)
+                .setHeader("Last-Modified", TEST_LAST_MODIFIED)
+                .setBody(TestForecastJsonParser.FORECAST_JSON));
+
+        WeatherResponse response = mSource.fetch(TEST_LOCATION, null, null, false);
+        try {
+            assertFalse(response.isNotModified());
+            assertEquals(TEST_ETAG, response.getETag());
+            assertEquals(TEST_LAST_MODIFIED, response.getLastModified());
+        } finally {
+            response.disconnect();
+        }
+
+        StubHttpServer.Request request = mServer.getRequests().get(0);
+        assertNull("Error: first fetch must not be conditional", request.getHeader("If-None-Match"));
+        assertNull("Error: first fetch must not be conditional", request.getHeader("If-Modified-Since"));
+    }
+
+    public void testConditionalFetchSendsValidators() throws Exception {
+        mServer.enqueue(new StubHttpServer.Response(HttpURLConnection.HTTP_NOT_MODIFIED)
+                .setHeader("ETag", TEST_ETAG));
+
+        WeatherResponse response = mSource.fetch(TEST_LOCATION, TEST_ETAG, TEST_LAST_MODIFIED, false);
+        try {
+            assertTrue("Error: a 304 answer should be reported as not modified",
+                    response.isNotModified());
+        } finally {
+            response.disconnect();
+        }
+
+        StubHttpServer.Request request = mServer.getRequests().get(0);
+        assertEquals(TEST_ETAG, request.getHeader("If-None-Match"));
+        assertEquals(TEST_LAST_MODIFIED, request.getHeader("If-Modified-Since"));
+    }
+
+    private static byte[] gzip(String body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(body.getBytes("UTF-8"));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] deflate(String body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeflaterOutputStream out = new DeflaterOutputStream(bytes);
+        out.write(body.getBytes("UTF-8"));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private ForecastSyncEngine.Result fetchAndParse(SyncMetrics metrics) throws Exception {
+        return new ForecastSyncEngine(mSource).fetch(
+                new ForecastSyncEngine.Target(TEST_LOCATION, 0, null, null), metrics);
+    }
+
+    public void testGzipResponseIsDecompressed() throws Exception {
+        byte[] compressed = gzip(TestForecastJsonParser.FORECAST_JSON);
+        mServer.enqueue(new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(compressed));
+
+        SyncMetrics metrics = new SyncMetrics();
+        ForecastSyncEngine.Result result = fetchAndParse(metrics);
+
+        assertEquals(ForecastSyncEngine.STATUS_OK, result.status);
+        assertEquals(2, result.days.size());
+        assertTrue("Error: compression should be offered",
+                mServer.getRequests().get(0).getHeader("Accept-Encoding").contains("gzip"));
+        assertEquals(compressed.length, metrics.getWireBytes());
+        assertEquals(TestForecastJsonParser.FORECAST_JSON.getBytes("UTF-8").length, metrics.getBytes());
+    }
+
+    public void testDeflateResponseIsDecompressed() throws Exception {
+        byte[] compressed = deflate(TestForecastJsonParser.FORECAST_JSON);
+        mServer.enqueue(new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                .setHeader("Content-Encoding", "deflate")
+                .setBody(compressed));
+
+        SyncMetrics metrics = new SyncMetrics();
+        ForecastSyncEngine.Result result = fetchAndParse(metrics);
+
+        assertEquals(ForecastSyncEngine.STATUS_OK, result.status);
+        assertEquals(2, result.days.size());
+        assertEquals(compressed.length, metrics.getWireBytes());
+    }
+
+    public void testDeclaredCharsetIsUsed() throws Exception {
+        String body = TestForecastJsonParser.FORECAST_JSON.replace("Sao Paulo", "S\u00e3o Paulo");
+        mServer.enqueue(new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                .setHeader("Content-Type", "application/json; charset=ISO-8859-1")
+                .setBody(body.getBytes("ISO-8859-1")));
+
+        ForecastSyncEngine.Result result = fetchAndParse(new SyncMetrics());
+
+        assertEquals("S\u00e3o Paulo", result.cityName);
+    }
+}
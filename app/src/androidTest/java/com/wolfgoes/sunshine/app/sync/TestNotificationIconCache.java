@@ -0,0 +1,51 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+
+import com.wolfgoes.sunshine.app.R;
+
+public class TestNotificationIconCache extends AndroidTestCase {
+
+    private static final int ICON_SIZE = 64;
+
+    public void testIconsAreDecodedAtNotificationSize() {
+        NotificationIconCache cache = new NotificationIconCache(mContext.getResources(),
+                ICON_SIZE, ICON_SIZE);
+
+        Bitmap clear = cache.getIcon(800);
+        assertNotNull(clear);
+        Bitmap full = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.art_clear);
+        if (full.getWidth() >= ICON_SIZE * 2 && full.getHeight() >= ICON_SIZE * 2) {
+            assertTrue("Error: the icon should have been sampled down, it is " + clear.getWidth() +
+                    " pixels wide", clear.getWidth() < full.getWidth());
+        }
+        full.recycle();
+    }
+
+    public void testIconsAreCachedByArt() {
+        NotificationIconCache cache = new NotificationIconCache(mContext.getResources(),
+                ICON_SIZE, ICON_SIZE);
+
+        Bitmap clouds = cache.getIcon(802);
+        // 803 and 804 share the art of 802
+        assertSame(clouds, cache.getIcon(803));
+        assertSame(clouds, cache.getIcon(804));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+
+        assertNotSame(clouds, cache.getIcon(800));
+        assertNull("Error: an unknown condition has no icon", cache.getIcon(0));
+    }
+
+    public void testSampleSize() {
+        assertEquals(1, NotificationIconCache.computeSampleSize(64, 64, 64, 64));
+        assertEquals(1, NotificationIconCache.computeSampleSize(100, 100, 64, 64));
+        assertEquals(2, NotificationIconCache.computeSampleSize(128, 128, 64, 64));
+        assertEquals(4, NotificationIconCache.computeSampleSize(300, 300, 64, 64));
+        // Limited by the smaller side
+        assertEquals(2, NotificationIconCache.computeSampleSize(512, 150, 64, 64));
+        assertEquals(1, NotificationIconCache.computeSampleSize(512, 512, 0, 0));
+    }
+}
@@ -0,0 +1,81 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+public class TestRateLimiter extends AndroidTestCase {
+
+    private static final int CAPACITY = 3;
+    private static final long REFILL_MILLIS = 1000;
+    private static final long NOW = 1000000000L;
+
+    private SharedPreferences mPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences("test_rate_limiter", Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testBurstThenSteadyRate() {
+        RateLimiter limiter = new RateLimiter(mPrefs, CAPACITY, REFILL_MILLIS);
+
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals("Error: request " + i + " of the burst was held back", 0, limiter.tryAcquire(NOW));
+        }
+        assertEquals(NOW + REFILL_MILLIS, limiter.tryAcquire(NOW));
+
+        assertEquals("Error: no token came back", 0, limiter.tryAcquire(NOW + REFILL_MILLIS));
+        assertEquals(NOW + 2 * REFILL_MILLIS, limiter.tryAcquire(NOW + REFILL_MILLIS));
+
+        // A long pause refills the bucket up to its capacity only
+        long later = NOW + 100 * REFILL_MILLIS;
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(0, limiter.tryAcquire(later));
+        }
+        assertTrue(limiter.tryAcquire(later) > later);
+
+        assertEquals(CAPACITY + 1 + CAPACITY, limiter.getGrantedCount());
+        assertEquals(3, limiter.getThrottledCount());
+    }
+
+    public void testRateLimitedUntilRetryAfter() {
+        RateLimiter limiter = new RateLimiter(mPrefs, CAPACITY, REFILL_MILLIS);
+        long retryAt = NOW + 60 * 1000;
+
+        limiter.onRateLimited(NOW, retryAt);
+        assertEquals(retryAt, limiter.tryAcquire(NOW + 1));
+        assertEquals(retryAt, limiter.tryAcquire(retryAt - 1));
+        assertEquals(0, limiter.tryAcquire(retryAt));
+        assertEquals(1, limiter.getRateLimitedCount());
+
+        // Without Retry-After, wait for a token
+        limiter.onRateLimited(retryAt, 0);
+        assertEquals(retryAt + REFILL_MILLIS, limiter.tryAcquire(retryAt));
+
+        // An absurd Retry-After is capped
+        limiter.onRateLimited(NOW, Long.MAX_VALUE);
+        assertEquals(NOW + RateLimiter.MAX_BLOCK_MILLIS, limiter.tryAcquire(NOW));
+    }
+
+    public void testStateSurvivesRestart() {
+        RateLimiter limiter = new RateLimiter(mPrefs, CAPACITY, REFILL_MILLIS);
+        for (int i = 0; i < CAPACITY; i++) {
+            limiter.tryAcquire(NOW);
+        }
+        limiter.onRateLimited(NOW, NOW + 5000);
+
+        RateLimiter restarted = new RateLimiter(mPrefs, CAPACITY, REFILL_MILLIS);
+        assertEquals("Error: restarting refilled the bucket", NOW + 5000, restarted.tryAcquire(NOW + 1));
+        assertEquals(CAPACITY, restarted.getGrantedCount());
+        assertEquals(1, restarted.getRateLimitedCount());
+    }
+}
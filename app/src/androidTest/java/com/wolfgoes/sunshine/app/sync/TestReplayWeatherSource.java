@@ -0,0 +1,169 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.wolfgoes.sunshine.app.utils.StubHttpServer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+public class TestReplayWeatherSource extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "94043";
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(mContext.getCacheDir(), "replay-test");
+        deleteDirectory(mDirectory);
+        assertTrue(mDirectory.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory(mDirectory);
+        super.tearDown();
+    }
+
+    static void writePayload(File directory, String locationSetting, String payload) throws IOException {
+        writeFile(new File(directory, ReplayWeatherSource.getPayloadName(locationSetting)), payload);
+    }
+
+    static void writeHourlyPayload(File directory, String locationSetting, String payload) throws IOException {
+        writeFile(new File(directory, ReplayWeatherSource.getHourlyPayloadName(locationSetting)), payload);
+    }
+
+    private static void writeFile(File file, String payload) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(payload.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static String readBody(WeatherResponse response) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(response.getInputStream(), "UTF-8"));
+        try {
+            StringBuilder body = new StringBuilder();
+            char[] buffer = new char[1024];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                body.append(buffer, 0, read);
+            }
+            return body.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testReplayServesRecordedPayload() throws Exception {
+        writePayload(mDirectory, TEST_LOCATION, TestForecastJsonParser.FORECAST_JSON);
+        ReplayWeatherSource source = new ReplayWeatherSource(
+                ReplayWeatherSource.fromDirectory(mDirectory), 0, 0);
+
+        WeatherResponse response = source.fetch(TEST_LOCATION, null, null, false);
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, response.statusCode);
+            assertEquals(TestForecastJsonParser.FORECAST_JSON, readBody(response));
+        } finally {
+            response.disconnect();
+        }
+
+        response = source.fetch("unknown", null, null, false);
+        assertEquals("Error: a location without payload should not be found",
+                HttpURLConnection.HTTP_NOT_FOUND, response.statusCode);
+        response.disconnect();
+
+        writeHourlyPayload(mDirectory, TEST_LOCATION, TestForecastJsonParser.HOURLY_JSON);
+        response = source.fetchHourly(TEST_LOCATION);
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, response.statusCode);
+            assertEquals(TestForecastJsonParser.HOURLY_JSON, readBody(response));
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    public void testReplayServesRecordedGroup() throws Exception {
+        long[] cityIds = {3448439L, 5375480L};
+        String group = "{\"cnt\":1,\"list\":[" + TestForecastJsonParser.FORECAST_JSON + "]}";
+        writeFile(new File(mDirectory, ReplayWeatherSource.getGroupPayloadName(cityIds)), group);
+        ReplayWeatherSource source = new ReplayWeatherSource(
+                ReplayWeatherSource.fromDirectory(mDirectory), 0, 0);
+
+        WeatherResponse response = source.fetchGroup(cityIds);
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, response.statusCode);
+            assertEquals(group, readBody(response));
+        } finally {
+            response.disconnect();
+        }
+
+        response = source.fetchGroup(new long[]{cityIds[1], cityIds[0]});
+        assertEquals("Error: a group without payload should not be found",
+                HttpURLConnection.HTTP_NOT_FOUND, response.statusCode);
+        response.disconnect();
+    }
+
+    public void testReplayHonoursLatencyAndThroughput() throws Exception {
+        writePayload(mDirectory, TEST_LOCATION, TestForecastJsonParser.FORECAST_JSON);
+        int size = TestForecastJsonParser.FORECAST_JSON.getBytes("UTF-8").length;
+        // The body should take about half a second to come through
+        ReplayWeatherSource source = new ReplayWeatherSource(
+                ReplayWeatherSource.fromDirectory(mDirectory), 100, size * 2);
+
+        long start = System.currentTimeMillis();
+        WeatherResponse response = source.fetch(TEST_LOCATION, null, null, false);
+        long firstByte = System.currentTimeMillis();
+        try {
+            readBody(response);
+        } finally {
+            response.disconnect();
+        }
+        long end = System.currentTimeMillis();
+
+        assertTrue("Error: latency not applied, " + (firstByte - start) + "ms", firstByte - start >= 100);
+        assertTrue("Error: throughput not applied, " + (end - firstByte) + "ms", end - firstByte >= 400);
+    }
+
+    public void testRecordedPayloadsCanBeReplayed() throws Exception {
+        StubHttpServer server = new StubHttpServer();
+        server.enqueue(new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                .setBody(TestForecastJsonParser.FORECAST_JSON));
+        server.start();
+        try {
+            WeatherSource recording = new RecordingWeatherSource(
+                    new HttpWeatherSource(server.getUrl("/data/2.5/forecast/daily?"), "test-key"),
+                    mDirectory);
+            ForecastSyncEngine.Result recorded = new ForecastSyncEngine(recording).fetch(
+                    new ForecastSyncEngine.Target(TEST_LOCATION, 0, null, null), new SyncMetrics());
+            assertEquals(ForecastSyncEngine.STATUS_OK, recorded.status);
+        } finally {
+            server.shutdown();
+        }
+
+        ForecastSyncEngine.Result replayed = new ForecastSyncEngine(new ReplayWeatherSource(
+                ReplayWeatherSource.fromDirectory(mDirectory), 0, 0)).fetch(
+                new ForecastSyncEngine.Target(TEST_LOCATION, 0, null, null), new SyncMetrics());
+        assertEquals(ForecastSyncEngine.STATUS_OK, replayed.status);
+        assertEquals("Sao Paulo", replayed.cityName);
+        assertEquals(2, replayed.days.size());
+    }
+}
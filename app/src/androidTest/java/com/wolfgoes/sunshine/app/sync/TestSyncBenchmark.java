@@ -0,0 +1,163 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.wolfgoes.sunshine.app.Utility;
+import com.wolfgoes.sunshine.app.data.WeatherContract;
+
+import java.io.File;
+
+/*
+    Runs the whole sync, from parsing to storing, against replayed payloads so it can be timed
+    on machines without a network.  Timings are logged, not asserted.
+ */
+public class TestSyncBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = TestSyncBenchmark.class.getSimpleName();
+
+    private static final int LOCATIONS = 20;
+    private static final int RUNS = 5;
+    // Points of the 3 hour forecast, 5 days worth
+    private static final int HOURS = 40;
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(mContext.getCacheDir(), "replay-benchmark");
+        TestReplayWeatherSource.deleteDirectory(mDirectory);
+        assertTrue(mDirectory.mkdirs());
+        deleteAllRecords();
+
+        String hourlyPayload = buildHourlyPayload(System.currentTimeMillis());
+        for (int i = 0; i < LOCATIONS; i++) {
+            String locationSetting = getLocationSetting(i);
+            TestReplayWeatherSource.writePayload(mDirectory, locationSetting,
+                    TestForecastJsonParser.FORECAST_JSON);
+            TestReplayWeatherSource.writeHourlyPayload(mDirectory, locationSetting, hourlyPayload);
+
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "Benchmark " + i);
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, -23.5);
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -46.6);
+            mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI, values);
+        }
+
+        // The sync always includes the preferred location
+        TestReplayWeatherSource.writePayload(mDirectory, Utility.getPreferredLocation(mContext),
+                TestForecastJsonParser.FORECAST_JSON);
+        TestReplayWeatherSource.writeHourlyPayload(mDirectory, Utility.getPreferredLocation(mContext),
+                hourlyPayload);
+    }
+
+    /**
+     * @return a 3 hour forecast of {@link #HOURS} points starting at the next full hour, so none
+     * of them is dropped as past.
+     */
+    private static String buildHourlyPayload(long now) {
+        long firstHour = WeatherContract.HourlyEntry.getEpochHour(now) + 1;
+        StringBuilder payload = new StringBuilder("{\"cod\":\"200\",\"cnt\":" + HOURS + ",\"list\":[");
+        for (int i = 0; i < HOURS; i++) {
+            if (i > 0) {
+                payload.append(',');
+            }
+            long seconds = (firstHour + i * 3) * WeatherContract.HourlyEntry.HOUR_IN_MILLIS / 1000;
+            payload.append("{\"dt\":").append(seconds)
+                    .append(",\"main\":{\"temp\":").append(15 + i % 8)
+                    .append(".25,\"pressure\":1013.2,\"humidity\":80},")
+                    .append("\"weather\":[{\"id\":800,\"main\":\"Clear\"}],")
+                    .append("\"wind\":{\"speed\":3.4,\"deg\":120}}");
+        }
+        return payload.append("]}").toString();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        TestReplayWeatherSource.deleteDirectory(mDirectory);
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static String getLocationSetting(int index) {
+        return Integer.toString(10000 + index);
+    }
+
+    public void testReplayedSyncs() throws Exception {
+        SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false,
+                new ReplayWeatherSource(ReplayWeatherSource.fromDirectory(mDirectory), 0, 0));
+
+        // Every run downloads again, even though the forecasts of the previous one are fresh
+        Bundle extras = new Bundle();
+        extras.putBoolean(SunshineSyncAdapter.EXTRA_FORCE_SYNC, true);
+
+        for (int run = 0; run < RUNS; run++) {
+            SyncResult syncResult = new SyncResult();
+            long start = System.nanoTime();
+            adapter.onPerformSync(null, extras, WeatherContract.CONTENT_AUTHORITY, null, syncResult);
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+            Log.i(LOG_TAG, "Sync " + run + " of " + LOCATIONS + " locations: " + elapsedMillis +
+                    "ms, " + syncResult.stats.numInserts + " inserts, " +
+                    syncResult.stats.numSkippedEntries + " unchanged");
+            assertFalse("Error: replayed sync failed: " + syncResult, syncResult.hasError());
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI, null, null, null, null);
+        int locations = cursor.getCount();
+        cursor.close();
+        assertTrue(locations > LOCATIONS);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        // FORECAST_JSON holds two days
+        assertEquals(locations * 2, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: the hours were not stored along with the days",
+                locations * HOURS, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testFreshForecastsAreNotDownloadedAgain() throws Exception {
+        SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false,
+                new ReplayWeatherSource(ReplayWeatherSource.fromDirectory(mDirectory), 0, 0));
+
+        SyncResult syncResult = new SyncResult();
+        adapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null, syncResult);
+        assertFalse("Error: replayed sync failed: " + syncResult, syncResult.hasError());
+        int syncs = getSyncMetricsCount();
+
+        syncResult = new SyncResult();
+        adapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null, syncResult);
+        assertEquals("Error: sync of fresh forecasts was not skipped", syncs, getSyncMetricsCount());
+        assertEquals(0, syncResult.stats.numInserts + syncResult.stats.numSkippedEntries);
+
+        Bundle extras = new Bundle();
+        extras.putBoolean(SunshineSyncAdapter.EXTRA_FORCE_SYNC, true);
+        adapter.onPerformSync(null, extras, WeatherContract.CONTENT_AUTHORITY, null, new SyncResult());
+        assertEquals("Error: forced sync was skipped", syncs + 1, getSyncMetricsCount());
+    }
+
+    private int getSyncMetricsCount() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.SyncMetricsEntry.CONTENT_URI, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
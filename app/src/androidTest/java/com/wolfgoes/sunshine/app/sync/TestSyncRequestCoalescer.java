@@ -0,0 +1,100 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncRequestCoalescer extends AndroidTestCase {
+
+    private static final String LOCATION_A = "94043";
+    private static final String LOCATION_B = "10001";
+
+    public void testDuplicateRequestsAreCollapsed() {
+        SyncRequestCoalescer coalescer =
+                new SyncRequestCoalescer(SyncRequestCoalescer.DEFAULT_PENDING_TIMEOUT_MILLIS);
+
+        assertTrue(coalescer.request(LOCATION_A, false));
+        assertFalse("Duplicate request should be merged", coalescer.request(LOCATION_A, false));
+        assertFalse("Duplicate request should be merged", coalescer.request(LOCATION_A, false));
+        assertTrue("Other locations need their own sync", coalescer.request(LOCATION_B, false));
+        assertEquals(2, coalescer.getCollapsedCount());
+    }
+
+    public void testLateRequestersJoinTheRunningSync() {
+        SyncRequestCoalescer coalescer =
+                new SyncRequestCoalescer(SyncRequestCoalescer.DEFAULT_PENDING_TIMEOUT_MILLIS);
+
+        assertTrue(coalescer.request(LOCATION_A, false));
+        coalescer.onSyncStarted(LOCATION_A, false);
+        assertFalse("Request made while syncing should join the sync",
+                coalescer.request(LOCATION_A, false));
+        assertTrue("Location not served by the running sync should get its own",
+                coalescer.request(LOCATION_B, false));
+
+        coalescer.onSyncFinished();
+        assertTrue("Finished sync should not absorb new requests", coalescer.request(LOCATION_A, false));
+        assertFalse("Request made during the sync should still be waiting",
+                coalescer.request(LOCATION_B, false));
+    }
+
+    /*
+        A sync serves the request of its own location only: a request for another location
+        waiting meanwhile is still waiting once it finishes.
+     */
+    public void testSyncOnlyServesItsLocation() {
+        SyncRequestCoalescer coalescer =
+                new SyncRequestCoalescer(SyncRequestCoalescer.DEFAULT_PENDING_TIMEOUT_MILLIS);
+
+        assertTrue(coalescer.request(LOCATION_B, false));
+        coalescer.onSyncStarted(LOCATION_A, false);
+        coalescer.onSyncFinished();
+
+        assertFalse("Request for another location should still be waiting",
+                coalescer.request(LOCATION_B, false));
+    }
+
+    /*
+        A sync which is not forced skips fresh locations, so a forced request must never be
+        merged into one.  A request which is not forced is served by a forced sync.
+     */
+    public void testForcedRequestsAreNotMergedIntoOthers() {
+        SyncRequestCoalescer coalescer =
+                new SyncRequestCoalescer(SyncRequestCoalescer.DEFAULT_PENDING_TIMEOUT_MILLIS);
+
+        assertTrue(coalescer.request(LOCATION_A, false));
+        assertTrue("Forced request should not merge into a waiting one",
+                coalescer.request(LOCATION_A, true));
+        assertFalse(coalescer.request(LOCATION_A, true));
+        assertFalse(coalescer.request(LOCATION_A, false));
+
+        // The sync requested first is not forced and does not serve the forced request
+        coalescer.onSyncStarted(LOCATION_A, false);
+        coalescer.onSyncFinished();
+        assertFalse("Forced request should still be waiting", coalescer.request(LOCATION_A, true));
+
+        coalescer.onSyncStarted(LOCATION_A, true);
+        coalescer.onSyncFinished();
+        assertTrue(coalescer.request(LOCATION_A, false));
+
+        // Nor may it join a running sync which is not forced
+        coalescer.onSyncStarted(LOCATION_A, false);
+        assertTrue("Forced request should not join a sync which is not forced",
+                coalescer.request(LOCATION_A, true));
+        coalescer.onSyncFinished();
+        assertFalse("Forced request should outlive the sync which is not forced",
+                coalescer.request(LOCATION_A, true));
+    }
+
+    public void testLostRequestIsSentAgain() {
+        SyncRequestCoalescer coalescer = new SyncRequestCoalescer(0);
+
+        assertTrue(coalescer.request(LOCATION_A, false));
+        assertTrue("Request waiting past the timeout should be sent again",
+                coalescer.request(LOCATION_A, false));
+        assertEquals(0, coalescer.getCollapsedCount());
+
+        coalescer.onSyncStarted(LOCATION_A, false);
+        assertFalse("Request made while syncing should join the sync",
+                coalescer.request(LOCATION_A, false));
+        coalescer.onSyncFinished();
+        assertTrue(coalescer.request(LOCATION_A, false));
+    }
+}
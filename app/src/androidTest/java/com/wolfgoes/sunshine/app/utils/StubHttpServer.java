@@ -0,0 +1,203 @@
+package com.wolfgoes.sunshine.app.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal HTTP/1.1 server bound to the loopback interface, so the sync code can be exercised
+ * without reaching the real OpenWeatherMap servers.  Responses are served in the order they
+ * were enqueued, or built by a {@link Dispatcher} when one is set.
+ */
+public class StubHttpServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static class Request {
+        public final String method;
+        public final String path;
+        // Header names are lower case
+        public final Map<String, String> headers;
+
+        Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    public static class Response {
+        final int status;
+        final Map<String, String> headers = new LinkedHashMap<>();
+        byte[] body = new byte[0];
+        boolean dropConnection;
+
+        public Response(int status) {
+            this.status = status;
+        }
+
+        public Response setHeader(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Response setBody(String body) {
+            return setBody(body.getBytes(UTF_8));
+        }
+
+        public Response setBody(byte[] body) {
+            this.body = body;
+            return this;
+        }
+
+        /**
+         * Closes the connection without answering, as a dying server would.
+         */
+        public static Response dropConnection() {
+            Response response = new Response(0);
+            response.dropConnection = true;
+            return response;
+        }
+    }
+
+    public interface Dispatcher {
+        Response dispatch(Request request);
+    }
+
+    private final LinkedList<Response> mQueue = new LinkedList<>();
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+    private volatile Dispatcher mDispatcher;
+    private ServerSocket mServerSocket;
+    private Thread mAcceptThread;
+
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread("StubHttpServer") {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        final Socket socket = mServerSocket.accept();
+                        new Thread("StubHttpServer connection") {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }.start();
+                    } catch (IOException e) {
+                        // socket closed by shutdown()
+                    }
+                }
+            }
+        };
+        mAcceptThread.start();
+    }
+
+    public void shutdown() throws IOException {
+        if (mServerSocket != null) {
+            mServerSocket.close();
+        }
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    public void enqueue(Response response) {
+        synchronized (mQueue) {
+            mQueue.add(response);
+        }
+    }
+
+    public void setDispatcher(Dispatcher dispatcher) {
+        mDispatcher = dispatcher;
+    }
+
+    public List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<>(mRequests);
+        }
+    }
+
+    public int getRequestCount() {
+        return mRequests.size();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+            String requestLine = in.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            String[] parts = requestLine.split(" ");
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while ((line = in.readLine()) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                            line.substring(colon + 1).trim());
+                }
+            }
+            Request request = new Request(parts[0], parts.length > 1 ? parts[1] : "/", headers);
+            mRequests.add(request);
+
+            Response response = nextResponse(request);
+            if (response.dropConnection) {
+                return;
+            }
+
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(response.status).append(" Stub\r\n");
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            head.append("Content-Length: ").append(response.body.length).append("\r\n");
+            head.append("Connection: close\r\n\r\n");
+
+            OutputStream out = socket.getOutputStream();
+            out.write(head.toString().getBytes(UTF_8));
+            out.write(response.body);
+            out.flush();
+        } catch (IOException e) {
+            // the client went away, nothing to do
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private Response nextResponse(Request request) {
+        Dispatcher dispatcher = mDispatcher;
+        if (dispatcher != null) {
+            return dispatcher.dispatch(request);
+        }
+        synchronized (mQueue) {
+            if (!mQueue.isEmpty()) {
+                return mQueue.removeFirst();
+            }
+        }
+        return new Response(404);
+    }
+}
@@ -1,7 +1,9 @@
 package com.wolfgoes.sunshine.app;
 
+import android.content.ContentValues;
 import android.content.Intent;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
@@ -31,6 +33,7 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     private static final String LOG_TAG = DetailFragment.class.getSimpleName();
 
     private static final int DETAIL_LOADER = 1;
+    private static final int CURRENT_LOADER = 2;
 
     private static final String[] DETAIL_COLUMNS = {
             WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
@@ -78,6 +81,10 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     private Uri mForecastUri;
     private String mForecast;
 
+    // Whether the forecast shown is today's, and the current conditions to show over it
+    private boolean mShowsToday;
+    private ContentValues mCurrent;
+
     public DetailFragment() {
         setHasOptionsMenu(true);
     }
@@ -85,6 +92,7 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     @Override
     public void onActivityCreated(@Nullable Bundle savedInstanceState) {
         getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        getLoaderManager().initLoader(CURRENT_LOADER, null, this);
         super.onActivityCreated(savedInstanceState);
     }
 
@@ -143,6 +151,19 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         Log.v(LOG_TAG, "In onCreateLoader");
+        if (id == CURRENT_LOADER) {
+            if (null != mForecastUri) {
+                String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(mForecastUri);
+                return new CursorLoader(
+                        getActivity(),
+                        WeatherContract.CurrentEntry.buildCurrentLocation(locationSetting),
+                        WeatherContract.CURRENT_COLUMNS,
+                        null,
+                        null,
+                        null);
+            }
+            return null;
+        }
         if (null != mForecastUri) {
             // Now create and return a CursorLoader that will take care of
             // creating a Cursor for the data being displayed.
@@ -160,6 +181,16 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         Log.v(LOG_TAG, "In onLoadFinished");
+        if (loader.getId() == CURRENT_LOADER) {
+            // Copied out, as the cursor may be closed before the forecast is loaded
+            mCurrent = null;
+            if (data != null && data.moveToFirst()) {
+                mCurrent = new ContentValues();
+                DatabaseUtils.cursorRowToContentValues(data, mCurrent);
+            }
+            bindCurrent();
+            return;
+        }
         if (data != null && data.moveToFirst()) {
             // Read weather condition ID from cursor
             int weatherId = data.getInt(COL_WEATHER_CONDITION_ID);
@@ -206,8 +237,36 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             if (mShareActionProvider != null) {
                 mShareActionProvider.setShareIntent(createShareForecastIntent());
             }
+
+            mShowsToday = Utility.isToday(date);
+            bindCurrent();
+        }
+
+    }
+
+    /**
+     * Shows the current conditions in place of today's forecast, leaving the high and low of
+     * the day.  Nothing changes for another day, or when the current conditions are too old.
+     */
+    private void bindCurrent() {
+        if (!mShowsToday || mCurrent == null) {
+            return;
+        }
+        Long lastSynced = mCurrent.getAsLong(WeatherContract.CurrentEntry.COLUMN_LAST_SYNCED);
+        if (lastSynced == null || !Utility.isCurrentRecent(lastSynced)) {
+            return;
         }
 
+        int weatherId = mCurrent.getAsInteger(WeatherContract.CurrentEntry.COLUMN_WEATHER_ID);
+        mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
+        mDescriptionView.setText(mCurrent.getAsString(WeatherContract.CurrentEntry.COLUMN_SHORT_DESC));
+        mHumidityView.setText(getActivity().getString(R.string.format_humidity,
+                mCurrent.getAsFloat(WeatherContract.CurrentEntry.COLUMN_HUMIDITY)));
+        mWindView.setText(Utility.getFormattedWind(getActivity(),
+                mCurrent.getAsFloat(WeatherContract.CurrentEntry.COLUMN_WIND_SPEED),
+                mCurrent.getAsFloat(WeatherContract.CurrentEntry.COLUMN_DEGREES)));
+        mPressureView.setText(getActivity().getString(R.string.format_pressure,
+                mCurrent.getAsFloat(WeatherContract.CurrentEntry.COLUMN_PRESSURE)));
     }
 
     @Override
@@ -222,6 +281,7 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             Uri updatedUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(newLocation, date);
             mForecastUri = updatedUri;
             getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+            getLoaderManager().restartLoader(CURRENT_LOADER, null, this);
         }
     }
 }
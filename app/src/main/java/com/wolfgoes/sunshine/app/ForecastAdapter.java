@@ -19,6 +19,9 @@ public class ForecastAdapter extends CursorAdapter {
 
     private boolean mUseTodayLayout;
 
+    // Current conditions at the location, shown on today's item in place of its forecast
+    private Cursor mCurrentCursor;
+
     public ForecastAdapter(Context context, Cursor c, int flags) {
         super(context, c, flags);
     }
@@ -50,6 +53,15 @@ public class ForecastAdapter extends CursorAdapter {
         mUseTodayLayout = useTodayLayout;
     }
 
+    /**
+     * Swaps in a new cursor of current conditions, with the columns of
+     * {@link WeatherContract#CURRENT_COLUMNS}.  The old one is not closed.
+     */
+    public void swapCurrentCursor(Cursor currentCursor) {
+        mCurrentCursor = currentCursor;
+        notifyDataSetChanged();
+    }
+
     @Override
     public int getItemViewType(int position) {
         return position == 0 && mUseTodayLayout ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
@@ -108,5 +120,17 @@ public class ForecastAdapter extends CursorAdapter {
         double low = cursor.getDouble(WeatherContract.COL_WEATHER_MIN_TEMP);
         holder.lowTempView.setText(Utility.formatTemperature(mContext, low));
 
+        if (viewType == VIEW_TYPE_TODAY && Utility.isToday(date) && mCurrentCursor != null
+                && mCurrentCursor.moveToFirst()
+                && Utility.isCurrentRecent(mCurrentCursor.getLong(WeatherContract.COL_CURRENT_LAST_SYNCED))) {
+            // The weather right now, with the day's high and low underneath
+            int currentWeatherId = mCurrentCursor.getInt(WeatherContract.COL_CURRENT_CONDITION_ID);
+            holder.iconView.setImageResource(Utility.getArtResourceForWeatherCondition(currentWeatherId));
+            holder.descriptionView.setText(mCurrentCursor.getString(WeatherContract.COL_CURRENT_DESC));
+            holder.highTempView.setText(Utility.formatTemperature(mContext,
+                    mCurrentCursor.getDouble(WeatherContract.COL_CURRENT_TEMP)));
+            holder.lowTempView.setText(mContext.getString(R.string.format_high_low,
+                    Utility.formatTemperature(mContext, high), Utility.formatTemperature(mContext, low)));
+        }
     }
 }
\ No newline at end of file
@@ -33,6 +33,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private final String LOG_TAG = ForecastFragment.class.getSimpleName();
 
     private static final int FORECAST_LOADER = 0;
+    private static final int CURRENT_LOADER = 2;
     private static final String ITEM_SELECTED = "item_selected";
 
     private int mItemSelected;
@@ -81,7 +82,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         int id = item.getItemId();
 
         if (id == R.id.action_refresh) {
-            updateWeather();
+            // Asked for by the user, so downloaded even if the stored forecast is still valid
+            updateWeather(true);
             return true;
         } else if (id == R.id.action_location) {
             openMyLocation();
@@ -145,19 +147,35 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public void onActivityCreated(@Nullable Bundle savedInstanceState) {
         if (BuildConfig.DEBUG) Log.d(LOG_TAG, "onActivityCreated");
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
+        getLoaderManager().initLoader(CURRENT_LOADER, null, this);
+        // The sync only downloads them if the stored conditions are out of date.  Only asked for
+        // on a fresh start: a fragment recreated from its state, on rotation for one, has asked
+        if (savedInstanceState == null) {
+            SunshineSyncAdapter.syncCurrentConditions(getContext());
+        }
         //TODO: When changing location settings and leaving the app, no weather information is shown when opening the app again
         //updateWeather(); //TODO: this was causing bug
         super.onActivityCreated(savedInstanceState);
     }
 
-    public void updateWeather() {
-        SunshineSyncAdapter.syncImmediately(getContext());
+    public void updateWeather(boolean force) {
+        SunshineSyncAdapter.syncImmediately(getContext(), force);
+        SunshineSyncAdapter.syncCurrentConditions(getContext(), force);
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         String locationSetting = Utility.getPreferredLocation(getActivity());
 
+        if (id == CURRENT_LOADER) {
+            return new CursorLoader(getActivity(),
+                    WeatherContract.CurrentEntry.buildCurrentLocation(locationSetting),
+                    WeatherContract.CURRENT_COLUMNS,
+                    null,
+                    null,
+                    null);
+        }
+
         String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 locationSetting, System.currentTimeMillis());
@@ -172,6 +190,11 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if (loader.getId() == CURRENT_LOADER) {
+            mForecastAdapter.swapCurrentCursor(data);
+            return;
+        }
+
         // Swap the new cursor in.  (The framework will take care of closing the
         // old cursor once we return.)
         mForecastAdapter.swapCursor(data);
@@ -184,12 +207,17 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // This is called when the last Cursor provided to onLoadFinished()
         // above is about to be closed.  We need to make sure we are no
         // longer using it.
-        mForecastAdapter.swapCursor(null);
+        if (loader.getId() == CURRENT_LOADER) {
+            mForecastAdapter.swapCurrentCursor(null);
+        } else {
+            mForecastAdapter.swapCursor(null);
+        }
     }
 
     public void onLocationChanged() {
-        updateWeather();
+        updateWeather(false);
         getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
+        getLoaderManager().restartLoader(CURRENT_LOADER, null, this);
     }
 
     private void openMyLocation() {
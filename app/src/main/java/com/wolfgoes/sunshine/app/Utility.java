@@ -29,6 +29,9 @@ public class Utility {
     // back into date objects for comparison/processing.
     public static final String DATE_FORMAT = "yyyyMMdd";
 
+    // Current conditions older than this are not shown in place of today's forecast
+    private static final long MAX_CURRENT_AGE_MILLIS = 1000 * 60 * 60;
+
     public static String getPreferredLocation(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_location_key),
@@ -102,6 +105,28 @@ public class Utility {
         return System.currentTimeMillis();
     }
 
+    /**
+     * @return whether the given date falls on the current day.
+     */
+    public static boolean isToday(long dateInMillis) {
+        Time t = new Time();
+        t.setToNow();
+        return Time.getJulianDay(dateInMillis, t.gmtoff) ==
+                Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+    }
+
+    /**
+     * Current conditions are refreshed when the forecast list is shown or refreshed, once they
+     * are ten minutes old.  If they could not be for an hour, today's forecast is shown instead.
+     *
+     * @param lastSynced When the current conditions were downloaded.
+     * @return whether they may still be shown as the weather right now.
+     */
+    public static boolean isCurrentRecent(long lastSynced) {
+        long age = System.currentTimeMillis() - lastSynced;
+        return age >= 0 && age < MAX_CURRENT_AGE_MILLIS;
+    }
+
 
     /**
      * Given a day, returns just the name to use for that day.
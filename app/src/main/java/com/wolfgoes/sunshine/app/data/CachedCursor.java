@@ -0,0 +1,127 @@
+package com.wolfgoes.sunshine.app.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/**
+ * Read-only cursor over rows copied out of the database by {@link QueryCache}.  The rows are
+ * shared by every cursor returned for the same query, and never modified.
+ */
+class CachedCursor extends AbstractCursor {
+
+    private final QueryCache.Result mResult;
+    private final int mColumnCount;
+
+    CachedCursor(QueryCache.Result result) {
+        mResult = result;
+        mColumnCount = result.columnNames.length;
+    }
+
+    @Override
+    public int getCount() {
+        return mResult.rowCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mResult.columnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = get(column);
+        if (value instanceof byte[]) {
+            return new String((byte[]) value);
+        }
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = get(column);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        // Like SQLite, text that is not a number reads as 0
+        if (value instanceof String) {
+            try {
+                return (long) Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = get(column);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Object value = get(column);
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        return value == null ? null : value.toString().getBytes();
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return get(column) == null;
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return Cursor.FIELD_TYPE_NULL;
+        } else if (value instanceof Long) {
+            return Cursor.FIELD_TYPE_INTEGER;
+        } else if (value instanceof Double) {
+            return Cursor.FIELD_TYPE_FLOAT;
+        } else if (value instanceof byte[]) {
+            return Cursor.FIELD_TYPE_BLOB;
+        }
+        return Cursor.FIELD_TYPE_STRING;
+    }
+
+    private Object get(int column) {
+        if (column < 0 || column >= mColumnCount) {
+            throw new IllegalArgumentException("Column " + column + " out of range, the cursor has " +
+                    mColumnCount + " columns");
+        }
+        int position = getPosition();
+        if (position < 0 || position >= mResult.rowCount) {
+            throw new IllegalStateException("The cursor is not on a row, position " + position);
+        }
+        return mResult.values[position * mColumnCount + column];
+    }
+}
@@ -0,0 +1,162 @@
+package com.wolfgoes.sunshine.app.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v4.util.LruCache;
+import android.text.TextUtils;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Results of the weather queries of the UI, kept in memory so that recreating a fragment or
+ * restarting a loader does not run the same join again.  Results are keyed by uri, projection
+ * and sort order, and tied to the location they were read for: the provider invalidates the
+ * locations its writes change once they are committed.
+ * <p/>
+ * A query that started before an invalidation may have read the rows as they were before the
+ * write, so its result is only kept if no invalidation happened since it started.
+ */
+class QueryCache {
+
+    // Values kept, over all results.  The forecast list of a location is about 14 rows of 9
+    // columns.
+    static final int MAX_VALUES = 20000;
+
+    // Provider method returning the statistics below, see ContentProvider#call
+    static final String METHOD_GET_STATS = "getQueryCacheStats";
+    static final String EXTRA_HITS = "hits";
+    static final String EXTRA_MISSES = "misses";
+    static final String EXTRA_EVICTIONS = "evictions";
+    static final String EXTRA_INVALIDATIONS = "invalidations";
+
+    private final LruCache<String, Result> mResults;
+
+    // Incremented by every invalidation
+    private long mGeneration;
+    // Results removed by invalidations
+    private int mInvalidationCount;
+
+    QueryCache(int maxValues) {
+        mResults = new LruCache<String, Result>(maxValues) {
+            @Override
+            protected int sizeOf(String key, Result result) {
+                return result.values.length + 1;
+            }
+        };
+    }
+
+    static String buildKey(Uri uri, String[] projection, String sortOrder) {
+        return uri + "|" + (projection == null ? "*" : TextUtils.join(",", projection)) + "|" +
+                sortOrder;
+    }
+
+    /**
+     * @return a cursor over the cached result, or null if there is none.
+     */
+    Cursor get(String key) {
+        Result result = mResults.get(key);
+        return result == null ? null : new CachedCursor(result);
+    }
+
+    /**
+     * To be read before running a query whose result may be put in the cache.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies the rows of {@code cursor} and closes it.  They are cached unless the cache was
+     * invalidated since {@code generation} was read.
+     *
+     * @param locationId Location the rows were read for.
+     * @return a cursor over the copied rows.
+     */
+    Cursor put(String key, long locationId, long generation, Cursor cursor) {
+        Result result;
+        try {
+            result = read(locationId, cursor);
+        } finally {
+            cursor.close();
+        }
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mResults.put(key, result);
+            }
+        }
+        return new CachedCursor(result);
+    }
+
+    /**
+     * Drops the results of the given locations.  Must be called after the write changing them
+     * is committed.
+     */
+    synchronized void invalidate(Collection<Long> locationIds) {
+        mGeneration++;
+        for (Map.Entry<String, Result> entry : mResults.snapshot().entrySet()) {
+            if (locationIds.contains(entry.getValue().locationId)) {
+                mResults.remove(entry.getKey());
+                mInvalidationCount++;
+            }
+        }
+    }
+
+    Bundle getStats() {
+        Bundle stats = new Bundle();
+        stats.putInt(EXTRA_HITS, mResults.hitCount());
+        stats.putInt(EXTRA_MISSES, mResults.missCount());
+        stats.putInt(EXTRA_EVICTIONS, mResults.evictionCount());
+        synchronized (this) {
+            stats.putInt(EXTRA_INVALIDATIONS, mInvalidationCount);
+        }
+        return stats;
+    }
+
+    private static Result read(long locationId, Cursor cursor) {
+        String[] columnNames = cursor.getColumnNames();
+        int columnCount = columnNames.length;
+        int rowCount = cursor.getCount();
+        Object[] values = new Object[rowCount * columnCount];
+        int i = 0;
+        while (cursor.moveToNext()) {
+            for (int column = 0; column < columnCount; column++, i++) {
+                switch (cursor.getType(column)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        values[i] = cursor.getLong(column);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        values[i] = cursor.getDouble(column);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        values[i] = cursor.getString(column);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        values[i] = cursor.getBlob(column);
+                        break;
+                    default:
+                        values[i] = null;
+                }
+            }
+        }
+        return new Result(locationId, columnNames, rowCount, values);
+    }
+
+    /**
+     * The rows of a query, row after row in a single array.
+     */
+    static final class Result {
+        final long locationId;
+        final String[] columnNames;
+        final int rowCount;
+        final Object[] values;
+
+        Result(long locationId, String[] columnNames, int rowCount, Object[] values) {
+            this.locationId = locationId;
+            this.columnNames = columnNames;
+            this.rowCount = rowCount;
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.wolfgoes.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.os.Bundle;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * Weather rows held column by column in primitive arrays, for inserting many days or
+ * locations at once.  Unlike an array of ContentValues, a row costs no map nor boxed values,
+ * and the provider binds each column straight into its compiled insert.
+ * <p/>
+ * Dates are normalized by the provider, as on any other insert.
+ */
+public final class WeatherBatch {
+
+    // Provider method inserting a batch, see ContentProvider#call
+    static final String METHOD_INSERT = "insertWeatherBatch";
+    // Rows inserted, in the result of METHOD_INSERT
+    static final String EXTRA_COUNT = "count";
+
+    private static final String EXTRA_SIZE = "size";
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int mSize;
+    private long[] mLocationIds;
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private String[] mShortDescs;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    public WeatherBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Rows the batch holds before growing.
+     */
+    public WeatherBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mLocationIds = new long[capacity];
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mShortDescs = new String[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Appends a row, with the columns of {@link WeatherContract.WeatherEntry}.
+     */
+    public void add(long locationId, long date, int weatherId, String shortDesc,
+                    double minTemp, double maxTemp, double humidity, double pressure,
+                    double windSpeed, double degrees) {
+        if (mSize == mDates.length) {
+            grow(mSize * 2);
+        }
+        mLocationIds[mSize] = locationId;
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mShortDescs[mSize] = shortDesc;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidities[mSize] = humidity;
+        mPressures[mSize] = pressure;
+        mWindSpeeds[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        Arrays.fill(mShortDescs, 0, mSize, null);
+        mSize = 0;
+    }
+
+    /**
+     * Inserts every row in a single transaction, replacing the rows already stored for the
+     * same location and day.
+     *
+     * @return the number of rows inserted.
+     */
+    public int insert(ContentResolver resolver) {
+        Bundle result = resolver.call(WeatherContract.WeatherEntry.CONTENT_URI, METHOD_INSERT,
+                null, toBundle());
+        return result == null ? 0 : result.getInt(EXTRA_COUNT);
+    }
+
+    long getLocationId(int row) {
+        return mLocationIds[row];
+    }
+
+    long getDate(int row) {
+        return mDates[row];
+    }
+
+    int getWeatherId(int row) {
+        return mWeatherIds[row];
+    }
+
+    String getShortDesc(int row) {
+        return mShortDescs[row];
+    }
+
+    double getMinTemp(int row) {
+        return mMinTemps[row];
+    }
+
+    double getMaxTemp(int row) {
+        return mMaxTemps[row];
+    }
+
+    double getHumidity(int row) {
+        return mHumidities[row];
+    }
+
+    double getPressure(int row) {
+        return mPressures[row];
+    }
+
+    double getWindSpeed(int row) {
+        return mWindSpeeds[row];
+    }
+
+    double getDegrees(int row) {
+        return mDegrees[row];
+    }
+
+    // The arrays are passed as they are, a call within the process does not copy the bundle
+    Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putInt(EXTRA_SIZE, mSize);
+        bundle.putLongArray(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, mLocationIds);
+        bundle.putLongArray(WeatherContract.WeatherEntry.COLUMN_DATE, mDates);
+        bundle.putIntArray(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds);
+        bundle.putStringArray(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, mShortDescs);
+        bundle.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, mMinTemps);
+        bundle.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps);
+        bundle.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, mHumidities);
+        bundle.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_PRESSURE, mPressures);
+        bundle.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds);
+        bundle.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_DEGREES, mDegrees);
+        return bundle;
+    }
+
+    static WeatherBatch fromBundle(Bundle bundle) {
+        WeatherBatch batch = new WeatherBatch(1);
+        batch.mSize = bundle.getInt(EXTRA_SIZE);
+        batch.mLocationIds = bundle.getLongArray(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        batch.mDates = bundle.getLongArray(WeatherContract.WeatherEntry.COLUMN_DATE);
+        batch.mWeatherIds = bundle.getIntArray(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        batch.mShortDescs = bundle.getStringArray(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        batch.mMinTemps = bundle.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        batch.mMaxTemps = bundle.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        batch.mHumidities = bundle.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+        batch.mPressures = bundle.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_PRESSURE);
+        batch.mWindSpeeds = bundle.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED);
+        batch.mDegrees = bundle.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_DEGREES);
+        for (Object column : new Object[]{batch.mLocationIds, batch.mDates, batch.mWeatherIds,
+                batch.mShortDescs, batch.mMinTemps, batch.mMaxTemps, batch.mHumidities,
+                batch.mPressures, batch.mWindSpeeds, batch.mDegrees}) {
+            if (column == null || Array.getLength(column) < batch.mSize) {
+                throw new IllegalArgumentException("Not a weather batch");
+            }
+        }
+        return batch;
+    }
+
+    private void grow(int capacity) {
+        mLocationIds = Arrays.copyOf(mLocationIds, capacity);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mShortDescs = Arrays.copyOf(mShortDescs, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+}
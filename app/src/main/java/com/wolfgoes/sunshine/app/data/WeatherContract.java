@@ -56,6 +56,32 @@ public class WeatherContract {
     public static final int COL_COORD_LAT = 7;
     public static final int COL_COORD_LONG = 8;
 
+    public static final String[] CURRENT_COLUMNS = {
+            // The current and location tables both have these columns
+            CurrentEntry.TABLE_NAME + "." + CurrentEntry._ID,
+            CurrentEntry.TABLE_NAME + "." + CurrentEntry.COLUMN_LAST_SYNCED,
+            CurrentEntry.COLUMN_DATE,
+            CurrentEntry.COLUMN_SHORT_DESC,
+            CurrentEntry.COLUMN_TEMP,
+            CurrentEntry.COLUMN_HUMIDITY,
+            CurrentEntry.COLUMN_PRESSURE,
+            CurrentEntry.COLUMN_WIND_SPEED,
+            CurrentEntry.COLUMN_DEGREES,
+            CurrentEntry.COLUMN_WEATHER_ID
+    };
+
+    // These indices are tied to CURRENT_COLUMNS.
+    public static final int COL_CURRENT_ID = 0;
+    public static final int COL_CURRENT_LAST_SYNCED = 1;
+    public static final int COL_CURRENT_DATE = 2;
+    public static final int COL_CURRENT_DESC = 3;
+    public static final int COL_CURRENT_TEMP = 4;
+    public static final int COL_CURRENT_HUMIDITY = 5;
+    public static final int COL_CURRENT_PRESSURE = 6;
+    public static final int COL_CURRENT_WIND_SPEED = 7;
+    public static final int COL_CURRENT_DEGREES = 8;
+    public static final int COL_CURRENT_CONDITION_ID = 9;
+
     // The "Content authority" is a name for the entire content provider, similar to the
     // relationship between a domain name and its website.  A convenient string to use for the
     // content authority is the package name for the app, which is guaranteed to be unique on the
@@ -73,6 +99,11 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_UPSERT = "upsert";
+    public static final String PATH_SYNC_STATE = "sync_state";
+    public static final String PATH_SYNC_METRICS = "sync_metrics";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_CURRENT = "current";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -102,6 +133,23 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // OpenWeatherMap id of the city, used to request several locations in one call.
+        public static final String COLUMN_CITY_ID = "city_id";
+
+        // HTTP validators (ETag and Last-Modified headers) of the last forecast downloaded for
+        // this location, sent back on the next sync so the server can answer 304 Not Modified.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+        // When the forecast of this location was last confirmed by the server, and until when it
+        // is considered valid, both in milliseconds since the epoch.  0 if never synced.
+        public static final String COLUMN_LAST_SYNCED = "last_synced";
+        public static final String COLUMN_EXPIRES_AT = "expires_at";
+
+        // How fast the forecast of this location changes, in share of its days per hour, as
+        // measured by the successive syncs.  Used to pick the periodic sync interval.
+        public static final String COLUMN_VOLATILITY = "volatility";
+
         public static final Uri CONTENT_URI =
                 BASE_CONTENT_URI.buildUpon().appendPath(PATH_LOCATION).build();
 
@@ -110,6 +158,17 @@ public class WeatherContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATION;
 
+        // Inserting here adds the location only if its setting is not stored yet; either way
+        // the returned uri holds the id of the location row.
+        public static final Uri UPSERT_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_UPSERT).build();
+
+        // Updating here only accepts the columns the sync keeps for itself, from the city id to
+        // the volatility, and does not notify the observers of the locations: none of them is
+        // shown.
+        public static final Uri SYNC_STATE_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_SYNC_STATE).build();
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -197,4 +256,192 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        Inner class that defines the table contents of the current conditions table.  It holds
+        the weather observed right now at each location, refreshed much more often than the
+        forecast and on its own.
+     */
+    public static final class CurrentEntry implements BaseColumns {
+        public static final String TABLE_NAME = "current";
+
+        // Column with the foreign key into the location table.  There is at most one row per
+        // location.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // When the conditions were observed, stored as long in milliseconds since the epoch
+        public static final String COLUMN_DATE = "date";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Short description of the weather, as provided by API.  e.g "Clear"
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+
+        // Temperature, humidity, pressure, windspeed and degrees, stored as floats in the same
+        // units as their WeatherEntry counterparts
+        public static final String COLUMN_TEMP = "temp";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // When the conditions were downloaded, and until when they are considered current, both
+        // in milliseconds since the epoch
+        public static final String COLUMN_LAST_SYNCED = "last_synced";
+        public static final String COLUMN_EXPIRES_AT = "expires_at";
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CURRENT).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CURRENT;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CURRENT;
+
+        public static Uri buildCurrentLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the hourly forecast table, which holds
+        the forecast points of the next days, every 3 hours.
+
+        The rows are keyed by location and hour, both packed into the row id:
+        (location_id << 32) | epoch_hour.  The points of a location are then stored next to each
+        other in time order, so reading a time range walks the table itself, with no index to
+        look up.  location_id and epoch_hour can be queried and inserted like regular columns.
+     */
+    public static final class HourlyEntry implements BaseColumns {
+        public static final String TABLE_NAME = "hourly";
+
+        // The location the point belongs to
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Hours since the epoch, UTC
+        public static final String COLUMN_EPOCH_HOUR = "epoch_hour";
+
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        // The measurements are stored as integers, in tenths of their unit (see
+        // MEASUREMENT_SCALE): temperature in celsius, pressure in hPa and wind speed in m/s.
+        // Humidity is a percentage and degrees are meteorological degrees, both whole.
+        public static final String COLUMN_TEMP = "temp";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        public static final int MEASUREMENT_SCALE = 10;
+
+        public static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        // Query parameters bounding the hours returned for a location, start included and
+        // end excluded
+        public static final String PARAM_START_HOUR = "start";
+        public static final String PARAM_END_HOUR = "end";
+
+        /**
+         * @return the row id of the point of the given location at the given hour.
+         */
+        public static long buildKey(long locationId, long epochHour) {
+            return (locationId << 32) | epochHour;
+        }
+
+        public static long getEpochHour(long timeMillis) {
+            return timeMillis / HOUR_IN_MILLIS;
+        }
+
+        public static int encode(double measurement) {
+            return (int) Math.round(measurement * MEASUREMENT_SCALE);
+        }
+
+        public static double decode(int storedMeasurement) {
+            return (double) storedMeasurement / MEASUREMENT_SCALE;
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHourlyLocationWithRange(String locationSetting,
+                                                       long startMillis, long endMillis) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START_HOUR, Long.toString(getEpochHour(startMillis)))
+                    .appendQueryParameter(PARAM_END_HOUR, Long.toString(getEpochHour(endMillis)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartHourFromUri(Uri uri) {
+            String hour = uri.getQueryParameter(PARAM_START_HOUR);
+            return hour != null && hour.length() > 0 ? Long.parseLong(hour) : 0;
+        }
+
+        public static long getEndHourFromUri(Uri uri) {
+            String hour = uri.getQueryParameter(PARAM_END_HOUR);
+            return hour != null && hour.length() > 0 ? Long.parseLong(hour) : 1L << 32;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the sync metrics table.  Each row
+        describes one sync, and only the most recent ones are kept.  Durations are in
+        milliseconds.
+     */
+    public static final class SyncMetricsEntry implements BaseColumns {
+        public static final String TABLE_NAME = "sync_metrics";
+
+        // When the sync started, in milliseconds since the epoch
+        public static final String COLUMN_START_TIME = "start_time";
+        // Duration of the whole sync
+        public static final String COLUMN_TOTAL = "total";
+
+        // Number of requests made to the server, and how many of them failed
+        public static final String COLUMN_REQUESTS = "requests";
+        public static final String COLUMN_FAILURES = "failures";
+        // Requests held back by the client side rate limiter, and 429 answers from the server
+        public static final String COLUMN_THROTTLED = "throttled";
+        public static final String COLUMN_RATE_LIMITED = "rate_limited";
+
+        // Network phases, summed over all the requests of the sync
+        public static final String COLUMN_CONNECT = "connect";
+        public static final String COLUMN_FIRST_BYTE = "first_byte";
+        public static final String COLUMN_DOWNLOAD = "download";
+        // Bytes of response bodies as received, possibly compressed, and once decompressed
+        public static final String COLUMN_WIRE_BYTES = "wire_bytes";
+        public static final String COLUMN_BYTES = "bytes";
+
+        // Decoding of the responses, download time excluded
+        public static final String COLUMN_PARSE = "parse";
+
+        // Comparing and storing the forecasts, all batches included
+        public static final String COLUMN_DB_WRITE = "db_write";
+        // Always 0: the removal of the days gone by is committed in the same transaction as
+        // the last forecasts, so its time is part of db_write
+        public static final String COLUMN_STALE_DELETE = "stale_delete";
+        // Notifying the user
+        public static final String COLUMN_NOTIFY = "notify";
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_METRICS;
+
+        // CONTENT_URI is read-only.  The sync appends its row by calling this provider method,
+        // see ContentResolver#call, with the columns as long extras.
+        public static final String METHOD_RECORD = "recordSyncMetrics";
+    }
 }
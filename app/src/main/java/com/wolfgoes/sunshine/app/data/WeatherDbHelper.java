@@ -16,82 +16,224 @@
 package com.wolfgoes.sunshine.app.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.wolfgoes.sunshine.app.data.WeatherContract.CurrentEntry;
+import com.wolfgoes.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.wolfgoes.sunshine.app.data.WeatherContract.LocationEntry;
+import com.wolfgoes.sunshine.app.data.WeatherContract.SyncMetricsEntry;
 import com.wolfgoes.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ * <p/>
+ * The database is opened in write-ahead logging mode, so the loaders of the UI keep reading
+ * while a sync writes: readers get their own connection from the pool and see the last
+ * committed data instead of waiting for the sync's transaction to end.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    static final int DATABASE_VERSION = 12;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Pages the log may grow to before it is copied back into the database (SQLite's default).
+    // A sync writes a few hundred pages at most, so it is checkpointed about once per sync.
+    static final int DEFAULT_WAL_AUTOCHECKPOINT_PAGES = 1000;
+    // Size the log is truncated back to after a checkpoint, so one large sync does not leave a
+    // large file behind
+    static final long WAL_SIZE_LIMIT_BYTES = 512 * 1024;
+    // With write-ahead logging, NORMAL cannot corrupt the database; a power loss may only undo
+    // the last transactions, which the next sync downloads again.
+    static final String DEFAULT_SYNCHRONOUS = "NORMAL";
+
+    private final boolean mWriteAheadLogging;
+    private final int mWalAutoCheckpointPages;
+    private final String mSynchronous;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, true, DEFAULT_WAL_AUTOCHECKPOINT_PAGES, DEFAULT_SYNCHRONOUS);
+    }
+
+    /**
+     * @param name                   File name of the database.
+     * @param writeAheadLogging      Whether to use write-ahead logging rather than a rollback
+     *                               journal.  Only then may reads run along with a write, on as
+     *                               many connections as the platform pools.
+     * @param walAutoCheckpointPages Log size, in pages, triggering a checkpoint.
+     * @param synchronous            SQLite synchronous level: OFF, NORMAL or FULL.
+     */
+    WeatherDbHelper(Context context, String name, boolean writeAheadLogging,
+                    int walAutoCheckpointPages, String synchronous) {
+        super(context, name, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging;
+        mWalAutoCheckpointPages = walAutoCheckpointPages;
+        mSynchronous = synchronous;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(writeAheadLogging);
+        }
     }
 
     @Override
-    public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
-                LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL," +
-                LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL," +
-                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL," +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
-                " );";
-
-
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-
-                // the ID of the location entry associated with this weather data
-                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
-
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
-
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (mWriteAheadLogging) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+                db.enableWriteAheadLogging();
+            }
+            // Only the primary connection writes, so only it needs the checkpoint policy
+            DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint = " + mWalAutoCheckpointPages, null);
+            DatabaseUtils.longForQuery(db, "PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT_BYTES, null);
+        }
+        db.execSQL("PRAGMA synchronous = " + mSynchronous);
+    }
+
+    static final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL," +
+            LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL," +
+            LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL," +
+            LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+            LocationEntry.COLUMN_CITY_ID + " INTEGER, " +
+            LocationEntry.COLUMN_ETAG + " TEXT, " +
+            LocationEntry.COLUMN_LAST_MODIFIED + " TEXT, " +
+            LocationEntry.COLUMN_LAST_SYNCED + " INTEGER NOT NULL DEFAULT 0, " +
+            LocationEntry.COLUMN_EXPIRES_AT + " INTEGER NOT NULL DEFAULT 0, " +
+            LocationEntry.COLUMN_VOLATILITY + " REAL NOT NULL DEFAULT 0" +
+            " );";
+
+    static final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+            // Why AutoIncrement here, and not above?
+            // Unique keys will be auto-generated in either case.  But for weather
+            // forecasting, it's reasonable to assume the user will want information
+            // for a certain date and all dates *following*, so the forecast data
+            // should be sorted accordingly.
+            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+            // the ID of the location entry associated with this weather data
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+
+            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+            // Set up the location column as a foreign key to location table.
+            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            // To assure the application have just one weather entry per day
+            // per location, it's created a UNIQUE constraint with REPLACE strategy.
+            // Its index leads with the location, as every query of the UI picks one location
+            // and then a date or a range of dates.
+            " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    static final String SQL_CREATE_SYNC_METRICS_TABLE = "CREATE TABLE " + SyncMetricsEntry.TABLE_NAME + " (" +
+            SyncMetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            SyncMetricsEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+            SyncMetricsEntry.COLUMN_TOTAL + " INTEGER NOT NULL, " +
+            SyncMetricsEntry.COLUMN_REQUESTS + " INTEGER NOT NULL, " +
+            SyncMetricsEntry.COLUMN_FAILURES + " INTEGER NOT NULL, " +
+            SyncMetricsEntry.COLUMN_THROTTLED + " INTEGER NOT NULL DEFAULT 0, " +
+            SyncMetricsEntry.COLUMN_RATE_LIMITED + " INTEGER NOT NULL DEFAULT 0, " +
+            SyncMetricsEntry.COLUMN_CONNECT + " INTEGER NOT NULL, " +
+            SyncMetricsEntry.COLUMN_FIRST_BYTE + " INTEGER NOT NULL, " +
+            SyncMetricsEntry.COLUMN_DOWNLOAD + " INTEGER NOT NULL, " +
+            SyncMetricsEntry.COLUMN_WIRE_BYTES + " INTEGER NOT NULL, " +
+            SyncMetricsEntry.COLUMN_BYTES + " INTEGER NOT NULL, " +
+            SyncMetricsEntry.COLUMN_PARSE + " INTEGER NOT NULL, " +
+            SyncMetricsEntry.COLUMN_DB_WRITE + " INTEGER NOT NULL, " +
+            SyncMetricsEntry.COLUMN_STALE_DELETE + " INTEGER NOT NULL, " +
+            SyncMetricsEntry.COLUMN_NOTIFY + " INTEGER NOT NULL " +
+            " );";
+
+    static final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+            // (location_id << 32) | epoch_hour.  Being the row id, it orders the table itself
+            // by location and time, which makes it the index of the range scans; a separate
+            // key and index would store every key twice.
+            HourlyEntry._ID + " INTEGER PRIMARY KEY, " +
+            HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_TEMP + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_DEGREES + " INTEGER NOT NULL " +
+            " );";
+
+    static final String SQL_CREATE_CURRENT_TABLE = "CREATE TABLE " + CurrentEntry.TABLE_NAME + " (" +
+            CurrentEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+            // Newer conditions replace the previous ones of the same location
+            CurrentEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL UNIQUE ON CONFLICT REPLACE, " +
+            CurrentEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            CurrentEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+            CurrentEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+
+            CurrentEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+            CurrentEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            CurrentEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            CurrentEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            CurrentEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+            CurrentEntry.COLUMN_LAST_SYNCED + " INTEGER NOT NULL, " +
+            CurrentEntry.COLUMN_EXPIRES_AT + " INTEGER NOT NULL, " +
+
+            " FOREIGN KEY (" + CurrentEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "));";
 
+    @Override
+    public void onCreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_CURRENT_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        // SQLiteOpenHelper runs this in a transaction along with the version change, so either
+        // every step is applied or the database is left as it was
+        if (WeatherDbMigrations.canMigrate(oldVersion, newVersion)) {
+            try {
+                WeatherDbMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
+                return;
+            } catch (SQLException e) {
+                Log.e(LOG_TAG, "Error migrating the database from version " + oldVersion +
+                        " to " + newVersion + ", recreating it", e);
+            }
+        }
+
+        // This database is only a cache for online data, so when there is no migration for the
+        // old version its upgrade policy is to simply discard the data and start over.
+        // Every later schema change needs its own step in WeatherDbMigrations instead.
+        dropTables(sqLiteDatabase);
+        onCreate(sqLiteDatabase);
+    }
+
+    private static void dropTables(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherDbMigrations.OLD_WEATHER_TABLE);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncMetricsEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + CurrentEntry.TABLE_NAME);
     }
 }
@@ -0,0 +1,157 @@
+package com.wolfgoes.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Upgrades the database one version at a time, keeping the cached forecasts and locations.
+ * Dropping the tables instead made every installation download all of its forecasts again on
+ * the first sync after an update, all of them in the same few days.
+ * <p/>
+ * Each step takes the schema of one version to the next one and must never change once
+ * released: a step only knows the tables as they were at its version, not as they are now,
+ * so the names and definitions it uses are spelled out as they were then.  A schema change
+ * bumps {@link WeatherDbHelper#DATABASE_VERSION} and adds the step from the previous version.
+ */
+final class WeatherDbMigrations {
+
+    // The first version released, older databases are recreated
+    static final int OLDEST_VERSION = 2;
+
+    // Name of the weather table while it is rebuilt
+    static final String OLD_WEATHER_TABLE = "weather_old";
+
+    private WeatherDbMigrations() {
+    }
+
+    /**
+     * @return whether there is a step for every version from oldVersion to newVersion.
+     */
+    static boolean canMigrate(int oldVersion, int newVersion) {
+        return oldVersion >= OLDEST_VERSION && oldVersion < newVersion &&
+                newVersion <= WeatherDbHelper.DATABASE_VERSION;
+    }
+
+    /**
+     * Applies the steps from oldVersion to newVersion in order.  Does not open a transaction
+     * of its own, the caller's must cover all of them.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (!canMigrate(oldVersion, newVersion)) {
+            throw new IllegalArgumentException("Cannot migrate from version " + oldVersion +
+                    " to " + newVersion);
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            migrateFrom(db, version);
+        }
+    }
+
+    private static void migrateFrom(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                // Validators of the conditional forecast download
+                addColumn(db, "location", "etag TEXT");
+                addColumn(db, "location", "last_modified TEXT");
+                break;
+            case 3:
+                // City id of the group fetch
+                addColumn(db, "location", "city_id INTEGER");
+                break;
+            case 4:
+                db.execSQL("CREATE TABLE sync_metrics (" +
+                        "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        "start_time INTEGER NOT NULL, " +
+                        "total INTEGER NOT NULL, " +
+                        "requests INTEGER NOT NULL, " +
+                        "failures INTEGER NOT NULL, " +
+                        "connect INTEGER NOT NULL, " +
+                        "first_byte INTEGER NOT NULL, " +
+                        "download INTEGER NOT NULL, " +
+                        "bytes INTEGER NOT NULL, " +
+                        "parse INTEGER NOT NULL, " +
+                        "db_write INTEGER NOT NULL, " +
+                        "stale_delete INTEGER NOT NULL, " +
+                        "notify INTEGER NOT NULL " +
+                        " );");
+                break;
+            case 5:
+                // A column added as NOT NULL needs a default for the existing rows
+                addColumn(db, "sync_metrics", "wire_bytes INTEGER NOT NULL DEFAULT 0");
+                break;
+            case 6:
+                // The forecasts kept are treated as expired, the next sync refreshes them
+                addColumn(db, "location", "last_synced INTEGER NOT NULL DEFAULT 0");
+                addColumn(db, "location", "expires_at INTEGER NOT NULL DEFAULT 0");
+                break;
+            case 7:
+                addColumn(db, "location", "volatility REAL NOT NULL DEFAULT 0");
+                break;
+            case 8:
+                addColumn(db, "sync_metrics", "throttled INTEGER NOT NULL DEFAULT 0");
+                addColumn(db, "sync_metrics", "rate_limited INTEGER NOT NULL DEFAULT 0");
+                break;
+            case 9:
+                // _id is (location_id << 32) | epoch_hour
+                db.execSQL("CREATE TABLE hourly (" +
+                        "_id INTEGER PRIMARY KEY, " +
+                        "weather_id INTEGER NOT NULL, " +
+                        "temp INTEGER NOT NULL, " +
+                        "pressure INTEGER NOT NULL, " +
+                        "wind INTEGER NOT NULL, " +
+                        "humidity INTEGER NOT NULL, " +
+                        "degrees INTEGER NOT NULL " +
+                        " );");
+                break;
+            case 10:
+                db.execSQL("CREATE TABLE current (" +
+                        "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        "location_id INTEGER NOT NULL UNIQUE ON CONFLICT REPLACE, " +
+                        "date INTEGER NOT NULL, " +
+                        "weather_id INTEGER NOT NULL, " +
+                        "short_desc TEXT NOT NULL, " +
+                        "temp REAL NOT NULL, " +
+                        "humidity REAL NOT NULL, " +
+                        "pressure REAL NOT NULL, " +
+                        "wind REAL NOT NULL, " +
+                        "degrees REAL NOT NULL, " +
+                        "last_synced INTEGER NOT NULL, " +
+                        "expires_at INTEGER NOT NULL, " +
+                        " FOREIGN KEY (location_id) REFERENCES location (_id));");
+                break;
+            case 11:
+                // Only the order of the weather table's unique key changed
+                rebuildWeatherTable(db);
+                break;
+            default:
+                throw new IllegalStateException("No migration from version " + version);
+        }
+    }
+
+    private static void addColumn(SQLiteDatabase db, String table, String columnDefinition) {
+        db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + columnDefinition);
+    }
+
+    /**
+     * Recreates the weather table with the schema of version 12, keeping its rows.  SQLite
+     * cannot change the constraints of an existing table.
+     */
+    private static void rebuildWeatherTable(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE weather RENAME TO " + OLD_WEATHER_TABLE);
+        db.execSQL("CREATE TABLE weather (" +
+                "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "location_id INTEGER NOT NULL, " +
+                "date INTEGER NOT NULL, " +
+                "short_desc TEXT NOT NULL, " +
+                "weather_id INTEGER NOT NULL," +
+                "min REAL NOT NULL, " +
+                "max REAL NOT NULL, " +
+                "humidity REAL NOT NULL, " +
+                "pressure REAL NOT NULL, " +
+                "wind REAL NOT NULL, " +
+                "degrees REAL NOT NULL, " +
+                " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                " UNIQUE (location_id, date) ON CONFLICT REPLACE);");
+        // The columns did not change, nor did their order
+        db.execSQL("INSERT INTO weather SELECT * FROM " + OLD_WEATHER_TABLE);
+        db.execSQL("DROP TABLE " + OLD_WEATHER_TABLE);
+    }
+}
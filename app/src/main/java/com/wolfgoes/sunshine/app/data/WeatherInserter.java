@@ -0,0 +1,159 @@
+package com.wolfgoes.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.wolfgoes.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Bulk inserts of weather rows.  SQLiteDatabase#insert builds the statement from the keys of
+ * each ContentValues and compiles it again for every row; here it is compiled once per
+ * transaction and only the values are bound for each row.
+ * <p/>
+ * Like any insert into the weather table, a row replaces the one stored for the same location
+ * and day.
+ */
+final class WeatherInserter {
+
+    // In the order of the statement's parameters
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final int DATE_PARAMETER = 2;
+
+    private static final String SQL_INSERT = buildInsert();
+
+    private WeatherInserter() {
+    }
+
+    /**
+     * Inserts the rows in a single transaction, normalizing their dates.  Rows holding other
+     * columns than a complete weather row are inserted one by one, as before.
+     *
+     * @return the number of rows inserted.
+     */
+    static int insert(SQLiteDatabase db, ContentValues[] values) {
+        int count = 0;
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT);
+        try {
+            for (ContentValues value : values) {
+                if (isCompleteRow(value)) {
+                    for (int i = 0; i < COLUMNS.length; i++) {
+                        DatabaseUtils.bindObjectToProgram(insert, i + 1, value.get(COLUMNS[i]));
+                    }
+                    Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+                    if (date != null) {
+                        insert.bindLong(DATE_PARAMETER, WeatherContract.normalizeDate(date));
+                    }
+                    if (executeInsert(insert) != -1) {
+                        count++;
+                    }
+                } else {
+                    normalizeDate(value);
+                    if (db.insert(WeatherEntry.TABLE_NAME, null, value) != -1) {
+                        count++;
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+        return count;
+    }
+
+    /**
+     * Inserts the rows in a single transaction, normalizing their dates.
+     *
+     * @return the number of rows inserted.
+     */
+    static int insert(SQLiteDatabase db, WeatherBatch batch) {
+        int count = 0;
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT);
+        try {
+            for (int row = 0; row < batch.size(); row++) {
+                insert.bindLong(1, batch.getLocationId(row));
+                insert.bindLong(2, WeatherContract.normalizeDate(batch.getDate(row)));
+                insert.bindLong(3, batch.getWeatherId(row));
+                String shortDesc = batch.getShortDesc(row);
+                if (shortDesc == null) {
+                    insert.bindNull(4);
+                } else {
+                    insert.bindString(4, shortDesc);
+                }
+                insert.bindDouble(5, batch.getMinTemp(row));
+                insert.bindDouble(6, batch.getMaxTemp(row));
+                insert.bindDouble(7, batch.getHumidity(row));
+                insert.bindDouble(8, batch.getPressure(row));
+                insert.bindDouble(9, batch.getWindSpeed(row));
+                insert.bindDouble(10, batch.getDegrees(row));
+                if (executeInsert(insert) != -1) {
+                    count++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+        return count;
+    }
+
+    static void normalizeDate(ContentValues values) {
+        if (values.containsKey(WeatherEntry.COLUMN_DATE)) {
+            long dateValue = values.getAsLong(WeatherEntry.COLUMN_DATE);
+            values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+        }
+    }
+
+    private static boolean isCompleteRow(ContentValues value) {
+        if (value.size() != COLUMNS.length) {
+            return false;
+        }
+        for (String column : COLUMNS) {
+            if (!value.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // A row breaking a constraint is skipped, as SQLiteDatabase#insert does
+    private static long executeInsert(SQLiteStatement insert) {
+        try {
+            return insert.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            return -1;
+        }
+    }
+
+    private static String buildInsert() {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(WeatherEntry.TABLE_NAME).append(" (");
+        StringBuilder parameters = new StringBuilder();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+                parameters.append(", ");
+            }
+            sql.append(COLUMNS[i]);
+            parameters.append('?');
+        }
+        return sql.append(") VALUES (").append(parameters).append(")").toString();
+    }
+}
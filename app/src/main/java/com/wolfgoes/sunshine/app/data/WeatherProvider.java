@@ -17,12 +17,27 @@ package com.wolfgoes.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,12 +45,47 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // Uris changed by the batch running on the current thread, notified once it commits
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
+    // location_setting -> _id of the rows already resolved by an upsert.  Cleared whenever the
+    // location table is updated or deleted from through this provider.
+    private final Map<String, Long> mLocationIds = new HashMap<>();
+
+    // Results of the weather queries by location setting
+    private final QueryCache mQueryCache = new QueryCache(QueryCache.MAX_VALUES);
+
+    // Locations whose cached queries the batch running on the current thread changed,
+    // invalidated once it commits
+    private final ThreadLocal<Set<Long>> mPendingInvalidations = new ThreadLocal<>();
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
-
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final int LOCATION_UPSERT = 301;
+    static final int LOCATION_SYNC_STATE = 302;
+    static final int SYNC_METRICS = 400;
+    static final int HOURLY = 500;
+    static final int HOURLY_WITH_LOCATION = 501;
+    static final int CURRENT = 600;
+    static final int CURRENT_WITH_LOCATION = 601;
+
+    // Number of syncs kept in the sync metrics table
+    static final int MAX_SYNC_METRICS = 100;
+
+    // The location columns LOCATION_SYNC_STATE may update
+    private static final Set<String> sLocationSyncStateColumns = new HashSet<>(Arrays.asList(
+            WeatherContract.LocationEntry.COLUMN_CITY_ID,
+            WeatherContract.LocationEntry.COLUMN_ETAG,
+            WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED,
+            WeatherContract.LocationEntry.COLUMN_LAST_SYNCED,
+            WeatherContract.LocationEntry.COLUMN_EXPIRES_AT,
+            WeatherContract.LocationEntry.COLUMN_VOLATILITY));
+
+    // The weather queries of the UI; TestDb checks they are answered from an index
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sCurrentByLocationSettingQueryBuilder;
 
     static {
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,6 +99,16 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //current INNER JOIN location ON current.location_id = location._id
+        sCurrentByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sCurrentByLocationSettingQueryBuilder.setTables(
+                WeatherContract.CurrentEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.CurrentEntry.TABLE_NAME +
+                        "." + WeatherContract.CurrentEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
@@ -57,17 +117,43 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    // The hourly table with its row id unpacked into location_id and epoch_hour, so they can be
+    // selected and filtered on like regular columns.  SQLite flattens it into the outer query,
+    // so conditions on them still read a range of row ids.
+    private static final String sHourlyPoints = "(SELECT " +
+            WeatherContract.HourlyEntry._ID + ", " +
+            "(" + WeatherContract.HourlyEntry._ID + " >> 32) AS " +
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY + ", " +
+            "(" + WeatherContract.HourlyEntry._ID + " & 4294967295) AS " +
+            WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR + ", " +
+            WeatherContract.HourlyEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherContract.HourlyEntry.COLUMN_TEMP + ", " +
+            WeatherContract.HourlyEntry.COLUMN_PRESSURE + ", " +
+            WeatherContract.HourlyEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherContract.HourlyEntry.COLUMN_HUMIDITY + ", " +
+            WeatherContract.HourlyEntry.COLUMN_DEGREES +
+            " FROM " + WeatherContract.HourlyEntry.TABLE_NAME + ")";
+
+    // _id >= key(location, start hour) AND _id < key(location, end hour), with the location
+    // looked up by its setting
+    private static final String sHourlyLocationId = "(SELECT " +
+            WeatherContract.LocationEntry._ID + " FROM " + WeatherContract.LocationEntry.TABLE_NAME +
+            " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?)";
+    private static final String sHourlyLocationSettingWithRangeSelection =
+            WeatherContract.HourlyEntry._ID + " >= (" + sHourlyLocationId + " << 32) + ? AND " +
+                    WeatherContract.HourlyEntry._ID + " < (" + sHourlyLocationId + " << 32) + ?";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -108,6 +194,76 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    /**
+     * Answers the weather queries by location setting from {@link #mQueryCache}, running them
+     * and caching their result on a miss.
+     */
+    private Cursor getCachedWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String key = QueryCache.buildKey(uri, projection, sortOrder);
+        Cursor cached = mQueryCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        long generation = mQueryCache.getGeneration();
+        Cursor cursor = sUriMatcher.match(uri) == WEATHER_WITH_LOCATION_AND_DATE
+                ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                : getWeatherByLocationSetting(uri, projection, sortOrder);
+
+        long locationId = getLocationId(WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+        if (locationId == -1) {
+            // Nothing to invalidate it by, the result is empty anyway
+            return cursor;
+        }
+        return mQueryCache.put(key, locationId, generation, cursor);
+    }
+
+    private long getLocationId(String locationSetting) {
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor getCurrentByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.CurrentEntry.getLocationSettingFromUri(uri);
+
+        return sCurrentByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingSelection,
+                new String[]{locationSetting},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long startHour = WeatherContract.HourlyEntry.getStartHourFromUri(uri);
+        long endHour = WeatherContract.HourlyEntry.getEndHourFromUri(uri);
+
+        return mOpenHelper.getReadableDatabase().query(sHourlyPoints,
+                projection,
+                sHourlyLocationSettingWithRangeSelection,
+                new String[]{locationSetting, Long.toString(startHour),
+                        locationSetting, Long.toString(endHour)},
+                null,
+                null,
+                // In time order unless asked otherwise
+                sortOrder != null ? sortOrder : WeatherContract.HourlyEntry._ID
+        );
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -127,6 +283,16 @@ public class WeatherProvider extends ContentProvider {
         uriMatcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         uriMatcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        uriMatcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_UPSERT, LOCATION_UPSERT);
+        uriMatcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_SYNC_STATE, LOCATION_SYNC_STATE);
+
+        uriMatcher.addURI(authority, WeatherContract.PATH_SYNC_METRICS, SYNC_METRICS);
+
+        uriMatcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        uriMatcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+
+        uriMatcher.addURI(authority, WeatherContract.PATH_CURRENT, CURRENT);
+        uriMatcher.addURI(authority, WeatherContract.PATH_CURRENT + "/*", CURRENT_WITH_LOCATION);
 
         // 3) Return the new matcher!
         return uriMatcher;
@@ -163,6 +329,20 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_UPSERT:
+                return WeatherContract.LocationEntry.CONTENT_ITEM_TYPE;
+            case LOCATION_SYNC_STATE:
+                return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_METRICS:
+                return WeatherContract.SyncMetricsEntry.CONTENT_TYPE;
+            case HOURLY:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case CURRENT:
+                return WeatherContract.CurrentEntry.CONTENT_TYPE;
+            case CURRENT_WITH_LOCATION:
+                return WeatherContract.CurrentEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -176,13 +356,10 @@ public class WeatherProvider extends ContentProvider {
         Cursor retCursor;
         switch (sUriMatcher.match(uri)) {
             // "weather/*/*"
-            case WEATHER_WITH_LOCATION_AND_DATE: {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
+            case WEATHER_WITH_LOCATION_AND_DATE:
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getCachedWeatherByLocationSetting(uri, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -209,6 +386,52 @@ public class WeatherProvider extends ContentProvider {
                         sortOrder);
                 break;
             }
+            // "sync_metrics"
+            case SYNC_METRICS: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+                break;
+            }
+            // "current/*"
+            case CURRENT_WITH_LOCATION: {
+                retCursor = getCurrentByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "current"
+            case CURRENT: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.CurrentEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        sHourlyPoints,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -228,12 +451,14 @@ public class WeatherProvider extends ContentProvider {
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
+                WeatherInserter.normalizeDate(values);
                 long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
                 if (_id > 0)
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                invalidateQueries(Collections.singleton(
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)));
                 break;
             }
             case LOCATION: {
@@ -244,13 +469,137 @@ public class WeatherProvider extends ContentProvider {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case LOCATION_UPSERT: {
+                return WeatherContract.LocationEntry.buildLocationUri(upsertLocation(db, values));
+            }
+            case CURRENT: {
+                long _id = db.insert(WeatherContract.CurrentEntry.TABLE_NAME, null, values);
+                if (_id > 0)
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
+            case HOURLY: {
+                packHourlyKey(values);
+                // Like the weather rows, a point stored again replaces the previous one
+                long _id = db.insertWithOnConflict(WeatherContract.HourlyEntry.TABLE_NAME, null,
+                        values, SQLiteDatabase.CONFLICT_REPLACE);
+                if (_id > 0)
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
+    /**
+     * Returns the id of the location with the setting found in {@code values}, inserting the
+     * location first if it is not stored yet.  An existing row is left as it is.
+     */
+    private long upsertLocation(SQLiteDatabase db, ContentValues values) {
+        String locationSetting = values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        synchronized (mLocationIds) {
+            Long cachedId = mLocationIds.get(locationSetting);
+            if (cachedId != null) {
+                return cachedId;
+            }
+        }
+
+        long _id;
+        boolean inserted = false;
+        db.beginTransaction();
+        try {
+            _id = db.insertWithOnConflict(WeatherContract.LocationEntry.TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_IGNORE);
+            if (_id > 0) {
+                inserted = true;
+            } else {
+                // The setting is already stored
+                Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                        new String[]{WeatherContract.LocationEntry._ID},
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        new String[]{locationSetting},
+                        null,
+                        null,
+                        null);
+                try {
+                    if (!cursor.moveToFirst()) {
+                        throw new android.database.SQLException("Failed to upsert location " + locationSetting);
+                    }
+                    _id = cursor.getLong(0);
+                } finally {
+                    cursor.close();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        synchronized (mLocationIds) {
+            mLocationIds.put(locationSetting, _id);
+        }
+        if (inserted) {
+            notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+        return _id;
+    }
+
+    /**
+     * Appends the metrics of a sync, dropping the oldest rows so only the last
+     * {@link #MAX_SYNC_METRICS} syncs are kept.  This is the only write the metrics table
+     * supports, through {@link WeatherContract.SyncMetricsEntry#METHOD_RECORD}: its rows are
+     * never inserted, updated or deleted through its uri.
+     */
+    private void insertSyncMetrics(SQLiteDatabase db, Bundle metrics) {
+        ContentValues values = new ContentValues();
+        for (String column : metrics.keySet()) {
+            Object value = metrics.get(column);
+            if (!(value instanceof Long)) {
+                throw new IllegalArgumentException("Not a long sync metric: " + column);
+            }
+            values.put(column, (Long) value);
+        }
+
+        db.beginTransaction();
+        try {
+            long _id = db.insertOrThrow(WeatherContract.SyncMetricsEntry.TABLE_NAME, null, values);
+            db.delete(WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                    WeatherContract.SyncMetricsEntry._ID + " <= ?",
+                    new String[]{Long.toString(_id - MAX_SYNC_METRICS)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Replaces the location_id and epoch_hour of a point by the row id they make up.
+     */
+    private static void packHourlyKey(ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.HourlyEntry.COLUMN_LOC_KEY);
+        Long epochHour = values.getAsLong(WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR);
+        if (locationId == null || epochHour == null) {
+            throw new IllegalArgumentException("An hourly point needs a location and an hour");
+        }
+        values.remove(WeatherContract.HourlyEntry.COLUMN_LOC_KEY);
+        values.remove(WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR);
+        values.put(WeatherContract.HourlyEntry._ID,
+                WeatherContract.HourlyEntry.buildKey(locationId, epochHour));
+    }
+
+    private void invalidateLocationIds() {
+        synchronized (mLocationIds) {
+            mLocationIds.clear();
+        }
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         // Student: Start by getting a writable database
@@ -267,35 +616,91 @@ public class WeatherProvider extends ContentProvider {
         // Student: A null value deletes all rows.  In my implementation of this, I only notified
         // the uri listeners (using the content resolver) if the rowsDeleted != 0 or the selection
         // is null.
+        Set<Long> locationIds = null;
         switch (match) {
             case WEATHER: {
-                rowsDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                db.beginTransaction();
+                try {
+                    locationIds = queryLocationIds(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                            WeatherContract.WeatherEntry.COLUMN_LOC_KEY, selection, selectionArgs);
+                    rowsDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             }
             case LOCATION: {
-                rowsDeleted = db.delete(WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                int weatherDeleted = 0;
+                int hourlyDeleted = 0;
+                int currentDeleted = 0;
+                db.beginTransaction();
+                try {
+                    locationIds = queryLocationIds(db, WeatherContract.LocationEntry.TABLE_NAME,
+                            WeatherContract.LocationEntry._ID, selection, selectionArgs);
+                    // The forecasts, hourly points and current conditions of a location go with
+                    // it.  Location ids are never reused, so nothing would read them again: left
+                    // behind, they would only pile up for as long as the app is installed.
+                    for (long locationId : locationIds) {
+                        weatherDeleted += db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                                new String[]{Long.toString(locationId)});
+                        hourlyDeleted += db.delete(WeatherContract.HourlyEntry.TABLE_NAME,
+                                WeatherContract.HourlyEntry._ID + " >= ? AND " +
+                                        WeatherContract.HourlyEntry._ID + " < ?",
+                                new String[]{
+                                        Long.toString(WeatherContract.HourlyEntry.buildKey(locationId, 0)),
+                                        Long.toString(WeatherContract.HourlyEntry.buildKey(locationId + 1, 0))});
+                        currentDeleted += db.delete(WeatherContract.CurrentEntry.TABLE_NAME,
+                                WeatherContract.CurrentEntry.COLUMN_LOC_KEY + " = ?",
+                                new String[]{Long.toString(locationId)});
+                    }
+                    rowsDeleted = db.delete(WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                invalidateLocationIds();
+                if (weatherDeleted != 0) {
+                    notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+                }
+                if (hourlyDeleted != 0) {
+                    notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+                }
+                if (currentDeleted != 0) {
+                    notifyChange(WeatherContract.CurrentEntry.CONTENT_URI);
+                }
+                break;
+            }
+            case CURRENT: {
+                rowsDeleted = db.delete(WeatherContract.CurrentEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            }
+            case HOURLY: {
+                // The selection may use location_id and epoch_hour, which only exist unpacked
+                rowsDeleted = db.delete(WeatherContract.HourlyEntry.TABLE_NAME,
+                        WeatherContract.HourlyEntry._ID + " IN (SELECT " +
+                                WeatherContract.HourlyEntry._ID + " FROM " + sHourlyPoints +
+                                " WHERE " + selection + ")",
+                        selectionArgs);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
+        if (locationIds != null && rowsDeleted != 0) {
+            invalidateQueries(locationIds);
+        }
+
         // Oh, and you should notify the listeners here.
         if (rowsDeleted != 0)
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
 
         // Student: return the actual rows deleted
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
-        // normalize the date value
-        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
-            long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
-        }
-    }
-
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
@@ -311,23 +716,77 @@ public class WeatherProvider extends ContentProvider {
         // Student: A null value update all rows.  In my implementation of this, I only notified
         // the uri listeners (using the content resolver) if the rowsUpdated != 0 or the selection
         // is null.
+        Set<Long> locationIds;
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection, selectionArgs);
+                WeatherInserter.normalizeDate(values);
+                db.beginTransaction();
+                try {
+                    locationIds = queryLocationIds(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                            WeatherContract.WeatherEntry.COLUMN_LOC_KEY, selection, selectionArgs);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                // Rows moved to another location change its queries too
+                Long newLocationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                if (newLocationId != null) {
+                    locationIds.add(newLocationId);
+                }
                 break;
             }
             case LOCATION: {
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection, selectionArgs);
+                db.beginTransaction();
+                try {
+                    locationIds = queryLocationIds(db, WeatherContract.LocationEntry.TABLE_NAME,
+                            WeatherContract.LocationEntry._ID, selection, selectionArgs);
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                // Updating anything but the setting or id, like the sync validators, keeps the
+                // cached ids valid
+                if (values.containsKey(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                        || values.containsKey(WeatherContract.LocationEntry._ID)) {
+                    invalidateLocationIds();
+                }
                 break;
             }
+            case LOCATION_SYNC_STATE: {
+                for (String column : values.keySet()) {
+                    if (!sLocationSyncStateColumns.contains(column)) {
+                        throw new IllegalArgumentException("Not a sync state column: " + column);
+                    }
+                }
+                db.beginTransaction();
+                try {
+                    locationIds = queryLocationIds(db, WeatherContract.LocationEntry.TABLE_NAME,
+                            WeatherContract.LocationEntry._ID, selection, selectionArgs);
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                // The cached queries still go, a query of all the columns reads these too, but
+                // nobody is told: no observer shows them
+                if (rowsUpdated != 0) {
+                    invalidateQueries(locationIds);
+                }
+                return rowsUpdated;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
+        if (rowsUpdated != 0) {
+            invalidateQueries(locationIds);
+        }
+
         // Oh, and you should notify the listeners here.
         if (rowsUpdated != 0)
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
 
         // Student: return the actual rows updated
         return rowsUpdated;
@@ -339,27 +798,151 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                int returnCount = WeatherInserter.insert(db, values);
+                Set<Long> locationIds = new HashSet<>();
+                for (ContentValues value : values) {
+                    locationIds.add(value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                }
+                invalidateQueries(locationIds);
+                notifyChange(uri);
+                return returnCount;
+            case HOURLY:
                 db.beginTransaction();
-                int returnCount = 0;
+                int hourCount = 0;
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        packHourlyKey(value);
+                        long _id = db.insertWithOnConflict(WeatherContract.HourlyEntry.TABLE_NAME,
+                                null, value, SQLiteDatabase.CONFLICT_REPLACE);
                         if (_id != -1) {
-                            returnCount++;
+                            hourCount++;
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                notifyChange(uri);
+                return hourCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Supports {@link WeatherBatch#insert}, inserting weather rows held in primitive arrays,
+     * records the metrics of a sync and returns the hit and miss counts of the query cache.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherBatch.METHOD_INSERT.equals(method)) {
+            WeatherBatch batch = WeatherBatch.fromBundle(extras);
+            int count = WeatherInserter.insert(mOpenHelper.getWritableDatabase(), batch);
+            if (count > 0) {
+                Set<Long> locationIds = new HashSet<>();
+                for (int row = 0; row < batch.size(); row++) {
+                    locationIds.add(batch.getLocationId(row));
+                }
+                invalidateQueries(locationIds);
+                notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+            }
+            Bundle result = new Bundle();
+            result.putInt(WeatherBatch.EXTRA_COUNT, count);
+            return result;
+        } else if (WeatherContract.SyncMetricsEntry.METHOD_RECORD.equals(method)) {
+            insertSyncMetrics(mOpenHelper.getWritableDatabase(), extras);
+            notifyChange(WeatherContract.SyncMetricsEntry.CONTENT_URI);
+            return null;
+        } else if (QueryCache.METHOD_GET_STATS.equals(method)) {
+            return mQueryCache.getStats();
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Applies the whole batch in a single transaction: either every operation is committed or
+     * none is.  Observers are notified once per changed uri after the commit, instead of once
+     * per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final Set<Uri> changedUris = new LinkedHashSet<>();
+        final Set<Long> changedLocationIds = new HashSet<>();
+        ContentProviderResult[] results;
+
+        boolean successful = false;
+
+        mPendingNotifications.set(changedUris);
+        mPendingInvalidations.set(changedLocationIds);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            mPendingNotifications.remove();
+            mPendingInvalidations.remove();
+            if (!successful) {
+                // Locations upserted by the batch were rolled back along with it
+                invalidateLocationIds();
+            }
+        }
+
+        if (!changedLocationIds.isEmpty()) {
+            mQueryCache.invalidate(changedLocationIds);
+        }
+
+        for (Uri uri : changedUris) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return results;
+    }
+
+    /**
+     * Drops the cached queries of the given locations, once the write changing them is
+     * committed.
+     */
+    private void invalidateQueries(Collection<Long> locationIds) {
+        Set<Long> pending = mPendingInvalidations.get();
+        if (pending != null) {
+            // Inside applyBatch, a query could still read and cache the rows until the commit
+            pending.addAll(locationIds);
+        } else if (!locationIds.isEmpty()) {
+            mQueryCache.invalidate(locationIds);
+        }
+    }
+
+    /**
+     * @return the distinct values of {@code column} in the rows matching the selection.
+     */
+    private static Set<Long> queryLocationIds(SQLiteDatabase db, String table, String column,
+                                              String selection, String[] selectionArgs) {
+        Set<Long> locationIds = new HashSet<>();
+        Cursor cursor = db.query(true, table, new String[]{column}, selection, selectionArgs,
+                null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                locationIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationIds;
+    }
+
+    private void notifyChange(Uri uri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            // Inside applyBatch, wait for the commit
+            pending.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,129 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.wolfgoes.sunshine.app.R;
+
+import java.util.UUID;
+
+/**
+ * Picks the periodic sync interval from how fast the forecasts actually change.
+ * <p/>
+ * Each sync measures, for every location it downloads, the share of the stored days whose
+ * forecast changed, divided by the time since the previous sync of that location.  This rate is
+ * smoothed into the location's volatility.  The interval is then chosen so that the most
+ * volatile location sees about {@link #TARGET_CHANGE} of its days change between two syncs:
+ * longer while the weather is stable, shorter while it is not, and always within
+ * [{@link #MIN_INTERVAL}, {@link #MAX_INTERVAL}].
+ */
+class AdaptiveSyncScheduler {
+
+    // Intervals are in seconds, like the ones given to the sync framework
+    static final int DEFAULT_INTERVAL = 60 * 60 * 3;
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int MAX_INTERVAL = 60 * 60 * 12;
+
+    // Share of the forecast days we accept to see changed between two syncs
+    static final double TARGET_CHANGE = 0.25;
+
+    // Weight of the latest measure in the volatility
+    static final double SMOOTHING = 0.3;
+
+    // The interval is only changed when the new one differs by more than this share, so the
+    // periodic sync is not registered again after every sync
+    static final double HYSTERESIS = 0.25;
+
+    // Share of the interval added or removed to spread the installs, the same for every sync of
+    // an install
+    static final double MAX_JITTER = 0.1;
+
+    private static final double HOUR_IN_MILLIS = 1000 * 60 * 60;
+
+    private AdaptiveSyncScheduler() {
+    }
+
+    /**
+     * @param volatility   Current volatility of the location, in share of days per hour.
+     * @param changedDays  Days of the new forecast which differ from the stored ones.
+     * @param comparedDays Days of the new forecast which were already stored.
+     * @param elapsedMillis Time since the stored forecast was downloaded.
+     * @return the volatility including this sync; unchanged if nothing could be measured.
+     */
+    static double updateVolatility(double volatility, int changedDays, int comparedDays,
+                                   long elapsedMillis) {
+        if (comparedDays <= 0 || elapsedMillis <= 0) {
+            return volatility;
+        }
+        double rate = (double) changedDays / comparedDays / (elapsedMillis / HOUR_IN_MILLIS);
+        return volatility + SMOOTHING * (rate - volatility);
+    }
+
+    /**
+     * @param interval   Interval currently in use, in seconds.
+     * @param volatility Highest volatility among the locations, in share of days per hour.
+     * @return the interval to use from now on, in seconds.
+     */
+    static int computeInterval(int interval, double volatility) {
+        double target = volatility > 0 ? TARGET_CHANGE / volatility * 60 * 60 : MAX_INTERVAL;
+        int next = (int) Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, target));
+        if (Math.abs(next - interval) <= interval * HYSTERESIS
+                && next != MIN_INTERVAL && next != MAX_INTERVAL) {
+            return interval;
+        }
+        return next;
+    }
+
+    /**
+     * Lengthens or shortens the interval by up to {@link #MAX_JITTER}, depending on the install,
+     * so installs which registered their periodic sync together drift apart instead of all
+     * hitting the server on the same boundary.
+     *
+     * @param installId Id of the install, see {@link #getInstallId(Context)}.
+     */
+    static int addJitter(int interval, String installId) {
+        // String.hashCode is the same on every run, so an install always gets the same jitter
+        double position = (installId.hashCode() & 0xffff) / (double) 0xffff;
+        return (int) Math.round(interval * (1 + MAX_JITTER * (2 * position - 1)));
+    }
+
+    /**
+     * @return a random id generated once for this install.
+     */
+    static synchronized String getInstallId(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String key = context.getString(R.string.pref_install_id);
+        String installId = prefs.getString(key, null);
+        if (installId == null) {
+            installId = UUID.randomUUID().toString();
+            prefs.edit().putString(key, installId).apply();
+        }
+        return installId;
+    }
+
+    /**
+     * @return the periodic sync interval in use, in seconds.
+     */
+    static int getInterval(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getInt(context.getString(R.string.pref_sync_interval), DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Adapts the interval to the volatility measured by the latest sync.
+     *
+     * @return the new interval in seconds, or 0 if it did not change.
+     */
+    static int reschedule(Context context, double volatility) {
+        int interval = getInterval(context);
+        int next = computeInterval(interval, volatility);
+        if (next == interval) {
+            return 0;
+        }
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putInt(context.getString(R.string.pref_sync_interval), next)
+                .apply();
+        return next;
+    }
+}
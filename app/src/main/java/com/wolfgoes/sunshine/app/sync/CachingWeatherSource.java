@@ -0,0 +1,386 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the forecasts served by another source in a size bounded directory, and answers from
+ * it while they are younger than the max age.  A refresh right after another one, or going
+ * back to a location seen a moment ago, then costs no request at all, unless the request is
+ * forced.
+ * <p/>
+ * When the space runs out the least recently used forecasts are dropped.  Only single location
+ * daily requests are cached; groups, hourly forecasts and current conditions go straight to the
+ * source.
+ */
+class CachingWeatherSource implements WeatherSource {
+    private static final String LOG_TAG = CachingWeatherSource.class.getSimpleName();
+
+    static final long DEFAULT_MAX_AGE_MILLIS = 1000 * 60 * 15;
+    static final long DEFAULT_MAX_SIZE_BYTES = 1024 * 1024;
+
+    private final WeatherSource mSource;
+    private final File mDirectory;
+    private final long mMaxAgeMillis;
+    private final long mMaxSizeBytes;
+
+    // Size of every entry by file name, least recently used first
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSizeBytes;
+    private boolean mLoaded;
+
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicInteger mEvictions = new AtomicInteger();
+
+    /**
+     * @param directory    Where the forecasts are kept, e.g. under the app cache dir.
+     * @param maxAgeMillis How long a stored forecast is served without asking the source.
+     * @param maxSizeBytes Space the stored forecasts may take.
+     */
+    CachingWeatherSource(WeatherSource source, File directory, long maxAgeMillis, long maxSizeBytes) {
+        mSource = source;
+        mDirectory = directory;
+        mMaxAgeMillis = maxAgeMillis;
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    int getHitCount() {
+        return mHits.get();
+    }
+
+    int getMissCount() {
+        return mMisses.get();
+    }
+
+    int getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    @Override
+    public String getHost() {
+        return mSource.getHost();
+    }
+
+    @Override
+    public boolean supportsGroups() {
+        return mSource.supportsGroups();
+    }
+
+    @Override
+    public WeatherResponse fetch(String locationSetting, String etag, String lastModified, boolean force)
+            throws IOException {
+        String name = ReplayWeatherSource.getPayloadName(locationSetting);
+        File file = new File(mDirectory, name);
+
+        Entry entry = null;
+        if (isCached(name)) {
+            try {
+                entry = Entry.open(file);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Dropping unreadable entry " + name, e);
+                remove(name);
+            }
+        }
+
+        // A forced request wants the server's answer, however recent the stored one
+        if (entry != null && !force && System.currentTimeMillis() - entry.storedAt < mMaxAgeMillis) {
+            mHits.incrementAndGet();
+            if (etag != null && etag.equals(entry.etag)) {
+                // The caller already has this very forecast
+                entry.close();
+                return new CachedResponse(HttpURLConnection.HTTP_NOT_MODIFIED, entry);
+            }
+            return new CachedResponse(HttpURLConnection.HTTP_OK, entry);
+        }
+        if (entry != null) {
+            entry.close();
+        }
+
+        mMisses.incrementAndGet();
+        WeatherResponse response = mSource.fetch(locationSetting, etag, lastModified, force);
+        if (response.statusCode == HttpURLConnection.HTTP_OK) {
+            return new CachingResponse(response, file);
+        }
+        if (response.isNotModified() && entry != null) {
+            // Still current, good for another max age
+            Entry.touch(file);
+        }
+        return response;
+    }
+
+    @Override
+    public WeatherResponse fetchGroup(long[] cityIds) throws IOException {
+        return mSource.fetchGroup(cityIds);
+    }
+
+    @Override
+    public boolean supportsHourly() {
+        return mSource.supportsHourly();
+    }
+
+    @Override
+    public WeatherResponse fetchHourly(String locationSetting) throws IOException {
+        return mSource.fetchHourly(locationSetting);
+    }
+
+    @Override
+    public boolean supportsCurrent() {
+        return mSource.supportsCurrent();
+    }
+
+    @Override
+    public WeatherResponse fetchCurrent(String locationSetting) throws IOException {
+        return mSource.fetchCurrent(locationSetting);
+    }
+
+    private synchronized boolean isCached(String name) {
+        load();
+        return mEntries.get(name) != null;
+    }
+
+    private synchronized void remove(String name) {
+        Long size = mEntries.remove(name);
+        if (size != null) {
+            mSizeBytes -= size;
+        }
+        new File(mDirectory, name).delete();
+    }
+
+    private synchronized void onSaved(File file) {
+        load();
+        Long previous = mEntries.put(file.getName(), file.length());
+        if (previous != null) {
+            mSizeBytes -= previous;
+        }
+        mSizeBytes += file.length();
+
+        Iterator<Map.Entry<String, Long>> eldest = mEntries.entrySet().iterator();
+        while (mSizeBytes > mMaxSizeBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> evicted = eldest.next();
+            eldest.remove();
+            mSizeBytes -= evicted.getValue();
+            new File(mDirectory, evicted.getKey()).delete();
+            mEvictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reads what is already on disk, least recently modified first, the first time the cache
+     * is used.
+     */
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Could not create " + mDirectory);
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        List<File> partial = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(".partial")) {
+                partial.add(file);
+                continue;
+            }
+            mEntries.put(file.getName(), file.length());
+            mSizeBytes += file.length();
+        }
+        // Left over by a download that never finished
+        for (File file : partial) {
+            file.delete();
+        }
+    }
+
+    /**
+     * A stored forecast.  The file starts with when it was stored and the headers needed to
+     * use it, followed by the decompressed body.
+     */
+    private static class Entry {
+        long storedAt;
+        String etag;
+        String lastModified;
+        String contentType;
+        InputStream body;
+
+        static Entry open(File file) throws IOException {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                Entry entry = new Entry();
+                entry.storedAt = in.readLong();
+                entry.etag = readOptionalString(in);
+                entry.lastModified = readOptionalString(in);
+                entry.contentType = readOptionalString(in);
+                entry.body = in;
+                return entry;
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        static byte[] header(WeatherResponse response) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(System.currentTimeMillis());
+            writeOptionalString(out, response.getETag());
+            writeOptionalString(out, response.getLastModified());
+            writeOptionalString(out, response.getHeader("Content-Type"));
+            out.close();
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Marks the entry as stored now.
+         */
+        static void touch(File file) {
+            try {
+                RandomAccessFile out = new RandomAccessFile(file, "rw");
+                try {
+                    out.writeLong(System.currentTimeMillis());
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Could not refresh " + file, e);
+            }
+        }
+
+        void close() {
+            try {
+                body.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+        }
+
+        private static String readOptionalString(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+
+        private static void writeOptionalString(DataOutputStream out, String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+    }
+
+    private static class CachedResponse extends WeatherResponse {
+        private final Entry mEntry;
+
+        CachedResponse(int statusCode, Entry entry) {
+            super(statusCode, 0, 0);
+            mEntry = entry;
+        }
+
+        @Override
+        String getHeader(String name) {
+            if ("ETag".equalsIgnoreCase(name)) {
+                return mEntry.etag;
+            } else if ("Last-Modified".equalsIgnoreCase(name)) {
+                return mEntry.lastModified;
+            } else if ("Content-Type".equalsIgnoreCase(name)) {
+                return mEntry.contentType;
+            }
+            return null;
+        }
+
+        @Override
+        InputStream getInputStream() throws IOException {
+            return mEntry.body;
+        }
+
+        @Override
+        long getWireBytes() {
+            // Nothing went over the network
+            return 0;
+        }
+
+        @Override
+        void disconnect() {
+            mEntry.close();
+        }
+    }
+
+    /**
+     * A response from the source, saved to the cache as it is read.
+     */
+    private class CachingResponse extends WeatherResponse {
+        private final WeatherResponse mResponse;
+        private final File mFile;
+        private TeeInputStream mInputStream;
+
+        CachingResponse(WeatherResponse response, File file) {
+            super(response.statusCode, response.connectNanos, response.firstByteNanos);
+            mResponse = response;
+            mFile = file;
+        }
+
+        @Override
+        String getHeader(String name) {
+            return mResponse.getHeader(name);
+        }
+
+        @Override
+        InputStream getInputStream() throws IOException {
+            if (mInputStream == null) {
+                mInputStream = new TeeInputStream(mResponse.getInputStream(), mFile, Entry.header(mResponse)) {
+                    @Override
+                    protected void onSaved(File file) {
+                        CachingWeatherSource.this.onSaved(file);
+                    }
+                };
+            }
+            return mInputStream;
+        }
+
+        @Override
+        long getWireBytes() {
+            return mResponse.getWireBytes();
+        }
+
+        @Override
+        void commit() throws IOException {
+            if (mInputStream != null) {
+                mInputStream.commit();
+            }
+        }
+
+        @Override
+        void disconnect() {
+            mResponse.disconnect();
+        }
+    }
+}
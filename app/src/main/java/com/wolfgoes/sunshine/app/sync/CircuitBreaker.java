@@ -0,0 +1,75 @@
+package com.wolfgoes.sunshine.app.sync;
+
+/**
+ * Stops requests to a server after it failed {@code failureThreshold} times in a row.  Once
+ * {@code openMillis} have passed a single request is let through: if it succeeds the server is
+ * used again, otherwise it stays off for another period.
+ * <p/>
+ * Only failures of the server itself (see {@link FetchException#isTransient()}) should be
+ * reported; any answer, even a client error, shows the server is up.
+ */
+class CircuitBreaker {
+
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    static final long DEFAULT_OPEN_MILLIS = 1000 * 60 * 5;
+
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+
+    private int mFailures;
+    private long mOpenUntil;
+    private boolean mProbing;
+
+    CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * @return whether a request may be sent now.  When true, the outcome must be reported with
+     * {@link #onSuccess()} or {@link #onFailure()}, or {@link #onCancelled()} if there is none.
+     */
+    synchronized boolean allowRequest() {
+        if (mFailures < mFailureThreshold) {
+            return true;
+        }
+        if (System.currentTimeMillis() < mOpenUntil || mProbing) {
+            return false;
+        }
+        // Let one request through to see whether the server is back
+        mProbing = true;
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        mFailures = 0;
+        mProbing = false;
+    }
+
+    /**
+     * Reports an allowed request which ended without telling anything about the server, e.g.
+     * because the sync was cancelled.  If it was the probe, the next request becomes the probe.
+     */
+    synchronized void onCancelled() {
+        mProbing = false;
+    }
+
+    synchronized void onFailure() {
+        mFailures++;
+        mProbing = false;
+        if (mFailures >= mFailureThreshold) {
+            mOpenUntil = System.currentTimeMillis() + mOpenMillis;
+        }
+    }
+
+    /**
+     * @return when requests will be allowed again, in milliseconds since the epoch.
+     */
+    synchronized long getRetryAt() {
+        return mOpenUntil;
+    }
+}
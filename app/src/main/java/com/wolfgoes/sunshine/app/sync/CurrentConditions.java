@@ -0,0 +1,45 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import com.wolfgoes.sunshine.app.data.WeatherContract;
+
+/**
+ * The weather right now at a city, as decoded from the OpenWeatherMap response.
+ */
+class CurrentConditions {
+    long cityId;
+    String cityName;
+    double lat;
+    double lon;
+
+    // Time of the observation, in milliseconds since the epoch
+    long time;
+
+    double temperature;
+    double pressure;
+    int humidity;
+    double windSpeed;
+    double windDirection;
+
+    String description;
+    int weatherId;
+
+    ContentValues toContentValues(long locationId, long syncedAt, long expiresAt) {
+        ContentValues currentValues = new ContentValues();
+
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_LOC_KEY, locationId);
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_DATE, time);
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_WEATHER_ID, weatherId);
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_SHORT_DESC, description);
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_TEMP, temperature);
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_HUMIDITY, humidity);
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_PRESSURE, pressure);
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_WIND_SPEED, windSpeed);
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_DEGREES, windDirection);
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_LAST_SYNCED, syncedAt);
+        currentValues.put(WeatherContract.CurrentEntry.COLUMN_EXPIRES_AT, expiresAt);
+
+        return currentValues;
+    }
+}
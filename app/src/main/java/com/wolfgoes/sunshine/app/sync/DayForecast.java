@@ -0,0 +1,41 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import com.wolfgoes.sunshine.app.data.WeatherContract;
+
+/**
+ * A single day of forecast as decoded from the OpenWeatherMap response.
+ */
+class DayForecast {
+    // Position of the day inside the "list" array. The first day is always today.
+    int dayIndex;
+
+    double pressure;
+    int humidity;
+    double windSpeed;
+    double windDirection;
+
+    double high;
+    double low;
+
+    String description;
+    int weatherId;
+
+    ContentValues toContentValues(long locationId, long dateTime) {
+        ContentValues weatherValues = new ContentValues();
+
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+
+        return weatherValues;
+    }
+}
@@ -0,0 +1,66 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Why fetching a forecast failed.  The kind decides whether the request is worth retrying and
+ * how the failure is reported to the sync framework.
+ */
+class FetchException extends Exception {
+
+    // The server could not be reached, or the connection broke
+    static final int KIND_IO = 0;
+    // The server answered something that is not a forecast
+    static final int KIND_PARSE = 1;
+    // HTTP 4xx: the request itself is wrong, sending it again won't help
+    static final int KIND_CLIENT_ERROR = 2;
+    // HTTP 5xx, or any other unexpected status
+    static final int KIND_SERVER_ERROR = 3;
+    // Not even tried, the server has been failing too often lately
+    static final int KIND_CIRCUIT_OPEN = 4;
+    // HTTP 429, from the server or from our own rate limiter: wait before asking again
+    static final int KIND_RATE_LIMITED = 5;
+
+    final int kind;
+    // HTTP status of the response, or 0 when there was none
+    final int statusCode;
+    // When the request may be made again, in milliseconds since the epoch, or 0 if unknown
+    final long retryAtMillis;
+
+    FetchException(int kind, String message, Throwable cause) {
+        this(kind, 0, 0, message);
+        initCause(cause);
+    }
+
+    private FetchException(int kind, int statusCode, long retryAtMillis, String message) {
+        super(message);
+        this.kind = kind;
+        this.statusCode = statusCode;
+        this.retryAtMillis = retryAtMillis;
+    }
+
+    static FetchException forStatus(int statusCode) {
+        int kind = statusCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                && statusCode < HttpURLConnection.HTTP_INTERNAL_ERROR
+                ? KIND_CLIENT_ERROR : KIND_SERVER_ERROR;
+        return new FetchException(kind, statusCode, 0, "HTTP " + statusCode);
+    }
+
+    static FetchException rateLimited(long retryAtMillis) {
+        return new FetchException(KIND_RATE_LIMITED, WeatherResponse.HTTP_TOO_MANY_REQUESTS,
+                retryAtMillis, "Rate limited");
+    }
+
+    static FetchException circuitOpen(long retryAtMillis) {
+        return new FetchException(KIND_CIRCUIT_OPEN, 0, retryAtMillis, "Circuit open");
+    }
+
+    /**
+     * @return whether the same request may succeed if sent again later.  A rate limited request
+     * is not transient: it may only be sent again at {@link #retryAtMillis}, which is left to
+     * the sync framework.
+     */
+    boolean isTransient() {
+        return kind == KIND_IO || kind == KIND_SERVER_ERROR || kind == KIND_CIRCUIT_OPEN;
+    }
+}
@@ -0,0 +1,123 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.wolfgoes.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the days downloaded for a location with the rows already stored for it, so that
+ * only the rows which really changed get written.
+ */
+class ForecastDiff {
+
+    // Columns which hold the forecast itself, as opposed to its identity (location and date)
+    private static final String[] VALUE_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    // Projection to use when querying the stored rows handed to compute()
+    static final String[] PROJECTION;
+
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_FIRST_VALUE = 2;
+
+    static {
+        PROJECTION = new String[VALUE_COLUMNS.length + INDEX_FIRST_VALUE];
+        PROJECTION[INDEX_ID] = WeatherContract.WeatherEntry._ID;
+        PROJECTION[INDEX_DATE] = WeatherContract.WeatherEntry.COLUMN_DATE;
+        System.arraycopy(VALUE_COLUMNS, 0, PROJECTION, INDEX_FIRST_VALUE, VALUE_COLUMNS.length);
+    }
+
+    // New days
+    final List<ContentValues> inserts = new ArrayList<>();
+    // Stored rows whose forecast changed, by row id
+    final Map<Long, ContentValues> updates = new HashMap<>();
+    // Stored rows of days the new forecast no longer covers
+    final List<Long> deletes = new ArrayList<>();
+    // Days downloaded again without any change
+    int unchanged;
+
+    boolean hasChanges() {
+        return !inserts.isEmpty() || !updates.isEmpty() || !deletes.isEmpty();
+    }
+
+    /**
+     * @param stored   Rows currently stored for the location, queried with {@link #PROJECTION}.
+     *                 Rows dated before the first incoming day are left alone.
+     * @param incoming Days just downloaded for the same location, in date order.
+     */
+    static ForecastDiff compute(Cursor stored, List<ContentValues> incoming) {
+        ForecastDiff diff = new ForecastDiff();
+
+        Map<Long, ContentValues> incomingByDate = new HashMap<>();
+        long firstDate = Long.MAX_VALUE;
+        for (ContentValues values : incoming) {
+            long date = WeatherContract.normalizeDate(
+                    values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+            incomingByDate.put(date, values);
+            firstDate = Math.min(firstDate, date);
+        }
+
+        if (stored != null) {
+            while (stored.moveToNext()) {
+                long id = stored.getLong(INDEX_ID);
+                long date = stored.getLong(INDEX_DATE);
+
+                ContentValues values = incomingByDate.remove(date);
+                if (values == null) {
+                    if (date >= firstDate) {
+                        diff.deletes.add(id);
+                    }
+                } else if (isSameForecast(stored, values)) {
+                    diff.unchanged++;
+                } else {
+                    diff.updates.put(id, values);
+                }
+            }
+        }
+
+        // Whatever is left has no stored row yet
+        for (ContentValues values : incoming) {
+            long date = WeatherContract.normalizeDate(
+                    values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+            if (incomingByDate.containsKey(date)) {
+                diff.inserts.add(values);
+            }
+        }
+
+        return diff;
+    }
+
+    private static boolean isSameForecast(Cursor stored, ContentValues values) {
+        for (int i = 0; i < VALUE_COLUMNS.length; i++) {
+            int index = INDEX_FIRST_VALUE + i;
+            Object value = values.get(VALUE_COLUMNS[i]);
+            if (value instanceof String) {
+                if (!value.equals(stored.getString(index))) {
+                    return false;
+                }
+            } else if (value instanceof Number) {
+                if (((Number) value).doubleValue() != stored.getDouble(index)) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,559 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming parser for the OpenWeatherMap daily and 3 hour forecast responses, and for the
+ * current weather one.
+ * <p/>
+ * Instead of buffering the whole body and building a {@link org.json.JSONObject} tree, the
+ * payload is pulled token by token straight from the connection and every day is handed to the
+ * {@link Callback} as soon as it has been decoded.
+ */
+class ForecastJsonParser {
+
+    interface Callback {
+        void onCity(long cityId, String cityName, double lat, double lon);
+
+        void onDay(DayForecast day);
+    }
+
+    /**
+     * Receives the forecasts of a group response, which holds one complete forecast per city.
+     */
+    interface GroupCallback {
+        /**
+         * Called before each forecast of the group is decoded.
+         *
+         * @return the callback that will receive that forecast.
+         */
+        Callback onForecast();
+    }
+
+    interface HourlyCallback {
+        void onHour(HourForecast hour);
+    }
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_ID = "id";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    // In the 3 hour forecast, every point of the "list" array has its time, and its measurements
+    // split between the "main" and "wind" objects.
+    private static final String OWM_TIME = "dt";
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_WIND = "wind";
+
+    /**
+     * Decodes the forecast read from {@code in}.  The reader is not closed.
+     *
+     * @throws IOException   if the underlying stream fails
+     * @throws JSONException if the payload is not a valid forecast
+     */
+    void parse(Reader in, Callback callback) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            readForecast(reader, callback);
+        } catch (MalformedJsonException e) {
+            throw parseError(e);
+        } catch (IllegalStateException e) {
+            // thrown by JsonReader when a token of an unexpected type is found
+            throw parseError(e);
+        } catch (NumberFormatException e) {
+            throw parseError(e);
+        }
+    }
+
+    /**
+     * Decodes a group response, {"cnt":N,"list":[forecast, forecast, ...]}, where every element
+     * of the list has the same layout as a single forecast.  The reader is not closed.
+     *
+     * @throws IOException   if the underlying stream fails
+     * @throws JSONException if the payload is not a valid group of forecasts
+     */
+    void parseGroup(Reader in, GroupCallback callback) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        boolean hasList = false;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readForecast(reader, callback.onForecast());
+                    }
+                    reader.endArray();
+                    hasList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException e) {
+            throw parseError(e);
+        } catch (IllegalStateException e) {
+            throw parseError(e);
+        } catch (NumberFormatException e) {
+            throw parseError(e);
+        }
+
+        if (!hasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+    }
+
+    /**
+     * Decodes the 3 hour forecast read from {@code in}.  The reader is not closed.
+     *
+     * @throws IOException   if the underlying stream fails
+     * @throws JSONException if the payload is not a valid forecast
+     */
+    void parseHourly(Reader in, HourlyCallback callback) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        boolean hasList = false;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        HourForecast hour = readHour(reader);
+                        if (hour.time == 0) {
+                            throw new JSONException("No value for " + OWM_TIME);
+                        }
+                        callback.onHour(hour);
+                    }
+                    reader.endArray();
+                    hasList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException e) {
+            throw parseError(e);
+        } catch (IllegalStateException e) {
+            throw parseError(e);
+        } catch (NumberFormatException e) {
+            throw parseError(e);
+        }
+
+        if (!hasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+    }
+
+    /**
+     * Decodes the current weather read from {@code in}, which has the city fields at the top
+     * level next to the measurements laid out as in a point of the 3 hour forecast.  The reader
+     * is not closed.
+     *
+     * @throws IOException   if the underlying stream fails
+     * @throws JSONException if the payload is not a valid current weather
+     */
+    CurrentConditions parseCurrent(Reader in) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        CurrentConditions current = new CurrentConditions();
+        current.lat = Double.NaN;
+        current.lon = Double.NaN;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_TIME.equals(name)) {
+                    // in seconds
+                    current.time = reader.nextLong() * 1000;
+                } else if (OWM_CITY_ID.equals(name)) {
+                    current.cityId = reader.nextLong();
+                } else if (OWM_CITY_NAME.equals(name)) {
+                    current.cityName = reader.nextString();
+                } else if (OWM_COORD.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String coordName = reader.nextName();
+                        if (OWM_LATITUDE.equals(coordName)) {
+                            current.lat = reader.nextDouble();
+                        } else if (OWM_LONGITUDE.equals(coordName)) {
+                            current.lon = reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_MAIN.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String mainName = reader.nextName();
+                        if (OWM_TEMPERATURE.equals(mainName)) {
+                            current.temperature = reader.nextDouble();
+                        } else if (OWM_PRESSURE.equals(mainName)) {
+                            current.pressure = reader.nextDouble();
+                        } else if (OWM_HUMIDITY.equals(mainName)) {
+                            current.humidity = reader.nextInt();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WIND.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String windName = reader.nextName();
+                        if (OWM_WINDSPEED.equals(windName)) {
+                            current.windSpeed = reader.nextDouble();
+                        } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                            current.windDirection = reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WEATHER.equals(name)) {
+                    reader.beginArray();
+                    boolean first = true;
+                    while (reader.hasNext()) {
+                        if (first && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                String conditionName = reader.nextName();
+                                if (OWM_DESCRIPTION.equals(conditionName)) {
+                                    current.description = reader.nextString();
+                                } else if (OWM_WEATHER_ID.equals(conditionName)) {
+                                    current.weatherId = reader.nextInt();
+                                } else {
+                                    reader.skipValue();
+                                }
+                            }
+                            reader.endObject();
+                            first = false;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException e) {
+            throw parseError(e);
+        } catch (IllegalStateException e) {
+            throw parseError(e);
+        } catch (NumberFormatException e) {
+            throw parseError(e);
+        }
+
+        if (current.time == 0) {
+            throw new JSONException("No value for " + OWM_TIME);
+        }
+        if (current.description == null) {
+            throw new JSONException("No value for " + OWM_WEATHER);
+        }
+        if (current.cityName == null || Double.isNaN(current.lat) || Double.isNaN(current.lon)) {
+            throw new JSONException("Incomplete city of the current weather");
+        }
+        return current;
+    }
+
+    private void readForecast(JsonReader reader, Callback callback) throws IOException, JSONException {
+        boolean hasCity = false;
+        boolean hasList = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY.equals(name)) {
+                readCity(reader, callback);
+                hasCity = true;
+            } else if (OWM_LIST.equals(name)) {
+                readDays(reader, callback);
+                hasList = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasCity) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+        if (!hasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+    }
+
+    private void readCity(JsonReader reader, Callback callback) throws IOException, JSONException {
+        long cityId = 0;
+        String cityName = null;
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_ID.equals(name)) {
+                cityId = reader.nextLong();
+            } else if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || Double.isNaN(lat) || Double.isNaN(lon)) {
+            throw new JSONException("Incomplete " + OWM_CITY + " object");
+        }
+        callback.onCity(cityId, cityName, lat, lon);
+    }
+
+    private void readDays(JsonReader reader, Callback callback) throws IOException, JSONException {
+        int index = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            DayForecast day = readDay(reader, index);
+            day.dayIndex = index++;
+            callback.onDay(day);
+        }
+        reader.endArray();
+    }
+
+    /**
+     * @throws JSONException if any of the fields stored for a day is missing.  Left at zero, it
+     *                       would be written as a valid forecast.
+     */
+    private DayForecast readDay(JsonReader reader, int index) throws IOException, JSONException {
+        DayForecast day = new DayForecast();
+        boolean hasPressure = false;
+        boolean hasHumidity = false;
+        boolean hasWindSpeed = false;
+        boolean hasWindDirection = false;
+        boolean hasHigh = false;
+        boolean hasLow = false;
+        boolean hasWeatherId = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                day.pressure = reader.nextDouble();
+                hasPressure = true;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                day.humidity = reader.nextInt();
+                hasHumidity = true;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                day.windSpeed = reader.nextDouble();
+                hasWindSpeed = true;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                day.windDirection = reader.nextDouble();
+                hasWindDirection = true;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        day.high = reader.nextDouble();
+                        hasHigh = true;
+                    } else if (OWM_MIN.equals(tempName)) {
+                        day.low = reader.nextDouble();
+                        hasLow = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (first && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        hasWeatherId = readCondition(reader, day);
+                        first = false;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasPressure) {
+            throw missingDayValue(OWM_PRESSURE, index);
+        }
+        if (!hasHumidity) {
+            throw missingDayValue(OWM_HUMIDITY, index);
+        }
+        if (!hasWindSpeed) {
+            throw missingDayValue(OWM_WINDSPEED, index);
+        }
+        if (!hasWindDirection) {
+            throw missingDayValue(OWM_WIND_DIRECTION, index);
+        }
+        if (!hasHigh) {
+            throw missingDayValue(OWM_TEMPERATURE + "." + OWM_MAX, index);
+        }
+        if (!hasLow) {
+            throw missingDayValue(OWM_TEMPERATURE + "." + OWM_MIN, index);
+        }
+        if (day.description == null) {
+            throw missingDayValue(OWM_WEATHER, index);
+        }
+        if (!hasWeatherId) {
+            throw missingDayValue(OWM_WEATHER + "." + OWM_WEATHER_ID, index);
+        }
+        return day;
+    }
+
+    private HourForecast readHour(JsonReader reader) throws IOException {
+        HourForecast hour = new HourForecast();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                // in seconds
+                hour.time = reader.nextLong() * 1000;
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        hour.temperature = reader.nextDouble();
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        hour.pressure = reader.nextDouble();
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        hour.humidity = reader.nextInt();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        hour.windSpeed = reader.nextDouble();
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        hour.windDirection = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Only the weather code of the first element is kept
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (first && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                                hour.weatherId = reader.nextInt();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        first = false;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return hour;
+    }
+
+    /**
+     * @return whether the condition had a weather code.
+     */
+    private boolean readCondition(JsonReader reader, DayForecast day) throws IOException {
+        boolean hasWeatherId = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DESCRIPTION.equals(name)) {
+                day.description = reader.nextString();
+            } else if (OWM_WEATHER_ID.equals(name)) {
+                day.weatherId = reader.nextInt();
+                hasWeatherId = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return hasWeatherId;
+    }
+
+    private static JSONException missingDayValue(String name, int index) {
+        return new JSONException("No value for " + name + " at day " + index);
+    }
+
+    private static JSONException parseError(Exception cause) {
+        JSONException e = new JSONException(cause.getMessage());
+        e.initCause(cause);
+        return e;
+    }
+}
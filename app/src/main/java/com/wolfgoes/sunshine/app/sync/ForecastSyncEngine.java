@@ -0,0 +1,656 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Downloads and decodes the forecast of several locations at once.
+ * <p/>
+ * Requests run on a bounded pool of workers, and no more than {@link #MAX_REQUESTS_PER_HOST}
+ * of them talk to the same host at any time.  When the source has a group endpoint, locations
+ * whose city id is already known are requested {@link #MAX_GROUP_SIZE} at a time, falling back
+ * to one request per location if the group call fails.  Nothing is written here: every location
+ * gets a {@link Result} which the sync adapter stores afterwards.
+ * <p/>
+ * Transient failures are retried according to a {@link RetryPolicy}, and each host has a
+ * {@link CircuitBreaker} which stops requests to it after repeated failures.
+ * <p/>
+ * Within a request, the body is decoded while it downloads.  Completed results flow through a
+ * bounded queue to the caller, which stores them while the other requests go on.
+ * <p/>
+ * When the source offers it, the hourly forecast of every location refreshed is fetched along
+ * with its daily one, on a best effort basis: it is not retried, and a location whose hours
+ * could not be fetched is still refreshed.
+ */
+class ForecastSyncEngine {
+    private static final String LOG_TAG = ForecastSyncEngine.class.getSimpleName();
+
+    private static final int MAX_WORKERS = 4;
+    private static final int MAX_REQUESTS_PER_HOST = 2;
+    private static final int MAX_GROUP_SIZE = 10;
+    // Results waiting for the caller of fetchAll before the workers are held back
+    private static final int MAX_PENDING_RESULTS = 4;
+
+    // How long to stop trying group requests after the endpoint reported it does not exist
+    private static final long GROUP_RETRY_DELAY_MILLIS = 1000 * 60 * 60 * 24;
+
+    static final int STATUS_OK = 0;
+    static final int STATUS_NOT_MODIFIED = 1;
+    static final int STATUS_FAILED = 2;
+
+    /**
+     * A location to be refreshed, along with the validators of its stored forecast.
+     */
+    static class Target {
+        final String locationSetting;
+        // OpenWeatherMap city id, 0 when the location has never been synced
+        final long cityId;
+        final String etag;
+        final String lastModified;
+        // Whether the server must be asked, even if the source keeps a recent copy
+        final boolean force;
+
+        Target(String locationSetting, long cityId, String etag, String lastModified) {
+            this(locationSetting, cityId, etag, lastModified, false);
+        }
+
+        Target(String locationSetting, long cityId, String etag, String lastModified, boolean force) {
+            this.locationSetting = locationSetting;
+            this.cityId = cityId;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.force = force;
+        }
+    }
+
+    /**
+     * Outcome of refreshing one location.
+     */
+    static class Result implements ForecastJsonParser.Callback {
+        final String locationSetting;
+        int status = STATUS_FAILED;
+        FetchException error;
+
+        long cityId;
+        String cityName;
+        double lat;
+        double lon;
+        final List<DayForecast> days = new ArrayList<>();
+        // The 3 hour forecast, null if it was not fetched
+        List<HourForecast> hours;
+
+        String etag;
+        String lastModified;
+
+        Result(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+
+        @Override
+        public void onCity(long cityId, String cityName, double lat, double lon) {
+            this.cityId = cityId;
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public void onDay(DayForecast day) {
+            days.add(day);
+        }
+    }
+
+    private final WeatherSource mSource;
+    private final RetryPolicy mRetryPolicy;
+    private final int mBreakerThreshold;
+    private final long mBreakerOpenMillis;
+    private final Map<String, Semaphore> mHostPermits = new HashMap<>();
+    private final Map<String, CircuitBreaker> mHostBreakers = new HashMap<>();
+    private volatile long mGroupUnavailableUntil;
+
+    ForecastSyncEngine(WeatherSource source) {
+        this(source, new RetryPolicy(), CircuitBreaker.DEFAULT_FAILURE_THRESHOLD,
+                CircuitBreaker.DEFAULT_OPEN_MILLIS);
+    }
+
+    /**
+     * @param source            Where the forecasts come from.
+     * @param retryPolicy       How failed requests are retried.
+     * @param breakerThreshold  Consecutive failures after which a host is left alone.
+     * @param breakerOpenMillis How long a host is left alone.
+     */
+    ForecastSyncEngine(WeatherSource source, RetryPolicy retryPolicy,
+                       int breakerThreshold, long breakerOpenMillis) {
+        mSource = source;
+        mRetryPolicy = retryPolicy;
+        mBreakerThreshold = breakerThreshold;
+        mBreakerOpenMillis = breakerOpenMillis;
+    }
+
+    /**
+     * Receives the results of {@link #fetchAll(List, SyncMetrics, ResultHandler)} as soon as
+     * they are ready, on the thread which called it.
+     */
+    interface ResultHandler {
+        void onResult(Result result);
+    }
+
+    List<Result> fetchAll(List<Target> targets) throws InterruptedException {
+        return fetchAll(targets, new SyncMetrics());
+    }
+
+    List<Result> fetchAll(List<Target> targets, SyncMetrics metrics) throws InterruptedException {
+        return fetchAll(targets, metrics, null);
+    }
+
+    /**
+     * Refreshes all the given locations and waits for them to finish.
+     * <p/>
+     * Results are handed to {@code handler} while the other requests go on, so the next stage
+     * of the sync overlaps with the downloads.  They wait in a queue of
+     * {@link #MAX_PENDING_RESULTS}; when the handler falls behind and the queue is full, the
+     * workers stop downloading until it catches up.
+     *
+     * @param metrics Receives the timing of every request made.
+     * @param handler Receives every result as it completes, or null.
+     * @return one result per target, in the same order.
+     * @throws InterruptedException if the sync was cancelled while waiting.
+     */
+    List<Result> fetchAll(List<Target> targets, final SyncMetrics metrics, ResultHandler handler)
+            throws InterruptedException {
+        List<Result> results = new ArrayList<>(targets.size());
+        if (targets.isEmpty()) {
+            return results;
+        }
+
+        // Split the locations we can ask for in groups from those which need their own request
+        List<Target> singles = new ArrayList<>();
+        List<List<Target>> groups = new ArrayList<>();
+        List<Target> group = null;
+        for (Target target : targets) {
+            if (target.cityId > 0 && isGroupAvailable()) {
+                if (group == null || group.size() == MAX_GROUP_SIZE) {
+                    group = new ArrayList<>();
+                    groups.add(group);
+                }
+                group.add(target);
+            } else {
+                singles.add(target);
+            }
+        }
+
+        final BlockingQueue<Result> completed = new ArrayBlockingQueue<>(MAX_PENDING_RESULTS);
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(MAX_WORKERS, singles.size() + groups.size()));
+        try {
+            for (final Target target : singles) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Result result;
+                        try {
+                            result = fetch(target, metrics);
+                        } catch (InterruptedException e) {
+                            return;
+                        } catch (RuntimeException e) {
+                            // fetch() reports its own failures, so this is a bug
+                            Log.e(LOG_TAG, "Unexpected sync failure", e);
+                            result = newFailedResult(target);
+                        }
+                        offer(completed, result);
+                    }
+                });
+            }
+            for (final List<Target> members : groups) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        List<Result> groupResults;
+                        try {
+                            groupResults = fetchGroup(members, metrics);
+                        } catch (InterruptedException e) {
+                            return;
+                        } catch (RuntimeException e) {
+                            Log.e(LOG_TAG, "Unexpected sync failure", e);
+                            groupResults = new ArrayList<>(members.size());
+                            for (Target target : members) {
+                                groupResults.add(newFailedResult(target));
+                            }
+                        }
+                        for (Result result : groupResults) {
+                            if (!offer(completed, result)) {
+                                return;
+                            }
+                        }
+                    }
+                });
+            }
+
+            // Every target gets exactly one result
+            Map<String, Result> resultsByLocation = new HashMap<>();
+            for (int i = 0; i < targets.size(); i++) {
+                Result result = completed.take();
+                resultsByLocation.put(result.locationSetting, result);
+                if (handler != null) {
+                    handler.onResult(result);
+                }
+            }
+
+            for (Target target : targets) {
+                results.add(resultsByLocation.get(target.locationSetting));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Queues a result for the caller of fetchAll, waiting for room if needed.
+     *
+     * @return false if the sync was cancelled meanwhile.
+     */
+    private static boolean offer(BlockingQueue<Result> completed, Result result) {
+        try {
+            completed.put(result);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private static Result newFailedResult(Target target) {
+        Result result = new Result(target.locationSetting);
+        result.error = new FetchException(FetchException.KIND_IO, "No result", null);
+        return result;
+    }
+
+    private boolean isGroupAvailable() {
+        return mSource.supportsGroups() && System.currentTimeMillis() >= mGroupUnavailableUntil;
+    }
+
+    /**
+     * Fetches the forecast of several locations with a single group request, and fans the
+     * decoded forecasts back out to their locations by city id.  Locations missing from the
+     * answer, or all of them if the request fails, are fetched one by one.  A failed group
+     * request is not retried, since the single requests follow anyway.
+     */
+    List<Result> fetchGroup(List<Target> members, SyncMetrics metrics) throws InterruptedException {
+        final long[] cityIds = new long[members.size()];
+        for (int i = 0; i < cityIds.length; i++) {
+            cityIds[i] = members.get(i).cityId;
+        }
+        final List<Result> decoded = new ArrayList<>();
+        try {
+            request(new Call() {
+                @Override
+                public WeatherResponse send() throws IOException {
+                    return mSource.fetchGroup(cityIds);
+                }
+            }, new BodyParser<List<Result>>() {
+                @Override
+                public List<Result> parse(WeatherResponse response, BufferedReader reader)
+                        throws IOException, JSONException {
+                    new ForecastJsonParser().parseGroup(reader, new ForecastJsonParser.GroupCallback() {
+                        @Override
+                        public ForecastJsonParser.Callback onForecast() {
+                            Result result = new Result(null);
+                            decoded.add(result);
+                            return result;
+                        }
+                    });
+                    return decoded;
+                }
+            }, metrics);
+        } catch (FetchException e) {
+            decoded.clear();
+            if (e.statusCode == HttpURLConnection.HTTP_NOT_FOUND
+                    || e.statusCode == HttpURLConnection.HTTP_BAD_METHOD
+                    || e.statusCode == HttpURLConnection.HTTP_NOT_IMPLEMENTED) {
+                // The endpoint does not exist, don't bother with it for a while
+                Log.w(LOG_TAG, "Group endpoint unavailable: " + e.statusCode);
+                mGroupUnavailableUntil = System.currentTimeMillis() + GROUP_RETRY_DELAY_MILLIS;
+            } else if (e.kind != FetchException.KIND_CIRCUIT_OPEN) {
+                Log.e(LOG_TAG, "Error fetching group " + Arrays.toString(cityIds), e);
+            }
+        }
+
+        Map<Long, Result> decodedByCity = new HashMap<>();
+        for (Result result : decoded) {
+            decodedByCity.put(result.cityId, result);
+        }
+
+        List<Result> results = new ArrayList<>(members.size());
+        for (Target target : members) {
+            Result forecast = decodedByCity.get(target.cityId);
+            if (forecast == null) {
+                results.add(fetch(target, metrics));
+                continue;
+            }
+            Result result = new Result(target.locationSetting);
+            result.cityId = forecast.cityId;
+            result.cityName = forecast.cityName;
+            result.lat = forecast.lat;
+            result.lon = forecast.lon;
+            result.days.addAll(forecast.days);
+            // A group answer carries no validators describing this location alone
+            result.status = STATUS_OK;
+            fetchHours(target, result, metrics);
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Fetches the forecast of one location, trying again on transient failures as long as the
+     * retry policy and the host's circuit breaker allow it.
+     */
+    Result fetch(Target target, SyncMetrics metrics) throws InterruptedException {
+        Result result = new Result(target.locationSetting);
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                fetchOnce(target, result, metrics);
+                result.error = null;
+                fetchHours(target, result, metrics);
+                return result;
+            } catch (FetchException e) {
+                result.error = e;
+                if (e.kind == FetchException.KIND_CIRCUIT_OPEN) {
+                    Log.w(LOG_TAG, "Not fetching " + target.locationSetting + ", " +
+                            mSource.getHost() + " keeps failing");
+                    metrics.addFailure();
+                    return result;
+                }
+                Log.e(LOG_TAG, "Error fetching " + target.locationSetting + ", attempt " + attempt, e);
+                if (!mRetryPolicy.shouldRetry(e, attempt)) {
+                    return result;
+                }
+            }
+
+            // Forget whatever was decoded before the failure
+            result.days.clear();
+            Thread.sleep(mRetryPolicy.getDelayMillis(attempt));
+        }
+    }
+
+    private void fetchOnce(final Target target, final Result result, SyncMetrics metrics)
+            throws InterruptedException, FetchException {
+        Result decoded = request(new Call() {
+            @Override
+            public WeatherResponse send() throws IOException {
+                return mSource.fetch(target.locationSetting, target.etag, target.lastModified,
+                        target.force);
+            }
+        }, new BodyParser<Result>() {
+            @Override
+            public Result parse(WeatherResponse response, BufferedReader reader)
+                    throws IOException, JSONException {
+                new ForecastJsonParser().parse(reader, result);
+                result.etag = response.getETag();
+                result.lastModified = response.getLastModified();
+                return result;
+            }
+        }, metrics);
+
+        // The forecast we already have is still current when nothing was decoded
+        result.status = decoded == null ? STATUS_NOT_MODIFIED : STATUS_OK;
+    }
+
+    /**
+     * Fetches the hourly forecast of a location whose daily forecast was just refreshed, if the
+     * source has one.  On failure, {@code result.hours} is left null, so the hours already stored
+     * are kept.
+     */
+    private void fetchHours(final Target target, Result result, SyncMetrics metrics)
+            throws InterruptedException {
+        if (!mSource.supportsHourly()) {
+            return;
+        }
+
+        try {
+            result.hours = request(new Call() {
+                @Override
+                public WeatherResponse send() throws IOException {
+                    return mSource.fetchHourly(target.locationSetting);
+                }
+            }, new BodyParser<List<HourForecast>>() {
+                @Override
+                public List<HourForecast> parse(WeatherResponse response, BufferedReader reader)
+                        throws IOException, JSONException {
+                    final List<HourForecast> hours = new ArrayList<>();
+                    new ForecastJsonParser().parseHourly(reader, new ForecastJsonParser.HourlyCallback() {
+                        @Override
+                        public void onHour(HourForecast hour) {
+                            hours.add(hour);
+                        }
+                    });
+                    return hours;
+                }
+            }, metrics);
+        } catch (FetchException e) {
+            if (e.kind != FetchException.KIND_CIRCUIT_OPEN) {
+                Log.w(LOG_TAG, "Error fetching hours of " + target.locationSetting, e);
+            }
+        }
+    }
+
+    /**
+     * @return whether {@link #fetchCurrent(String, SyncMetrics)} may be called.
+     */
+    boolean supportsCurrent() {
+        return mSource.supportsCurrent();
+    }
+
+    /**
+     * Fetches the current conditions at one location, trying again on transient failures as
+     * long as the retry policy and the host's circuit breaker allow it.  The request shares the
+     * host's permits and circuit breaker with the forecasts.
+     *
+     * @throws FetchException with the last failure once no attempt is left.
+     */
+    CurrentConditions fetchCurrent(final String locationSetting, SyncMetrics metrics)
+            throws InterruptedException, FetchException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return request(new Call() {
+                    @Override
+                    public WeatherResponse send() throws IOException {
+                        return mSource.fetchCurrent(locationSetting);
+                    }
+                }, new BodyParser<CurrentConditions>() {
+                    @Override
+                    public CurrentConditions parse(WeatherResponse response, BufferedReader reader)
+                            throws IOException, JSONException {
+                        return new ForecastJsonParser().parseCurrent(reader);
+                    }
+                }, metrics);
+            } catch (FetchException e) {
+                if (e.kind == FetchException.KIND_CIRCUIT_OPEN) {
+                    Log.w(LOG_TAG, "Not fetching current " + locationSetting + ", " +
+                            mSource.getHost() + " keeps failing");
+                    metrics.addFailure();
+                    throw e;
+                }
+                Log.e(LOG_TAG, "Error fetching current " + locationSetting + ", attempt " + attempt, e);
+                if (!mRetryPolicy.shouldRetry(e, attempt)) {
+                    throw e;
+                }
+            }
+
+            Thread.sleep(mRetryPolicy.getDelayMillis(attempt));
+        }
+    }
+
+    /**
+     * Sends one request of the source.
+     */
+    private interface Call {
+        WeatherResponse send() throws IOException;
+    }
+
+    /**
+     * Decodes the body of a successful response while it downloads.
+     */
+    private interface BodyParser<T> {
+        T parse(WeatherResponse response, BufferedReader reader) throws IOException, JSONException;
+    }
+
+    /**
+     * Makes one request to the source's host, through its circuit breaker and one of its
+     * permits, and decodes the body as it downloads.  The outcome is reported to the breaker and
+     * the request to the metrics.  The response is only committed (see
+     * {@link WeatherResponse#commit()}) once its body was decoded.
+     *
+     * @return the decoded body, or null if the response was 304 Not Modified.
+     * @throws FetchException if the breaker is open, the request failed or the body could not
+     *                        be decoded.  Only an open breaker is left for the caller to count.
+     */
+    private <T> T request(Call call, BodyParser<T> parser, SyncMetrics metrics)
+            throws InterruptedException, FetchException {
+        String host = mSource.getHost();
+        CircuitBreaker breaker = getCircuitBreaker(host);
+        Semaphore permits = getHostPermits(host);
+
+        // Waiting for the permit may be interrupted, so the breaker is only asked once the
+        // request is sure to be sent: a probe it allowed must always get an outcome
+        permits.acquire();
+        if (!breaker.allowRequest()) {
+            permits.release();
+            throw FetchException.circuitOpen(breaker.getRetryAt());
+        }
+
+        WeatherResponse response = null;
+        BufferedReader reader = null;
+        boolean reported = false;
+        try {
+            response = call.send();
+            if (response.isNotModified()) {
+                metrics.addRequest(response.connectNanos, response.firstByteNanos, 0, 0, 0, 0);
+                breaker.onSuccess();
+                reported = true;
+                return null;
+            }
+            if (response.statusCode != HttpURLConnection.HTTP_OK) {
+                metrics.addRequest(response.connectNanos, response.firstByteNanos, 0, 0, 0, 0);
+                checkStatus(response);
+            }
+
+            // Feed the response straight into the parser, without buffering it first
+            MeteredInputStream inputStream = new MeteredInputStream(response.getInputStream());
+            reader = new BufferedReader(new InputStreamReader(inputStream, response.getCharset()));
+
+            long parseStart = System.nanoTime();
+            T body;
+            try {
+                body = parser.parse(response, reader);
+            } finally {
+                addRequest(metrics, response, inputStream, System.nanoTime() - parseStart);
+            }
+            response.commit();
+            breaker.onSuccess();
+            reported = true;
+            return body;
+        } catch (IOException e) {
+            reported = true;
+            throw onFailure(breaker, new FetchException(FetchException.KIND_IO, e.getMessage(), e), metrics);
+        } catch (JSONException e) {
+            reported = true;
+            throw onFailure(breaker, new FetchException(FetchException.KIND_PARSE, e.getMessage(), e), metrics);
+        } catch (FetchException e) {
+            reported = true;
+            throw onFailure(breaker, e, metrics);
+        } finally {
+            if (!reported) {
+                // e.g. a bug in the parser, which says nothing about the server
+                breaker.onCancelled();
+            }
+            permits.release();
+            if (response != null) {
+                response.disconnect();
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @throws FetchException unless the response holds a forecast.
+     */
+    private static void checkStatus(WeatherResponse response) throws FetchException {
+        if (response.statusCode == WeatherResponse.HTTP_TOO_MANY_REQUESTS) {
+            throw FetchException.rateLimited(response.getRetryAt(System.currentTimeMillis()));
+        } else if (response.statusCode != HttpURLConnection.HTTP_OK) {
+            throw FetchException.forStatus(response.statusCode);
+        }
+    }
+
+    /**
+     * @return the failure, to be thrown.
+     */
+    private static FetchException onFailure(CircuitBreaker breaker, FetchException e,
+                                            SyncMetrics metrics) {
+        metrics.addFailure();
+        if (e.isTransient()) {
+            breaker.onFailure();
+        } else {
+            // The server did answer, so it is up
+            breaker.onSuccess();
+        }
+        return e;
+    }
+
+    /**
+     * Records a request whose body was streamed into the parser: the time spent blocked on the
+     * stream is the download (decompression included), the rest of the parsing time is the
+     * decoding itself.
+     */
+    private static void addRequest(SyncMetrics metrics, WeatherResponse response,
+                                   MeteredInputStream inputStream, long parseNanos) {
+        long downloadNanos = inputStream.getReadNanos();
+        long payloadBytes = inputStream.getBytes();
+        long wireBytes = response.getWireBytes();
+        metrics.addRequest(response.connectNanos, response.firstByteNanos, downloadNanos,
+                Math.max(0, parseNanos - downloadNanos), wireBytes < 0 ? payloadBytes : wireBytes,
+                payloadBytes);
+    }
+
+    private synchronized CircuitBreaker getCircuitBreaker(String host) {
+        CircuitBreaker breaker = mHostBreakers.get(host);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(mBreakerThreshold, mBreakerOpenMillis);
+            mHostBreakers.put(host, breaker);
+        }
+        return breaker;
+    }
+
+    private synchronized Semaphore getHostPermits(String host) {
+        Semaphore permits = mHostPermits.get(host);
+        if (permits == null) {
+            permits = new Semaphore(MAX_REQUESTS_PER_HOST);
+            mHostPermits.put(host, permits);
+        }
+        return permits;
+    }
+}
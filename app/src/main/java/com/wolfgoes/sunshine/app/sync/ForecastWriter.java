@@ -0,0 +1,367 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.text.TextUtils;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.wolfgoes.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Database stage of the sync: stores the forecasts downloaded by the sync engine as they come.
+ * Each location's days are compared with what is already stored, and only new, changed and
+ * dropped days are written, so a forecast which did not change leaves the database and its
+ * observers untouched.
+ * <p/>
+ * The writes are sent as {@link ContentResolver#applyBatch} calls, each committed in a single
+ * transaction which observers hear about once.  A sync usually fits in one batch; a larger one
+ * is committed every {@link #MAX_BATCH_OPERATIONS} operations or so, between two locations, so
+ * its rows are not all held in memory.  The removal of past days ends the last batch.
+ * <p/>
+ * The hours of a location, when they were fetched, replace all those stored for it.  They are
+ * not compared: the 3 hour forecast moves on with every download.
+ */
+class ForecastWriter {
+    private static final String LOG_TAG = ForecastWriter.class.getSimpleName();
+
+    static final int MAX_BATCH_OPERATIONS = 500;
+
+    // What the writer needs to know about a location already in the database
+    private static class StoredLocation {
+        long id;
+        long lastSynced;
+        double volatility;
+
+        // Time since the forecast was downloaded, 0 if unknown
+        long getSyncAge(long now) {
+            return lastSynced > 0 ? now - lastSynced : 0;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final FreshnessPolicy mFreshnessPolicy;
+    private final SyncResult mSyncResult;
+    private final SyncMetrics mMetrics;
+
+    private final Map<String, StoredLocation> mStoredLocations;
+    private final long mSyncedAt = System.currentTimeMillis();
+    private final Time mDayTime;
+    private final int mJulianStartDay;
+
+    private final ArrayList<ContentProviderOperation> mOperations = new ArrayList<>();
+    // Rows written and left alone by the pending operations
+    private int mInserts;
+    private int mUpdates;
+    private int mUnchanged;
+
+    // Highest volatility among the locations synced, -1 if none could be measured
+    private double mVolatility = -1;
+
+    ForecastWriter(ContentResolver resolver, FreshnessPolicy freshnessPolicy, SyncResult syncResult,
+                   SyncMetrics metrics) {
+        mResolver = resolver;
+        mFreshnessPolicy = freshnessPolicy;
+        mSyncResult = syncResult;
+        mMetrics = metrics;
+        mStoredLocations = getStoredLocations();
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // now we work exclusively in UTC
+        mDayTime = new Time();
+    }
+
+    /**
+     * @return the highest volatility among the locations stored, or -1 if none was measured.
+     */
+    double getVolatility() {
+        return mVolatility;
+    }
+
+    /**
+     * Prepares the writes for one downloaded forecast, committing the pending ones first if
+     * there are too many.
+     */
+    void add(ForecastSyncEngine.Result result) {
+        long start = System.nanoTime();
+        if (mOperations.size() >= MAX_BATCH_OPERATIONS) {
+            commit();
+        }
+
+        StoredLocation storedLocation = mStoredLocations.get(result.locationSetting);
+
+        if (result.status == ForecastSyncEngine.STATUS_NOT_MODIFIED && storedLocation != null) {
+            // The stored forecast is still the current one, which starts today, and none of
+            // its days changed
+            double locationVolatility = AdaptiveSyncScheduler.updateVolatility(
+                    storedLocation.volatility, 0, 1, storedLocation.getSyncAge(mSyncedAt));
+            mVolatility = Math.max(mVolatility, locationVolatility);
+
+            ContentValues freshness = new ContentValues();
+            freshness.put(WeatherContract.LocationEntry.COLUMN_LAST_SYNCED, mSyncedAt);
+            freshness.put(WeatherContract.LocationEntry.COLUMN_EXPIRES_AT,
+                    mFreshnessPolicy.getExpiresAt(mSyncedAt));
+            freshness.put(WeatherContract.LocationEntry.COLUMN_VOLATILITY, locationVolatility);
+            mOperations.add(ContentProviderOperation
+                    .newUpdate(WeatherContract.LocationEntry.SYNC_STATE_URI)
+                    .withValues(freshness)
+                    .withSelection(WeatherContract.LocationEntry._ID + " = ?",
+                            new String[]{Long.toString(storedLocation.id)})
+                    .build());
+            addHours(result, storedLocation.id, -1);
+        } else if (result.status == ForecastSyncEngine.STATUS_OK) {
+            addForecast(result, storedLocation);
+        }
+        mMetrics.addDbWrite(System.nanoTime() - start);
+    }
+
+    private void addForecast(ForecastSyncEngine.Result result, StoredLocation storedLocation) {
+        // What the server told us about the location: its city id, the validators of the
+        // forecast being stored and how long that forecast is valid.  They are only saved
+        // along with that forecast, through the sync state uri so that a forecast which did not
+        // change notifies nobody.
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, result.cityId);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_ETAG, result.etag);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED, result.lastModified);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LAST_SYNCED, mSyncedAt);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_EXPIRES_AT, result.days.isEmpty()
+                ? mSyncedAt : mFreshnessPolicy.getExpiresAt(mSyncedAt));
+
+        long locationId = -1;
+        int locationOperation = -1;
+        if (storedLocation == null) {
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, result.locationSetting);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, result.cityName);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, result.lat);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, result.lon);
+
+            // Upsert, in case the location was added since we read the table.  The weather
+            // rows below pick the location id from this operation's result.
+            locationOperation = mOperations.size();
+            mOperations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.LocationEntry.UPSERT_URI)
+                    .withValues(locationValues)
+                    .build());
+        } else {
+            locationId = storedLocation.id;
+        }
+
+        List<ContentValues> incoming = new ArrayList<>(result.days.size());
+        for (DayForecast day : result.days) {
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            long dateTime = mDayTime.setJulianDay(mJulianStartDay + day.dayIndex);
+            incoming.add(day.toContentValues(locationId, dateTime));
+        }
+
+        Cursor stored = null;
+        if (locationId != -1) {
+            stored = mResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                    ForecastDiff.PROJECTION,
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                    new String[]{Long.toString(locationId)},
+                    null);
+        }
+        ForecastDiff diff = ForecastDiff.compute(stored, incoming);
+        if (stored != null) {
+            stored.close();
+        }
+
+        if (storedLocation != null) {
+            double locationVolatility = AdaptiveSyncScheduler.updateVolatility(
+                    storedLocation.volatility, diff.updates.size(),
+                    diff.updates.size() + diff.unchanged, storedLocation.getSyncAge(mSyncedAt));
+            mVolatility = Math.max(mVolatility, locationVolatility);
+
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_VOLATILITY, locationVolatility);
+            mOperations.add(ContentProviderOperation
+                    .newUpdate(WeatherContract.LocationEntry.SYNC_STATE_URI)
+                    .withValues(locationValues)
+                    .withSelection(WeatherContract.LocationEntry._ID + " = ?",
+                            new String[]{Long.toString(locationId)})
+                    .build());
+        }
+
+        for (ContentValues values : diff.inserts) {
+            ContentProviderOperation.Builder insert = ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(values);
+            if (locationOperation != -1) {
+                insert.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        locationOperation);
+            }
+            mOperations.add(insert.build());
+        }
+        for (Map.Entry<Long, ContentValues> update : diff.updates.entrySet()) {
+            mOperations.add(ContentProviderOperation
+                    .newUpdate(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(update.getValue())
+                    .withSelection(WeatherContract.WeatherEntry._ID + " = ?",
+                            new String[]{Long.toString(update.getKey())})
+                    .build());
+        }
+        if (!diff.deletes.isEmpty()) {
+            mOperations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withSelection(WeatherContract.WeatherEntry._ID + " IN (" +
+                            TextUtils.join(",", diff.deletes) + ")", null)
+                    .build());
+        }
+
+        mInserts += diff.inserts.size();
+        mUpdates += diff.updates.size();
+        mUnchanged += diff.unchanged;
+
+        addHours(result, locationId, locationOperation);
+
+        Log.d(LOG_TAG, result.locationSetting + ": " + diff.inserts.size() + " new, " +
+                diff.updates.size() + " changed, " + diff.deletes.size() + " dropped, " +
+                diff.unchanged + " unchanged.");
+    }
+
+    /**
+     * Replaces the stored hours of a location with those just fetched, if any.
+     *
+     * @param locationId        Id of the location, or -1 if it is inserted by the batch.
+     * @param locationOperation Index of the operation inserting the location, or -1.
+     */
+    private void addHours(ForecastSyncEngine.Result result, long locationId, int locationOperation) {
+        if (result.hours == null) {
+            return;
+        }
+
+        if (locationId != -1) {
+            // All the hours of the location sit in one range of row ids
+            mOperations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.HourlyEntry.CONTENT_URI)
+                    .withSelection(WeatherContract.HourlyEntry._ID + " >= ? AND " +
+                                    WeatherContract.HourlyEntry._ID + " < ?",
+                            new String[]{
+                                    Long.toString(WeatherContract.HourlyEntry.buildKey(locationId, 0)),
+                                    Long.toString(WeatherContract.HourlyEntry.buildKey(locationId + 1, 0))})
+                    .build());
+        }
+        for (HourForecast hour : result.hours) {
+            ContentProviderOperation.Builder insert = ContentProviderOperation
+                    .newInsert(WeatherContract.HourlyEntry.CONTENT_URI)
+                    .withValues(hour.toContentValues(locationId));
+            if (locationOperation != -1) {
+                insert.withValueBackReference(WeatherContract.HourlyEntry.COLUMN_LOC_KEY,
+                        locationOperation);
+            }
+            mOperations.add(insert.build());
+        }
+        mInserts += result.hours.size();
+    }
+
+    /**
+     * Commits the pending writes along with the removal of the days and hours gone by, in the
+     * same transaction.
+     */
+    void finish() {
+        // delete old data so we don't build up an endless history
+        mOperations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(mDayTime.setJulianDay(mJulianStartDay - 1))})
+                .build());
+        mOperations.add(ContentProviderOperation
+                .newDelete(WeatherContract.HourlyEntry.CONTENT_URI)
+                .withSelection(WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR + " < ?",
+                        new String[]{Long.toString(WeatherContract.HourlyEntry.getEpochHour(mSyncedAt))})
+                .build());
+
+        // The last batch mostly holds forecasts, so it is a database write like the others
+        long start = System.nanoTime();
+        commit();
+        mMetrics.addDbWrite(System.nanoTime() - start);
+    }
+
+    private void commit() {
+        if (mOperations.isEmpty()) {
+            return;
+        }
+
+        try {
+            ContentProviderResult[] applied =
+                    mResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, mOperations);
+
+            int deletes = 0;
+            for (int i = 0; i < applied.length; i++) {
+                if (mOperations.get(i).getType() == ContentProviderOperation.TYPE_DELETE) {
+                    deletes += applied[i].count;
+                }
+            }
+            mSyncResult.stats.numInserts += mInserts;
+            mSyncResult.stats.numUpdates += mUpdates;
+            mSyncResult.stats.numDeletes += deletes;
+            mSyncResult.stats.numSkippedEntries += mUnchanged;
+
+            Log.d(LOG_TAG, "Batch committed. " + (mInserts + mUpdates + deletes) +
+                    " rows changed, " + mUnchanged + " rows unchanged.");
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error storing forecasts", e);
+            mSyncResult.databaseError = true;
+        }
+
+        mOperations.clear();
+        mInserts = 0;
+        mUpdates = 0;
+        mUnchanged = 0;
+    }
+
+    /**
+     * Reads the locations already in the database, keyed by location setting.
+     */
+    private Map<String, StoredLocation> getStoredLocations() {
+        Map<String, StoredLocation> locations = new HashMap<>();
+
+        Cursor locationCursor = mResolver.query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LAST_SYNCED,
+                        WeatherContract.LocationEntry.COLUMN_VOLATILITY},
+                null,
+                null,
+                null
+        );
+
+        if (locationCursor != null) {
+            while (locationCursor.moveToNext()) {
+                StoredLocation location = new StoredLocation();
+                location.id = locationCursor.getLong(1);
+                location.lastSynced = locationCursor.getLong(2);
+                location.volatility = locationCursor.getDouble(3);
+                locations.put(locationCursor.getString(0), location);
+            }
+            locationCursor.close();
+        }
+
+        return locations;
+    }
+}
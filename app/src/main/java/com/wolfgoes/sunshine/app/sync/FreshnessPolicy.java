@@ -0,0 +1,56 @@
+package com.wolfgoes.sunshine.app.sync;
+
+/**
+ * Decides how long a downloaded forecast stays valid, so a sync can skip the locations whose
+ * forecast was confirmed recently.
+ * <p/>
+ * A forecast is stored and expires as a whole, and every forecast holds today, whose values
+ * change the most between two downloads: the time to live is the one today's forecast needs.
+ */
+class FreshnessPolicy {
+
+    static final long DEFAULT_TTL_MILLIS = 1000 * 60 * 60;
+
+    // The current conditions are refreshed on their own, much more often than any forecast day
+    static final long CURRENT_TTL_MILLIS = 1000 * 60 * 10;
+
+    private final long mTtlMillis;
+
+    FreshnessPolicy() {
+        this(DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param ttlMillis How long a forecast is valid.
+     */
+    FreshnessPolicy(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("Invalid time to live: " + ttlMillis);
+        }
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * @param syncedAt When the forecast was downloaded or confirmed by the server.
+     * @return until when the forecast is valid.
+     */
+    long getExpiresAt(long syncedAt) {
+        return syncedAt + mTtlMillis;
+    }
+
+    /**
+     * @param syncedAt When the current conditions were downloaded.
+     * @return until when the current conditions are valid.
+     */
+    static long getCurrentExpiresAt(long syncedAt) {
+        return syncedAt + CURRENT_TTL_MILLIS;
+    }
+
+    /**
+     * @return whether a forecast synced and expiring at the given times is still valid.  A sync
+     * time in the future means the clock was moved back, so the forecast is not trusted.
+     */
+    static boolean isFresh(long lastSynced, long expiresAt, long now) {
+        return lastSynced > 0 && lastSynced <= now && now < expiresAt;
+    }
+}
@@ -0,0 +1,40 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import com.wolfgoes.sunshine.app.data.WeatherContract;
+
+/**
+ * A point of the 3 hour forecast as decoded from the OpenWeatherMap response.
+ */
+class HourForecast {
+    // Time of the forecast, in milliseconds since the epoch
+    long time;
+
+    double temperature;
+    double pressure;
+    int humidity;
+    double windSpeed;
+    double windDirection;
+
+    int weatherId;
+
+    ContentValues toContentValues(long locationId) {
+        ContentValues hourValues = new ContentValues();
+
+        hourValues.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, locationId);
+        hourValues.put(WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR,
+                WeatherContract.HourlyEntry.getEpochHour(time));
+        hourValues.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, weatherId);
+        hourValues.put(WeatherContract.HourlyEntry.COLUMN_TEMP,
+                WeatherContract.HourlyEntry.encode(temperature));
+        hourValues.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+                WeatherContract.HourlyEntry.encode(pressure));
+        hourValues.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+                WeatherContract.HourlyEntry.encode(windSpeed));
+        hourValues.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, humidity);
+        hourValues.put(WeatherContract.HourlyEntry.COLUMN_DEGREES, (int) Math.round(windDirection));
+
+        return hourValues;
+    }
+}
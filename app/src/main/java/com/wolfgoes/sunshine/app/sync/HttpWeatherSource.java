@@ -0,0 +1,270 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.net.Uri;
+
+import com.wolfgoes.sunshine.app.BuildConfig;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Issues the forecast request to OpenWeatherMap.  When the validators of a previous download
+ * are known, the request is made conditional so an unchanged forecast costs a 304 with no body.
+ * Responses may come gzip or deflate compressed, and are decompressed as they are read.
+ */
+class HttpWeatherSource implements WeatherSource {
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    private static final String QUERY_PARAM = "q";
+    private static final String ID_PARAM = "id";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String mBaseUrl;
+    private final String mGroupUrl;
+    private final String mHourlyUrl;
+    private final String mCurrentUrl;
+    private final String mApiKey;
+
+    HttpWeatherSource() {
+        this(BuildConfig.FORECAST_BASE_URL, BuildConfig.FORECAST_GROUP_URL,
+                BuildConfig.FORECAST_HOURLY_URL, BuildConfig.CURRENT_WEATHER_URL,
+                BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+    }
+
+    HttpWeatherSource(String baseUrl, String apiKey) {
+        this(baseUrl, null, apiKey);
+    }
+
+    /**
+     * @param groupUrl Endpoint answering the forecast of several cities in one call, or null
+     *                 when there is none.
+     */
+    HttpWeatherSource(String baseUrl, String groupUrl, String apiKey) {
+        this(baseUrl, groupUrl, null, apiKey);
+    }
+
+    /**
+     * @param groupUrl  Endpoint answering the forecast of several cities in one call, or null
+     *                  when there is none.
+     * @param hourlyUrl Endpoint answering the 3 hour forecast of a city, or null when it is not
+     *                  wanted.
+     */
+    HttpWeatherSource(String baseUrl, String groupUrl, String hourlyUrl, String apiKey) {
+        this(baseUrl, groupUrl, hourlyUrl, null, apiKey);
+    }
+
+    /**
+     * @param groupUrl   Endpoint answering the forecast of several cities in one call, or null
+     *                   when there is none.
+     * @param hourlyUrl  Endpoint answering the 3 hour forecast of a city, or null when it is not
+     *                   wanted.
+     * @param currentUrl Endpoint answering the weather right now at a city, or null when it is
+     *                   not wanted.
+     */
+    HttpWeatherSource(String baseUrl, String groupUrl, String hourlyUrl, String currentUrl, String apiKey) {
+        mBaseUrl = baseUrl;
+        mGroupUrl = groupUrl;
+        mHourlyUrl = hourlyUrl;
+        mCurrentUrl = currentUrl;
+        mApiKey = apiKey;
+    }
+
+    @Override
+    public String getHost() {
+        return Uri.parse(mBaseUrl).getHost();
+    }
+
+    @Override
+    public boolean supportsGroups() {
+        return mGroupUrl != null;
+    }
+
+    @Override
+    public boolean supportsHourly() {
+        return mHourlyUrl != null;
+    }
+
+    @Override
+    public boolean supportsCurrent() {
+        return mCurrentUrl != null;
+    }
+
+    Uri buildForecastUri(String locationSetting) {
+        return Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .appendQueryParameter(APPID_PARAM, mApiKey)
+                .build();
+    }
+
+    Uri buildGroupUri(long[] cityIds) {
+        StringBuilder ids = new StringBuilder();
+        for (long cityId : cityIds) {
+            if (ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(cityId);
+        }
+        return Uri.parse(mGroupUrl).buildUpon()
+                .appendQueryParameter(ID_PARAM, ids.toString())
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .appendQueryParameter(APPID_PARAM, mApiKey)
+                .build();
+    }
+
+    Uri buildHourlyUri(String locationSetting) {
+        // The 3 hour forecast always covers 5 days, there is no count to ask for
+        return Uri.parse(mHourlyUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(APPID_PARAM, mApiKey)
+                .build();
+    }
+
+    Uri buildCurrentUri(String locationSetting) {
+        return Uri.parse(mCurrentUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(APPID_PARAM, mApiKey)
+                .build();
+    }
+
+    @Override
+    public WeatherResponse fetch(String locationSetting, String etag, String lastModified, boolean force)
+            throws IOException {
+        return open(buildForecastUri(locationSetting), etag, lastModified);
+    }
+
+    @Override
+    public WeatherResponse fetchGroup(long[] cityIds) throws IOException {
+        return open(buildGroupUri(cityIds), null, null);
+    }
+
+    @Override
+    public WeatherResponse fetchHourly(String locationSetting) throws IOException {
+        return open(buildHourlyUri(locationSetting), null, null);
+    }
+
+    @Override
+    public WeatherResponse fetchCurrent(String locationSetting) throws IOException {
+        return open(buildCurrentUri(locationSetting), null, null);
+    }
+
+    private WeatherResponse open(Uri uri, String etag, String lastModified) throws IOException {
+        URL url = new URL(uri.toString());
+
+        // Create the request to OpenWeatherMap, and open the connection
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        try {
+            urlConnection.setRequestMethod("GET");
+            // Asking explicitly also stops HttpURLConnection from decompressing on its own, which
+            // it only does for gzip and without telling how many bytes went over the wire.
+            urlConnection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+            if (etag != null) {
+                urlConnection.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            long start = System.nanoTime();
+            urlConnection.connect();
+            long connected = System.nanoTime();
+            int statusCode = urlConnection.getResponseCode();
+
+            return new HttpResponse(urlConnection, statusCode,
+                    connected - start, System.nanoTime() - connected);
+        } catch (IOException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps a response body so it reads decompressed according to its Content-Encoding.
+     */
+    static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        if (contentEncoding == null || "identity".equalsIgnoreCase(contentEncoding)) {
+            return in;
+        } else if ("gzip".equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        } else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+            // "deflate" should be zlib wrapped, but some servers send a bare deflate stream.
+            // Tell them apart by the zlib header.
+            BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+            buffered.mark(2);
+            int cmf = buffered.read();
+            int flg = buffered.read();
+            buffered.reset();
+            boolean zlib = cmf != -1 && flg != -1 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+
+            final Inflater inflater = new Inflater(!zlib);
+            return new InflaterInputStream(buffered, inflater, BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    // A custom inflater is not released by the stream
+                    inflater.end();
+                }
+            };
+        }
+        throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+    }
+
+    private static class HttpResponse extends WeatherResponse {
+        private final HttpURLConnection mConnection;
+        private MeteredInputStream mWireStream;
+
+        HttpResponse(HttpURLConnection connection, int statusCode, long connectNanos, long firstByteNanos) {
+            super(statusCode, connectNanos, firstByteNanos);
+            mConnection = connection;
+        }
+
+        @Override
+        String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        InputStream getInputStream() throws IOException {
+            String contentEncoding = getHeader("Content-Encoding");
+            if (contentEncoding == null) {
+                return mConnection.getInputStream();
+            }
+            mWireStream = new MeteredInputStream(mConnection.getInputStream());
+            return decode(mWireStream, contentEncoding);
+        }
+
+        @Override
+        long getWireBytes() {
+            return mWireStream == null ? -1 : mWireStream.getBytes();
+        }
+
+        @Override
+        void disconnect() {
+            mConnection.disconnect();
+        }
+    }
+}
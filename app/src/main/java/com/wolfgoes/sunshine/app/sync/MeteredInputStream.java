@@ -0,0 +1,57 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a stream and the time spent waiting for them, so the download of a
+ * streamed response can be told apart from the parsing done while reading it.
+ */
+class MeteredInputStream extends FilterInputStream {
+    private long mBytes;
+    private long mReadNanos;
+
+    MeteredInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int b = super.read();
+        mReadNanos += System.nanoTime() - start;
+        if (b != -1) {
+            mBytes++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        long start = System.nanoTime();
+        int read = super.read(buffer, offset, count);
+        mReadNanos += System.nanoTime() - start;
+        if (read > 0) {
+            mBytes += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long start = System.nanoTime();
+        long skipped = super.skip(count);
+        mReadNanos += System.nanoTime() - start;
+        mBytes += skipped;
+        return skipped;
+    }
+
+    long getBytes() {
+        return mBytes;
+    }
+
+    long getReadNanos() {
+        return mReadNanos;
+    }
+}
@@ -0,0 +1,103 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.v4.util.LruCache;
+
+import com.wolfgoes.sunshine.app.Utility;
+
+/**
+ * Large icons of the weather notification, decoded once per condition at the size the
+ * notification shows them.  The art drawables are several times that size, so decoding them in
+ * full on every notification allocated a large bitmap only to have it scaled down.
+ */
+class NotificationIconCache {
+
+    // Enough for every condition art
+    static final int MAX_ICONS = 10;
+
+    private static NotificationIconCache sInstance;
+
+    private final Resources mResources;
+    private final int mWidth;
+    private final int mHeight;
+
+    // Icons by art resource id, several conditions share the same art
+    private final LruCache<Integer, Bitmap> mIcons = new LruCache<>(MAX_ICONS);
+
+    static synchronized NotificationIconCache getInstance(Context context) {
+        if (sInstance == null) {
+            Resources resources = context.getApplicationContext().getResources();
+            sInstance = new NotificationIconCache(resources,
+                    resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width),
+                    resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param width  Width the icons are shown at, in pixels.
+     * @param height Height the icons are shown at, in pixels.
+     */
+    NotificationIconCache(Resources resources, int width, int height) {
+        mResources = resources;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    int getHitCount() {
+        return mIcons.hitCount();
+    }
+
+    int getMissCount() {
+        return mIcons.missCount();
+    }
+
+    /**
+     * @param weatherId Weather id as returned by the API.
+     * @return the large icon of that condition, or null if there is none.
+     */
+    Bitmap getIcon(int weatherId) {
+        int artId = Utility.getArtResourceForWeatherCondition(weatherId);
+        if (artId == -1) {
+            return null;
+        }
+
+        Bitmap icon = mIcons.get(artId);
+        if (icon == null) {
+            icon = decode(artId);
+            if (icon != null) {
+                mIcons.put(artId, icon);
+            }
+        }
+        return icon;
+    }
+
+    private Bitmap decode(int artId) {
+        // Read the size first, then decode only as many pixels as the notification shows
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(mResources, artId, options);
+
+        options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, mWidth, mHeight);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeResource(mResources, artId, options);
+    }
+
+    /**
+     * @return the largest power of two the image can be divided by while staying at least as
+     * large as requested.
+     */
+    static int computeSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
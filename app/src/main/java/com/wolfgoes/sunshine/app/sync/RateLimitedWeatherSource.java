@@ -0,0 +1,119 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Sends the requests of another source through a {@link RateLimiter}.  A request the limiter
+ * holds back never reaches the network: it is answered right away with a 429 Too Many Requests
+ * whose Retry-After tells when to try again, just like the server would.  The 429 answers of the
+ * server itself are reported to the limiter.
+ */
+class RateLimitedWeatherSource implements WeatherSource {
+
+    private final WeatherSource mSource;
+    private final RateLimiter mLimiter;
+
+    RateLimitedWeatherSource(WeatherSource source, RateLimiter limiter) {
+        mSource = source;
+        mLimiter = limiter;
+    }
+
+    @Override
+    public String getHost() {
+        return mSource.getHost();
+    }
+
+    @Override
+    public boolean supportsGroups() {
+        return mSource.supportsGroups();
+    }
+
+    @Override
+    public WeatherResponse fetch(String locationSetting, String etag, String lastModified, boolean force)
+            throws IOException {
+        long retryAt = mLimiter.tryAcquire(System.currentTimeMillis());
+        if (retryAt != 0) {
+            return new ThrottledResponse(retryAt);
+        }
+        return checkRateLimited(mSource.fetch(locationSetting, etag, lastModified, force));
+    }
+
+    @Override
+    public WeatherResponse fetchGroup(long[] cityIds) throws IOException {
+        long retryAt = mLimiter.tryAcquire(System.currentTimeMillis());
+        if (retryAt != 0) {
+            return new ThrottledResponse(retryAt);
+        }
+        return checkRateLimited(mSource.fetchGroup(cityIds));
+    }
+
+    @Override
+    public boolean supportsHourly() {
+        return mSource.supportsHourly();
+    }
+
+    @Override
+    public WeatherResponse fetchHourly(String locationSetting) throws IOException {
+        long retryAt = mLimiter.tryAcquire(System.currentTimeMillis());
+        if (retryAt != 0) {
+            return new ThrottledResponse(retryAt);
+        }
+        return checkRateLimited(mSource.fetchHourly(locationSetting));
+    }
+
+    @Override
+    public boolean supportsCurrent() {
+        return mSource.supportsCurrent();
+    }
+
+    @Override
+    public WeatherResponse fetchCurrent(String locationSetting) throws IOException {
+        long retryAt = mLimiter.tryAcquire(System.currentTimeMillis());
+        if (retryAt != 0) {
+            return new ThrottledResponse(retryAt);
+        }
+        return checkRateLimited(mSource.fetchCurrent(locationSetting));
+    }
+
+    private WeatherResponse checkRateLimited(WeatherResponse response) {
+        if (response.statusCode == WeatherResponse.HTTP_TOO_MANY_REQUESTS) {
+            long now = System.currentTimeMillis();
+            mLimiter.onRateLimited(now, response.getRetryAt(now));
+        }
+        return response;
+    }
+
+    private static class ThrottledResponse extends WeatherResponse {
+        private final long mRetryAt;
+
+        ThrottledResponse(long retryAt) {
+            super(HTTP_TOO_MANY_REQUESTS, 0, 0);
+            mRetryAt = retryAt;
+        }
+
+        @Override
+        String getHeader(String name) {
+            if ("Retry-After".equalsIgnoreCase(name)) {
+                long seconds = (mRetryAt - System.currentTimeMillis() + 999) / 1000;
+                return Long.toString(Math.max(0, seconds));
+            }
+            return null;
+        }
+
+        @Override
+        InputStream getInputStream() throws IOException {
+            throw new IOException("Request not sent");
+        }
+
+        @Override
+        long getWireBytes() {
+            // Nothing went over the network
+            return 0;
+        }
+
+        @Override
+        void disconnect() {
+        }
+    }
+}
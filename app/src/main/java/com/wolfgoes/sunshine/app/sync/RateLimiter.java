@@ -0,0 +1,156 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Token bucket keeping this install within its share of the API key's request quota.
+ * <p/>
+ * Every request takes a token; tokens come back at a steady rate up to the bucket capacity,
+ * which allows short bursts such as a sync of several locations.  When the server answers
+ * 429 Too Many Requests, no token is handed out until the time it asked for.  The state is kept
+ * in {@link SharedPreferences}, so restarting the process does not refill the bucket.
+ */
+class RateLimiter {
+
+    static final int DEFAULT_CAPACITY = 20;
+    static final long DEFAULT_REFILL_MILLIS = 1000 * 60 * 3;
+
+    // Longest wait accepted from a Retry-After header, in case the server sends nonsense
+    static final long MAX_BLOCK_MILLIS = 1000 * 60 * 60 * 24;
+
+    // Preferences file holding the state of the process wide limiter
+    private static final String PREFS_NAME = "rate_limiter";
+
+    private static final String KEY_TOKENS = "tokens";
+    private static final String KEY_UPDATED_AT = "updated_at";
+    private static final String KEY_BLOCKED_UNTIL = "blocked_until";
+    private static final String KEY_GRANTED = "granted";
+    private static final String KEY_THROTTLED = "throttled";
+    private static final String KEY_RATE_LIMITED = "rate_limited";
+
+    private static RateLimiter sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final int mCapacity;
+    private final long mRefillMillis;
+
+    private double mTokens;
+    private long mUpdatedAt;
+    private long mBlockedUntil;
+
+    // Requests let through, requests held back here, and 429 answers received
+    private long mGranted;
+    private long mThrottled;
+    private long mRateLimited;
+
+    /**
+     * @return the limiter shared by every request of the app to OpenWeatherMap.
+     */
+    static synchronized RateLimiter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RateLimiter(context.getApplicationContext()
+                    .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE),
+                    DEFAULT_CAPACITY, DEFAULT_REFILL_MILLIS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param prefs        Where the state of the bucket is kept.
+     * @param capacity     Most tokens the bucket holds.
+     * @param refillMillis Time for one token to come back.
+     */
+    RateLimiter(SharedPreferences prefs, int capacity, long refillMillis) {
+        mPrefs = prefs;
+        mCapacity = capacity;
+        mRefillMillis = refillMillis;
+
+        mTokens = prefs.getFloat(KEY_TOKENS, capacity);
+        mUpdatedAt = prefs.getLong(KEY_UPDATED_AT, 0);
+        mBlockedUntil = prefs.getLong(KEY_BLOCKED_UNTIL, 0);
+        mGranted = prefs.getLong(KEY_GRANTED, 0);
+        mThrottled = prefs.getLong(KEY_THROTTLED, 0);
+        mRateLimited = prefs.getLong(KEY_RATE_LIMITED, 0);
+    }
+
+    /**
+     * Takes a token for a request about to be made.
+     *
+     * @return 0 if the request may go, otherwise when it may be made, in milliseconds since the
+     * epoch.
+     */
+    synchronized long tryAcquire(long now) {
+        refill(now);
+
+        long retryAt;
+        if (now < mBlockedUntil) {
+            retryAt = mBlockedUntil;
+        } else if (mTokens >= 1) {
+            mTokens--;
+            mGranted++;
+            retryAt = 0;
+        } else {
+            retryAt = now + (long) Math.ceil((1 - mTokens) * mRefillMillis);
+        }
+        if (retryAt != 0) {
+            mThrottled++;
+        }
+        save();
+        return retryAt;
+    }
+
+    /**
+     * Records a 429 answer: nothing is let through until {@code retryAt}, and the bucket is
+     * emptied so requests resume slowly afterwards.
+     *
+     * @param retryAt When the server accepts requests again, or 0 if it did not say.
+     */
+    synchronized void onRateLimited(long now, long retryAt) {
+        refill(now);
+        if (retryAt <= now) {
+            // No hint from the server, wait for a token to come back
+            retryAt = now + mRefillMillis;
+        }
+        mBlockedUntil = Math.max(mBlockedUntil, Math.min(retryAt, now + MAX_BLOCK_MILLIS));
+        mTokens = 0;
+        mRateLimited++;
+        save();
+    }
+
+    synchronized long getGrantedCount() {
+        return mGranted;
+    }
+
+    synchronized long getThrottledCount() {
+        return mThrottled;
+    }
+
+    synchronized long getRateLimitedCount() {
+        return mRateLimited;
+    }
+
+    private void refill(long now) {
+        if (now > mUpdatedAt) {
+            if (mUpdatedAt > 0) {
+                mTokens = Math.min(mCapacity, mTokens + (double) (now - mUpdatedAt) / mRefillMillis);
+            }
+        } else if (now < mUpdatedAt) {
+            // The clock was moved back: keep the tokens, and don't stay blocked for longer than
+            // the server could have asked
+            mBlockedUntil = Math.min(mBlockedUntil, now + MAX_BLOCK_MILLIS);
+        }
+        mUpdatedAt = now;
+    }
+
+    private void save() {
+        mPrefs.edit()
+                .putFloat(KEY_TOKENS, (float) mTokens)
+                .putLong(KEY_UPDATED_AT, mUpdatedAt)
+                .putLong(KEY_BLOCKED_UNTIL, mBlockedUntil)
+                .putLong(KEY_GRANTED, mGranted)
+                .putLong(KEY_THROTTLED, mThrottled)
+                .putLong(KEY_RATE_LIMITED, mRateLimited)
+                .apply();
+    }
+}
@@ -0,0 +1,125 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * Wraps another source and saves a copy of every forecast it serves, under the name
+ * {@link ReplayWeatherSource} looks for, so real payloads can be replayed in later runs.
+ * A payload is only kept once its body was parsed, see {@link WeatherResponse#commit()}.
+ */
+class RecordingWeatherSource implements WeatherSource {
+
+    private final WeatherSource mSource;
+    private final File mDirectory;
+
+    RecordingWeatherSource(WeatherSource source, File directory) {
+        mSource = source;
+        mDirectory = directory;
+    }
+
+    @Override
+    public String getHost() {
+        return mSource.getHost();
+    }
+
+    @Override
+    public boolean supportsGroups() {
+        return mSource.supportsGroups();
+    }
+
+    @Override
+    public WeatherResponse fetch(String locationSetting, String etag, String lastModified, boolean force)
+            throws IOException {
+        WeatherResponse response = mSource.fetch(locationSetting, etag, lastModified, force);
+        if (response.statusCode != HttpURLConnection.HTTP_OK) {
+            return response;
+        }
+        return new RecordedResponse(response,
+                new File(mDirectory, ReplayWeatherSource.getPayloadName(locationSetting)));
+    }
+
+    @Override
+    public WeatherResponse fetchGroup(long[] cityIds) throws IOException {
+        WeatherResponse response = mSource.fetchGroup(cityIds);
+        if (response.statusCode != HttpURLConnection.HTTP_OK) {
+            return response;
+        }
+        return new RecordedResponse(response,
+                new File(mDirectory, ReplayWeatherSource.getGroupPayloadName(cityIds)));
+    }
+
+    @Override
+    public boolean supportsHourly() {
+        return mSource.supportsHourly();
+    }
+
+    @Override
+    public WeatherResponse fetchHourly(String locationSetting) throws IOException {
+        WeatherResponse response = mSource.fetchHourly(locationSetting);
+        if (response.statusCode != HttpURLConnection.HTTP_OK) {
+            return response;
+        }
+        return new RecordedResponse(response,
+                new File(mDirectory, ReplayWeatherSource.getHourlyPayloadName(locationSetting)));
+    }
+
+    @Override
+    public boolean supportsCurrent() {
+        return mSource.supportsCurrent();
+    }
+
+    @Override
+    public WeatherResponse fetchCurrent(String locationSetting) throws IOException {
+        WeatherResponse response = mSource.fetchCurrent(locationSetting);
+        if (response.statusCode != HttpURLConnection.HTTP_OK) {
+            return response;
+        }
+        return new RecordedResponse(response,
+                new File(mDirectory, ReplayWeatherSource.getCurrentPayloadName(locationSetting)));
+    }
+
+    private static class RecordedResponse extends WeatherResponse {
+        private final WeatherResponse mResponse;
+        private final File mFile;
+        private TeeInputStream mInputStream;
+
+        RecordedResponse(WeatherResponse response, File file) {
+            super(response.statusCode, response.connectNanos, response.firstByteNanos);
+            mResponse = response;
+            mFile = file;
+        }
+
+        @Override
+        String getHeader(String name) {
+            return mResponse.getHeader(name);
+        }
+
+        @Override
+        InputStream getInputStream() throws IOException {
+            if (mInputStream == null) {
+                mInputStream = new TeeInputStream(mResponse.getInputStream(), mFile, null);
+            }
+            return mInputStream;
+        }
+
+        @Override
+        long getWireBytes() {
+            return mResponse.getWireBytes();
+        }
+
+        @Override
+        void commit() throws IOException {
+            if (mInputStream != null) {
+                mInputStream.commit();
+            }
+        }
+
+        @Override
+        void disconnect() {
+            mResponse.disconnect();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.content.res.AssetManager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves forecasts recorded earlier (see {@link RecordingWeatherSource}) instead of asking a
+ * server, so the sync can be benchmarked without a network.  Responses can be slowed down to a
+ * given latency and throughput to stand in for a real connection.
+ * <p/>
+ * The forecast of a location is the payload named after it by {@link #getPayloadName(String)},
+ * its hourly forecast the one named by {@link #getHourlyPayloadName(String)} and its current
+ * conditions the one named by {@link #getCurrentPayloadName(String)}.  A group request is
+ * answered with the payload named by {@link #getGroupPayloadName(long[])}, though groups are
+ * not offered to the sync: a recording only holds the groups of the sync it was made from.
+ * Requests without a payload get a 404, and requests are never conditional.
+ */
+class ReplayWeatherSource implements WeatherSource {
+
+    static final String HOST = "replay";
+
+    /**
+     * Where the recorded payloads are read from.
+     */
+    interface Payloads {
+        /**
+         * @throws FileNotFoundException if there is no payload with that name.
+         */
+        InputStream open(String name) throws IOException;
+    }
+
+    private final Payloads mPayloads;
+    private final long mLatencyMillis;
+    private final long mBytesPerSecond;
+
+    /**
+     * @param latencyMillis  Delay before each response, standing for the time to first byte.
+     * @param bytesPerSecond Rate at which response bodies are served, or 0 for no limit.
+     */
+    ReplayWeatherSource(Payloads payloads, long latencyMillis, long bytesPerSecond) {
+        mPayloads = payloads;
+        mLatencyMillis = latencyMillis;
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    static Payloads fromDirectory(final File directory) {
+        return new Payloads() {
+            @Override
+            public InputStream open(String name) throws IOException {
+                return new FileInputStream(new File(directory, name));
+            }
+        };
+    }
+
+    static Payloads fromAssets(final AssetManager assets, final String path) {
+        return new Payloads() {
+            @Override
+            public InputStream open(String name) throws IOException {
+                return assets.open(path + "/" + name);
+            }
+        };
+    }
+
+    /**
+     * @return the name of the payload holding the forecast of the given location.
+     */
+    static String getPayloadName(String locationSetting) {
+        return encode(locationSetting) + ".json";
+    }
+
+    /**
+     * @return the name of the payload holding the hourly forecast of the given location.
+     */
+    static String getHourlyPayloadName(String locationSetting) {
+        return encode(locationSetting) + ".hourly.json";
+    }
+
+    /**
+     * @return the name of the payload holding the current conditions at the given location.
+     */
+    static String getCurrentPayloadName(String locationSetting) {
+        return encode(locationSetting) + ".current.json";
+    }
+
+    /**
+     * @return the name of the payload holding the forecasts of the given cities, requested in
+     * that order.
+     */
+    static String getGroupPayloadName(long[] cityIds) {
+        StringBuilder name = new StringBuilder("group");
+        for (long cityId : cityIds) {
+            name.append('.').append(cityId);
+        }
+        return name.append(".json").toString();
+    }
+
+    private static String encode(String locationSetting) {
+        try {
+            return URLEncoder.encode(locationSetting, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public String getHost() {
+        return HOST;
+    }
+
+    @Override
+    public boolean supportsGroups() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsHourly() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsCurrent() {
+        return true;
+    }
+
+    @Override
+    public WeatherResponse fetch(String locationSetting, String etag, String lastModified, boolean force)
+            throws IOException {
+        return replay(getPayloadName(locationSetting));
+    }
+
+    @Override
+    public WeatherResponse fetchHourly(String locationSetting) throws IOException {
+        return replay(getHourlyPayloadName(locationSetting));
+    }
+
+    @Override
+    public WeatherResponse fetchCurrent(String locationSetting) throws IOException {
+        return replay(getCurrentPayloadName(locationSetting));
+    }
+
+    private WeatherResponse replay(String name) throws IOException {
+        long start = System.nanoTime();
+        try {
+            Thread.sleep(mLatencyMillis);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while replaying " + name);
+        }
+
+        InputStream payload;
+        int statusCode;
+        try {
+            payload = mPayloads.open(name);
+            if (mBytesPerSecond > 0) {
+                payload = new ThrottledInputStream(payload, mBytesPerSecond);
+            }
+            statusCode = HttpURLConnection.HTTP_OK;
+        } catch (FileNotFoundException e) {
+            payload = null;
+            statusCode = HttpURLConnection.HTTP_NOT_FOUND;
+        }
+        return new ReplayResponse(statusCode, System.nanoTime() - start, payload);
+    }
+
+    @Override
+    public WeatherResponse fetchGroup(long[] cityIds) throws IOException {
+        return replay(getGroupPayloadName(cityIds));
+    }
+
+    private static class ReplayResponse extends WeatherResponse {
+        private final InputStream mPayload;
+
+        ReplayResponse(int statusCode, long firstByteNanos, InputStream payload) {
+            super(statusCode, 0, firstByteNanos);
+            mPayload = payload;
+        }
+
+        @Override
+        String getHeader(String name) {
+            return null;
+        }
+
+        @Override
+        InputStream getInputStream() throws IOException {
+            if (mPayload == null) {
+                throw new FileNotFoundException("No payload");
+            }
+            return mPayload;
+        }
+
+        @Override
+        void disconnect() {
+            if (mPayload != null) {
+                try {
+                    mPayload.close();
+                } catch (IOException e) {
+                    // nothing left to release
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds reads back so that no more than the given number of bytes per second go through.
+     */
+    private static class ThrottledInputStream extends FilterInputStream {
+        private final long mBytesPerSecond;
+        private final long mStartNanos = System.nanoTime();
+        private long mBytes;
+
+        ThrottledInputStream(InputStream in, long bytesPerSecond) {
+            super(in);
+            mBytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                throttle(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                throttle(read);
+            }
+            return read;
+        }
+
+        private void throttle(int read) throws IOException {
+            mBytes += read;
+            long dueNanos = mBytes * TimeUnit.SECONDS.toNanos(1) / mBytesPerSecond;
+            long aheadNanos = dueNanos - (System.nanoTime() - mStartNanos);
+            if (aheadNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(aheadNanos);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while replaying");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import java.util.Random;
+
+/**
+ * Decides how many times a failed fetch is tried again within a sync, and how long to wait in
+ * between.  The waits grow exponentially and are jittered ("full jitter": a random delay up to
+ * the exponential ceiling), so devices failing together do not retry together.
+ */
+class RetryPolicy {
+
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+    static final long DEFAULT_BASE_DELAY_MILLIS = 1000;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 30 * 1000;
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom;
+
+    RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this(maxAttempts, baseDelayMillis, maxDelayMillis, new Random());
+    }
+
+    /**
+     * @param maxAttempts Total number of tries, the first one included.
+     */
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, Random random) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mRandom = random;
+    }
+
+    /**
+     * @param attempt Number of tries made so far, starting at 1.
+     */
+    boolean shouldRetry(FetchException e, int attempt) {
+        return attempt < mMaxAttempts && e.isTransient() && e.kind != FetchException.KIND_CIRCUIT_OPEN;
+    }
+
+    /**
+     * @param attempt Number of tries made so far, starting at 1.
+     * @return how long to wait before the next try.
+     */
+    long getDelayMillis(int attempt) {
+        long ceiling = Math.min(mMaxDelayMillis, mBaseDelayMillis << Math.min(attempt - 1, 30));
+        if (ceiling <= 0) {
+            return 0;
+        }
+        return (long) (mRandom.nextDouble() * ceiling);
+    }
+}
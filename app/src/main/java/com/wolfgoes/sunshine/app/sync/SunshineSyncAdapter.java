@@ -6,52 +6,45 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
-import com.wolfgoes.sunshine.app.BuildConfig;
 import com.wolfgoes.sunshine.app.MainActivity;
 import com.wolfgoes.sunshine.app.R;
 import com.wolfgoes.sunshine.app.Utility;
 import com.wolfgoes.sunshine.app.data.WeatherContract;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.File;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Calendar;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
-    private final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
+    private static final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
 
-    // Interval at which to sync with the weather, in seconds. 3 hours
-    private static final int SYNC_INTERVAL = 60 * 60 * 3;
-    private static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
+    // Interval at which to sync with the weather is picked by AdaptiveSyncScheduler; the sync
+    // may run up to a third of it early.
+    private static final int SYNC_FLEXTIME_DIVISOR = 3;
 
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
@@ -69,97 +62,318 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
+    // Directory, under the app cache dir, where recent forecasts are kept
+    private static final String FORECAST_CACHE_DIR = "forecasts";
+
+    /**
+     * Extra of a sync request: when true, every location is downloaded again even if its forecast
+     * is still valid, or the current conditions if they are the only ones synced.
+     */
+    public static final String EXTRA_FORCE_SYNC = "com.wolfgoes.sunshine.app.sync.extra.FORCE_SYNC";
+
+    /**
+     * Extra of a sync request: when true, only the current conditions at the preferred location
+     * are refreshed, and the forecasts are left alone.
+     */
+    public static final String EXTRA_CURRENT_ONLY = "com.wolfgoes.sunshine.app.sync.extra.CURRENT_ONLY";
+
+    private final WeatherSource mSource;
+    private final ForecastSyncEngine mSyncEngine;
+    private final FreshnessPolicy mFreshnessPolicy = new FreshnessPolicy();
+
     SunshineSyncAdapter(Context context, boolean autoInitialize) {
+        this(context, autoInitialize, new CachingWeatherSource(
+                new RateLimitedWeatherSource(new HttpWeatherSource(), RateLimiter.getInstance(context)),
+                new File(context.getCacheDir(), FORECAST_CACHE_DIR),
+                CachingWeatherSource.DEFAULT_MAX_AGE_MILLIS,
+                CachingWeatherSource.DEFAULT_MAX_SIZE_BYTES));
+    }
+
+    /**
+     * @param source Where forecasts are fetched from, e.g. a {@link ReplayWeatherSource} to
+     *               benchmark the sync offline.
+     */
+    SunshineSyncAdapter(Context context, boolean autoInitialize, WeatherSource source) {
         super(context, autoInitialize);
+        mSource = source;
+        mSyncEngine = new ForecastSyncEngine(source);
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "onPerformSync Called.");
-        String location = Utility.getPreferredLocation(getContext());
+        String preferredLocation = Utility.getPreferredLocation(getContext());
+
+        boolean force = extras.getBoolean(EXTRA_FORCE_SYNC, false);
+        if (extras.getBoolean(EXTRA_CURRENT_ONLY, false)) {
+            // Not a forecast sync, pending forecast requests are not served by it
+            performCurrentSync(preferredLocation, force, syncResult);
+            return;
+        }
+
+        // Requests for the preferred location are served by this sync from now on
+        SyncRequestCoalescer coalescer = SyncRequestCoalescer.getInstance();
+        coalescer.onSyncStarted(preferredLocation, force);
+        Set<String> syncedLocations = new HashSet<>();
+        try {
+            performSync(preferredLocation, force, syncResult, syncedLocations);
+        } finally {
+            coalescer.onSyncFinished();
+        }
+        Log.d(LOG_TAG, coalescer.getCollapsedCount() + " duplicate sync requests collapsed so far.");
+    }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+    private void performSync(String preferredLocation, boolean force, SyncResult syncResult,
+                             Set<String> syncedLocations) {
+        List<ForecastSyncEngine.Target> targets =
+                getSyncTargets(preferredLocation, force, syncedLocations);
+        if (targets.isEmpty()) {
+            Log.d(LOG_TAG, "All forecasts are still valid, nothing to sync.");
+            return;
+        }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr;
+        SyncMetrics metrics = new SyncMetrics();
+        RateLimiter rateLimiter = RateLimiter.getInstance(getContext());
+        long throttled = rateLimiter.getThrottledCount();
+        long rateLimited = rateLimiter.getRateLimitedCount();
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        // Forecasts are stored while the others still download
+        final ForecastWriter writer = new ForecastWriter(getContext().getContentResolver(),
+                mFreshnessPolicy, syncResult, metrics);
 
+        List<ForecastSyncEngine.Result> results;
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, location)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuilder buffer = new StringBuilder();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+            results = mSyncEngine.fetchAll(targets, metrics, new ForecastSyncEngine.ResultHandler() {
+                @Override
+                public void onResult(ForecastSyncEngine.Result result) {
+                    writer.add(result);
+                }
+            });
+        } catch (InterruptedException e) {
+            Log.d(LOG_TAG, "Sync cancelled.");
+            return;
+        }
+        metrics.setRateLimits(rateLimiter.getThrottledCount() - throttled,
+                rateLimiter.getRateLimitedCount() - rateLimited);
+
+        boolean preferredLocationSynced = false;
+        DayForecast preferredToday = null;
+        for (ForecastSyncEngine.Result result : results) {
+            switch (result.status) {
+                case ForecastSyncEngine.STATUS_OK:
+                    Log.d(LOG_TAG, "Forecast for " + result.locationSetting + " downloaded.");
+                    break;
+                case ForecastSyncEngine.STATUS_NOT_MODIFIED:
+                    Log.d(LOG_TAG, "Forecast for " + result.locationSetting + " not modified.");
+                    break;
+                default:
+                    Log.d(LOG_TAG, "Forecast for " + result.locationSetting + " failed: " + result.error);
+                    reportFailure(result.error, syncResult);
+                    continue;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            syncedLocations.add(result.locationSetting);
+            if (result.locationSetting.equals(preferredLocation)) {
+                preferredLocationSynced = true;
+                preferredToday = getToday(result);
             }
+        }
+
+        writer.finish();
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                return;
+        double volatility = writer.getVolatility();
+        if (volatility >= 0 && !syncResult.databaseError) {
+            int syncInterval = AdaptiveSyncScheduler.reschedule(getContext(), volatility);
+            if (syncInterval != 0) {
+                Log.d(LOG_TAG, "Volatility " + volatility + ", syncing every " +
+                        syncInterval + " seconds from now on.");
+                configurePeriodicSync(getContext(), syncInterval,
+                        syncInterval / SYNC_FLEXTIME_DIVISOR);
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, location);
-
-            notifyWeather();
-        } catch (IOException e) {
-            // If the code didn't successfully get the weather data, there's no point in attemping
-            // to parse it.
-            Log.e(LOG_TAG, "Error ", e);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+        }
+
+        if (preferredLocationSynced) {
+            long start = System.nanoTime();
+            notifyWeather(preferredToday);
+            metrics.addNotify(System.nanoTime() - start);
+        }
+
+        Log.d(LOG_TAG, "Sync made " + metrics.getRequests() + " requests, received " +
+                metrics.getWireBytes() + " bytes for " + metrics.getBytes() + " bytes of forecasts.");
+        Log.d(LOG_TAG, "Rate limiter: " + rateLimiter.getGrantedCount() + " requests sent, " +
+                rateLimiter.getThrottledCount() + " held back, " +
+                rateLimiter.getRateLimitedCount() + " rate limited by the server since install.");
+        if (mSource instanceof CachingWeatherSource) {
+            CachingWeatherSource cache = (CachingWeatherSource) mSource;
+            Log.d(LOG_TAG, "Forecast cache: " + cache.getHitCount() + " hits, " +
+                    cache.getMissCount() + " misses, " + cache.getEvictionCount() + " evictions.");
+        }
+        getContext().getContentResolver().call(WeatherContract.SyncMetricsEntry.CONTENT_URI,
+                WeatherContract.SyncMetricsEntry.METHOD_RECORD, null, metrics.toBundle());
+    }
+
+    /**
+     * Downloads and stores the current conditions at the given location, creating the location
+     * if it is not stored yet.  Stored conditions still valid are kept unless {@code force} is
+     * set.
+     */
+    private void performCurrentSync(String locationSetting, boolean force, SyncResult syncResult) {
+        if (!mSyncEngine.supportsCurrent()) {
+            return;
+        }
+        if (!force && isCurrentFresh(getContext(), locationSetting)) {
+            Log.d(LOG_TAG, "Current conditions for " + locationSetting + " are still valid.");
+            return;
+        }
+
+        SyncMetrics metrics = new SyncMetrics();
+        RateLimiter rateLimiter = RateLimiter.getInstance(getContext());
+        long throttled = rateLimiter.getThrottledCount();
+        long rateLimited = rateLimiter.getRateLimitedCount();
+
+        CurrentConditions current;
+        try {
+            current = mSyncEngine.fetchCurrent(locationSetting, metrics);
+        } catch (InterruptedException e) {
+            Log.d(LOG_TAG, "Sync cancelled.");
+            return;
+        } catch (FetchException e) {
+            Log.d(LOG_TAG, "Current conditions for " + locationSetting + " failed: " + e);
+            reportFailure(e, syncResult);
+            current = null;
+        }
+        metrics.setRateLimits(rateLimiter.getThrottledCount() - throttled,
+                rateLimiter.getRateLimitedCount() - rateLimited);
+
+        if (current != null) {
+            long start = System.nanoTime();
+            long syncedAt = System.currentTimeMillis();
+
+            // Only used if the location is not stored yet, the forecast sync fills in the rest
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, current.cityName);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, current.lat);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, current.lon);
+
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(2);
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.LocationEntry.UPSERT_URI)
+                    .withValues(locationValues)
+                    .build());
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.CurrentEntry.CONTENT_URI)
+                    .withValues(current.toContentValues(0, syncedAt,
+                            FreshnessPolicy.getCurrentExpiresAt(syncedAt)))
+                    .withValueBackReference(WeatherContract.CurrentEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+            try {
+                getContext().getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+                syncResult.stats.numInserts++;
+                Log.d(LOG_TAG, "Current conditions for " + locationSetting + " downloaded.");
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.e(LOG_TAG, "Error storing current conditions", e);
+                syncResult.databaseError = true;
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
+            metrics.addDbWrite(System.nanoTime() - start);
+        }
+
+        getContext().getContentResolver().call(WeatherContract.SyncMetricsEntry.CONTENT_URI,
+                WeatherContract.SyncMetricsEntry.METHOD_RECORD, null, metrics.toBundle());
+    }
+
+    /**
+     * @return today's forecast as downloaded by this sync, or null if the forecast was not
+     * downloaded again.
+     */
+    private static DayForecast getToday(ForecastSyncEngine.Result result) {
+        if (result.status != ForecastSyncEngine.STATUS_OK || result.days.isEmpty()) {
+            return null;
+        }
+        DayForecast first = result.days.get(0);
+        return first.dayIndex == 0 ? first : null;
+    }
+
+    /**
+     * Reports a failed fetch to the sync framework.  IO errors are soft errors, so the framework
+     * retries them with a backoff; the others are hard errors, as the same request would fail
+     * again.  When the server asked us to wait, the next syncs are held back until then.
+     */
+    private void reportFailure(FetchException error, SyncResult syncResult) {
+        switch (error.kind) {
+            case FetchException.KIND_PARSE:
+                syncResult.stats.numParseExceptions++;
+                break;
+            case FetchException.KIND_CLIENT_ERROR:
+                if (error.statusCode == HttpURLConnection.HTTP_UNAUTHORIZED
+                        || error.statusCode == HttpURLConnection.HTTP_FORBIDDEN) {
+                    // The API key was refused
+                    syncResult.stats.numAuthExceptions++;
+                } else {
+                    // No better counter for a request the server will never accept
+                    syncResult.stats.numParseExceptions++;
+                }
+                break;
+            default:
+                syncResult.stats.numIoExceptions++;
+                break;
+        }
+
+        long retryAtSeconds = error.retryAtMillis / 1000;
+        if (error.retryAtMillis > System.currentTimeMillis() && retryAtSeconds > syncResult.delayUntil) {
+            syncResult.delayUntil = retryAtSeconds;
+        }
+    }
+
+    /**
+     * Builds the list of locations to refresh: every location stored in the database, plus the
+     * preferred one in case it has never been synced.  Locations whose forecast is still valid
+     * are left out unless {@code force} is set.
+     *
+     * @param preferredLocation The location currently selected by the user.
+     * @param freshLocations    Receives the locations left out.
+     */
+    private List<ForecastSyncEngine.Target> getSyncTargets(String preferredLocation, boolean force,
+                                                           Set<String> freshLocations) {
+        List<ForecastSyncEngine.Target> targets = new ArrayList<>();
+        boolean hasPreferredLocation = false;
+        long now = System.currentTimeMillis();
+
+        Cursor locationCursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        WeatherContract.LocationEntry.COLUMN_CITY_ID,
+                        WeatherContract.LocationEntry.COLUMN_ETAG,
+                        WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED,
+                        WeatherContract.LocationEntry.COLUMN_LAST_SYNCED,
+                        WeatherContract.LocationEntry.COLUMN_EXPIRES_AT},
+                null,
+                null,
+                null
+        );
+
+        if (locationCursor != null) {
+            while (locationCursor.moveToNext()) {
+                String locationSetting = locationCursor.getString(0);
+                if (locationSetting.equals(preferredLocation)) {
+                    hasPreferredLocation = true;
+                }
+                if (!force && FreshnessPolicy.isFresh(locationCursor.getLong(4),
+                        locationCursor.getLong(5), now)) {
+                    freshLocations.add(locationSetting);
+                    continue;
                 }
+                targets.add(new ForecastSyncEngine.Target(locationSetting,
+                        locationCursor.getLong(1), locationCursor.getString(2),
+                        locationCursor.getString(3), force));
             }
+            locationCursor.close();
+        }
+
+        if (!hasPreferredLocation) {
+            targets.add(new ForecastSyncEngine.Target(preferredLocation, 0, null, null, force));
         }
+
+        return targets;
     }
 
     /**
@@ -168,13 +382,87 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        syncImmediately(context, false);
+    }
+
+    /**
+     * Helper method to have the sync adapter sync immediately.  Called from the UI thread, so
+     * the freshness of the stored forecasts is left to the sync to check.
+     *
+     * @param context The context used to access the account service
+     * @param force   Whether to download the forecasts even if they are still valid
+     */
+    public static void syncImmediately(Context context, boolean force) {
+        String locationSetting = Utility.getPreferredLocation(context);
+
+        // The refresh menu, a location change and the account creation can all ask within a
+        // moment of each other; one sync of the location is enough for all of them.
+        if (!SyncRequestCoalescer.getInstance().request(locationSetting, force)) {
+            Log.d(LOG_TAG, "Sync of " + locationSetting + " already requested.");
+            return;
+        }
+
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putBoolean(EXTRA_FORCE_SYNC, force);
+        ContentResolver.requestSync(getSyncAccount(context),
+                context.getString(R.string.content_authority), bundle);
+    }
+
+    /**
+     * Has the sync adapter refresh the current conditions at the preferred location right away,
+     * unless the stored ones are still valid.  The forecasts are not synced.
+     *
+     * @param context The context used to access the account service
+     */
+    public static void syncCurrentConditions(Context context) {
+        syncCurrentConditions(context, false);
+    }
+
+    /**
+     * Has the sync adapter refresh the current conditions at the preferred location right away.
+     * The forecasts are not synced.  Called from the UI thread, so the freshness of the stored
+     * conditions is left to the sync to check.
+     *
+     * @param context The context used to access the account service
+     * @param force   Whether to download the conditions even if they are still valid
+     */
+    public static void syncCurrentConditions(Context context, boolean force) {
+        // Identical pending requests are merged by the sync framework itself
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putBoolean(EXTRA_CURRENT_ONLY, true);
+        bundle.putBoolean(EXTRA_FORCE_SYNC, force);
         ContentResolver.requestSync(getSyncAccount(context),
                 context.getString(R.string.content_authority), bundle);
     }
 
+    /**
+     * @return whether the stored current conditions at the given location are still valid.
+     */
+    private static boolean isCurrentFresh(Context context, String locationSetting) {
+        Cursor currentCursor = context.getContentResolver().query(
+                WeatherContract.CurrentEntry.buildCurrentLocation(locationSetting),
+                new String[]{WeatherContract.CurrentEntry.TABLE_NAME + "." +
+                        WeatherContract.CurrentEntry.COLUMN_LAST_SYNCED,
+                        WeatherContract.CurrentEntry.TABLE_NAME + "." +
+                                WeatherContract.CurrentEntry.COLUMN_EXPIRES_AT},
+                null,
+                null,
+                null);
+        if (currentCursor == null) {
+            return false;
+        }
+        try {
+            return currentCursor.moveToFirst() && FreshnessPolicy.isFresh(
+                    currentCursor.getLong(0), currentCursor.getLong(1), System.currentTimeMillis());
+        } finally {
+            currentCursor.close();
+        }
+    }
+
     /**
      * Helper method to get the fake account to be used with SyncAdapter, or make a new one
      * if the fake account doesn't exist yet.  If we make a new account, we call the
@@ -218,6 +506,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * Helper method to schedule the sync adapter periodic execution
      */
     private static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
+        // Every install shares the API key: keep them from all syncing at the same moments
+        syncInterval = AdaptiveSyncScheduler.addJitter(syncInterval,
+                AdaptiveSyncScheduler.getInstallId(context));
         Account account = getSyncAccount(context);
         String authority = context.getString(R.string.content_authority);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
@@ -238,7 +529,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         /*
          * Since we've created an account
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        int syncInterval = AdaptiveSyncScheduler.getInterval(context);
+        SunshineSyncAdapter.configurePeriodicSync(context, syncInterval,
+                syncInterval / SYNC_FLEXTIME_DIVISOR);
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
@@ -256,207 +549,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName        A human-readable city name, e.g "Mountain View"
-     * @param lat             the latitude of the city
-     * @param lon             the longitude of the city
-     * @return the row ID of the added location.
-     */
-    private long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        // Students: First, check if the location with this city name exists in the db
-        // If it exists, return the current ID
-        long locationId;
-
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null
-        );
-
-        if (locationCursor != null && locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Otherwise, insert it using the content resolver and the base URI
-            ContentValues locationValues = new ContentValues();
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI, locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        if (locationCursor != null)
-            locationCursor.close();
-
-        return locationId;
-    }
-
-    /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     * <p/>
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @param today Today's forecast at the preferred location if this sync downloaded it, so it
+     *              does not have to be read back from the provider.
      */
-    private String[] getWeatherDataFromJson(String forecastJsonStr,
-                                            String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
-
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                // Student: call bulkInsert to add the weatherEntries to the database here
-                inserted = getContext().getContentResolver().bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        cVVector.toArray(new ContentValues[cVVector.size()])
-                );
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-            }
-
-            Log.d(LOG_TAG, "SunshineService Complete. " + inserted + " Inserted");
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-        }
-        return null;
-    }
-
-    private void notifyWeather() {
+    private void notifyWeather(DayForecast today) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -470,23 +566,20 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                if (today == null) {
+                    // The forecast was not downloaded again, read the stored one
+                    today = queryToday(context);
+                }
 
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today != null) {
+                    int weatherId = today.weatherId;
+                    double high = today.high;
+                    double low = today.low;
+                    String desc = today.description;
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
-                    Bitmap largeIcon = BitmapFactory.decodeResource(resources,
-                            Utility.getArtResourceForWeatherCondition(weatherId));
+                    Bitmap largeIcon = NotificationIconCache.getInstance(context).getIcon(weatherId);
                     String title = context.getString(R.string.app_name);
 
                     // Define the text of the forecast.
@@ -535,4 +628,31 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
 
     }
-}
\ No newline at end of file
+
+    /**
+     * @return today's forecast at the preferred location as stored, or null if there is none.
+     */
+    private static DayForecast queryToday(Context context) {
+        String locationQuery = Utility.getPreferredLocation(context);
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+
+        // we'll query our contentProvider, as always
+        Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            DayForecast today = new DayForecast();
+            today.weatherId = cursor.getInt(INDEX_WEATHER_ID);
+            today.high = cursor.getDouble(INDEX_MAX_TEMP);
+            today.low = cursor.getDouble(INDEX_MIN_TEMP);
+            today.description = cursor.getString(INDEX_SHORT_DESC);
+            return today;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.os.Bundle;
+
+import com.wolfgoes.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent by one sync in each of its phases.  Network phases are summed over all the
+ * requests of the sync, which run in parallel, so they can add up to more than the total.
+ */
+class SyncMetrics {
+    private final long mStartTime = System.currentTimeMillis();
+    private final long mStartNanos = System.nanoTime();
+
+    private int mRequests;
+    private int mFailures;
+    private long mThrottled;
+    private long mRateLimited;
+    private long mConnectNanos;
+    private long mFirstByteNanos;
+    private long mDownloadNanos;
+    private long mParseNanos;
+    private long mWireBytes;
+    private long mBytes;
+
+    private long mDbWriteNanos;
+    private long mNotifyNanos;
+
+    /**
+     * Records one request to the server.
+     *
+     * @param connectNanos   time to open the connection
+     * @param firstByteNanos time from then until the response headers arrived
+     * @param downloadNanos  time spent waiting for the body
+     * @param parseNanos     time spent decoding the body, download excluded
+     * @param wireBytes      size of the body as received, compressed or not
+     * @param bytes          size of the body read, after decompression
+     */
+    synchronized void addRequest(long connectNanos, long firstByteNanos, long downloadNanos,
+                                 long parseNanos, long wireBytes, long bytes) {
+        mRequests++;
+        mConnectNanos += connectNanos;
+        mFirstByteNanos += firstByteNanos;
+        mDownloadNanos += downloadNanos;
+        mParseNanos += parseNanos;
+        mWireBytes += wireBytes;
+        mBytes += bytes;
+    }
+
+    synchronized void addFailure() {
+        mFailures++;
+    }
+
+    /**
+     * Records what the rate limiter did during the sync.
+     *
+     * @param throttled   requests it held back
+     * @param rateLimited 429 answers received from the server
+     */
+    synchronized void setRateLimits(long throttled, long rateLimited) {
+        mThrottled = throttled;
+        mRateLimited = rateLimited;
+    }
+
+    synchronized void addDbWrite(long nanos) {
+        mDbWriteNanos += nanos;
+    }
+
+    synchronized void addNotify(long nanos) {
+        mNotifyNanos += nanos;
+    }
+
+    synchronized int getRequests() {
+        return mRequests;
+    }
+
+    synchronized long getWireBytes() {
+        return mWireBytes;
+    }
+
+    synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return the row describing this sync, to be recorded through
+     * {@link SyncMetricsEntry#METHOD_RECORD}.
+     */
+    synchronized Bundle toBundle() {
+        Bundle values = new Bundle();
+        values.putLong(SyncMetricsEntry.COLUMN_START_TIME, mStartTime);
+        values.putLong(SyncMetricsEntry.COLUMN_TOTAL, toMillis(System.nanoTime() - mStartNanos));
+        values.putLong(SyncMetricsEntry.COLUMN_REQUESTS, mRequests);
+        values.putLong(SyncMetricsEntry.COLUMN_FAILURES, mFailures);
+        values.putLong(SyncMetricsEntry.COLUMN_THROTTLED, mThrottled);
+        values.putLong(SyncMetricsEntry.COLUMN_RATE_LIMITED, mRateLimited);
+        values.putLong(SyncMetricsEntry.COLUMN_CONNECT, toMillis(mConnectNanos));
+        values.putLong(SyncMetricsEntry.COLUMN_FIRST_BYTE, toMillis(mFirstByteNanos));
+        values.putLong(SyncMetricsEntry.COLUMN_DOWNLOAD, toMillis(mDownloadNanos));
+        values.putLong(SyncMetricsEntry.COLUMN_PARSE, toMillis(mParseNanos));
+        values.putLong(SyncMetricsEntry.COLUMN_WIRE_BYTES, mWireBytes);
+        values.putLong(SyncMetricsEntry.COLUMN_BYTES, mBytes);
+        values.putLong(SyncMetricsEntry.COLUMN_DB_WRITE, toMillis(mDbWriteNanos));
+        // Not measured apart, see the column
+        values.putLong(SyncMetricsEntry.COLUMN_STALE_DELETE, 0);
+        values.putLong(SyncMetricsEntry.COLUMN_NOTIFY, toMillis(mNotifyNanos));
+        return values;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,100 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Merges requests to sync the same location while an earlier one is still waiting to run or
+ * running, so rapid refreshes cost a single sync.  A forced request is only merged into a
+ * forced one, since a sync which is not forced skips the locations whose forecast is valid.
+ * <p/>
+ * A request waiting for more than {@code pendingTimeoutMillis} is assumed lost (the framework
+ * may have dropped it) and the next request for that location goes through again.
+ */
+class SyncRequestCoalescer {
+
+    static final long DEFAULT_PENDING_TIMEOUT_MILLIS = 1000 * 60;
+
+    private static class Request {
+        long requestedAt;
+        boolean inFlight;
+        boolean force;
+    }
+
+    private static SyncRequestCoalescer sInstance;
+
+    private final long mPendingTimeoutMillis;
+    private final Map<String, Request> mRequests = new HashMap<>();
+    private int mCollapsedCount;
+
+    static synchronized SyncRequestCoalescer getInstance() {
+        if (sInstance == null) {
+            sInstance = new SyncRequestCoalescer(DEFAULT_PENDING_TIMEOUT_MILLIS);
+        }
+        return sInstance;
+    }
+
+    SyncRequestCoalescer(long pendingTimeoutMillis) {
+        mPendingTimeoutMillis = pendingTimeoutMillis;
+    }
+
+    /**
+     * Registers a request to sync the given location.
+     *
+     * @param force Whether the sync requested is forced.
+     * @return true if a sync must be requested, false if the request was merged into one
+     * already waiting or running.
+     */
+    synchronized boolean request(String locationSetting, boolean force) {
+        long now = System.currentTimeMillis();
+        Request request = mRequests.get(locationSetting);
+
+        boolean merged = request != null && (request.force || !force)
+                && (request.inFlight || now - request.requestedAt < mPendingTimeoutMillis);
+        if (merged) {
+            mCollapsedCount++;
+            return false;
+        }
+
+        if (request == null || request.inFlight) {
+            // The running sync is not forced, this request waits for the next one
+            request = new Request();
+            mRequests.put(locationSetting, request);
+        }
+        request.requestedAt = now;
+        request.force = force;
+        return true;
+    }
+
+    /**
+     * Called when a sync starts, with the location it was requested for.  The waiting request
+     * of that location is served by it, unless the request is forced and the sync is not.
+     */
+    synchronized void onSyncStarted(String locationSetting, boolean force) {
+        Request request = mRequests.get(locationSetting);
+        if (request != null && (force || !request.force)) {
+            request.inFlight = true;
+        }
+    }
+
+    /**
+     * Called when a sync ends, to complete the request it served.  Requests made while it was
+     * running and not served by it stay waiting for their own sync.
+     */
+    synchronized void onSyncFinished() {
+        Iterator<Request> requests = mRequests.values().iterator();
+        while (requests.hasNext()) {
+            if (requests.next().inFlight) {
+                requests.remove();
+            }
+        }
+    }
+
+    /**
+     * @return how many requests were merged into an earlier one so far.
+     */
+    synchronized int getCollapsedCount() {
+        return mCollapsedCount;
+    }
+}
@@ -0,0 +1,111 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Copies what is read to a temporary file, renamed to its final name only by {@link #commit()},
+ * once the reader knows the body is valid.  Closing the stream without committing drops the
+ * copy, so neither an interrupted download nor a body that could not be parsed is kept.
+ */
+class TeeInputStream extends FilterInputStream {
+    private static final String LOG_TAG = TeeInputStream.class.getSimpleName();
+
+    private final File mFile;
+    private final File mPartialFile;
+    private OutputStream mOut;
+
+    /**
+     * @param prefix Written to the file before the copied bytes, or null.
+     */
+    TeeInputStream(InputStream in, File file, byte[] prefix) throws IOException {
+        super(in);
+        mFile = file;
+        mPartialFile = new File(file.getPath() + ".partial");
+        mOut = new FileOutputStream(mPartialFile);
+        if (prefix != null) {
+            mOut.write(prefix);
+        }
+    }
+
+    /**
+     * Called once the complete copy is in place.
+     */
+    protected void onSaved(File file) {
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1 && mOut != null) {
+            mOut.write(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int read = super.read(buffer, offset, count);
+        if (read > 0 && mOut != null) {
+            mOut.write(buffer, offset, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        // Skipped bytes would be missing from the copy
+        byte[] buffer = new byte[(int) Math.min(count, 4096)];
+        int read = read(buffer, 0, buffer.length);
+        return read == -1 ? 0 : read;
+    }
+
+    /**
+     * Keeps the copy.  The parser stops at the end of the JSON document, so whatever it left
+     * unread is copied first.
+     */
+    void commit() throws IOException {
+        if (mOut == null) {
+            return;
+        }
+        byte[] buffer = new byte[4096];
+        while (read(buffer, 0, buffer.length) != -1) {
+            // copied by read()
+        }
+        finish(true);
+    }
+
+    /**
+     * Drops the copy unless it was committed, without reading any further.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish(false);
+        } finally {
+            super.close();
+        }
+    }
+
+    private void finish(boolean complete) throws IOException {
+        if (mOut == null) {
+            return;
+        }
+        mOut.close();
+        mOut = null;
+        if (complete && mPartialFile.renameTo(mFile)) {
+            onSaved(mFile);
+        } else {
+            if (complete) {
+                Log.w(LOG_TAG, "Could not save " + mFile);
+            }
+            mPartialFile.delete();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Answer of a {@link WeatherSource}, shaped after an HTTP response.
+ */
+abstract class WeatherResponse {
+    // Not in HttpURLConnection
+    static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    // JSON text is UTF-8 unless the server says otherwise
+    private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+    private static final String CHARSET_PARAM = "charset=";
+
+    final int statusCode;
+    // Time taken to open the connection, then to receive the response headers
+    final long connectNanos;
+    final long firstByteNanos;
+
+    WeatherResponse(int statusCode, long connectNanos, long firstByteNanos) {
+        this.statusCode = statusCode;
+        this.connectNanos = connectNanos;
+        this.firstByteNanos = firstByteNanos;
+    }
+
+    boolean isNotModified() {
+        return statusCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /**
+     * @return the value of the given response header, or null.
+     */
+    abstract String getHeader(String name);
+
+    String getETag() {
+        return getHeader("ETag");
+    }
+
+    String getLastModified() {
+        return getHeader("Last-Modified");
+    }
+
+    /**
+     * Reads the Retry-After header, which holds either a number of seconds or an HTTP date.
+     *
+     * @param now Current time, which the number of seconds is counted from.
+     * @return when the server accepts requests again, in milliseconds since the epoch, or 0 if
+     * it did not say.
+     */
+    long getRetryAt(long now) {
+        String retryAfter = getHeader("Retry-After");
+        if (retryAfter == null) {
+            return 0;
+        }
+        retryAfter = retryAfter.trim();
+        try {
+            return now + Long.parseLong(retryAfter) * 1000;
+        } catch (NumberFormatException e) {
+            // not a number of seconds, so a date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(retryAfter).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the charset declared by the Content-Type header, or UTF-8.
+     */
+    Charset getCharset() {
+        String contentType = getHeader("Content-Type");
+        if (contentType != null) {
+            for (String param : contentType.split(";")) {
+                param = param.trim();
+                if (param.regionMatches(true, 0, CHARSET_PARAM, 0, CHARSET_PARAM.length())) {
+                    String name = param.substring(CHARSET_PARAM.length()).replace("\"", "").trim();
+                    try {
+                        return Charset.forName(name);
+                    } catch (IllegalArgumentException e) {
+                        // unknown charset, hope for the default
+                        break;
+                    }
+                }
+            }
+        }
+        return DEFAULT_CHARSET;
+    }
+
+    /**
+     * @return the body, already decompressed if it was sent compressed.
+     */
+    abstract InputStream getInputStream() throws IOException;
+
+    /**
+     * Tells the response its body was read and decoded successfully.  Sources keeping a copy of
+     * the body only keep it then, so a body that could not be parsed is never served again.
+     */
+    void commit() throws IOException {
+    }
+
+    /**
+     * @return the bytes of the body received so far, before decompression, or -1 when the body
+     * was not transferred compressed.
+     */
+    long getWireBytes() {
+        return -1;
+    }
+
+    abstract void disconnect();
+}
@@ -0,0 +1,72 @@
+package com.wolfgoes.sunshine.app.sync;
+
+import java.io.IOException;
+
+/**
+ * Where the sync gets its forecasts from.  {@link HttpWeatherSource} asks OpenWeatherMap;
+ * {@link ReplayWeatherSource} serves recorded payloads, so the sync can be run and measured
+ * without a network.
+ */
+interface WeatherSource {
+
+    /**
+     * @return the server answering the requests.  Concurrency limits and failure tracking
+     * apply per host.
+     */
+    String getHost();
+
+    /**
+     * @return whether {@link #fetchGroup(long[])} may be called.
+     */
+    boolean supportsGroups();
+
+    /**
+     * Requests the forecast for the given location.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param etag            ETag of the last stored forecast, or null
+     * @param lastModified    Last-Modified of the last stored forecast, or null
+     * @param force           Whether the server must be asked even if a source keeps a recent
+     *                        copy of the forecast.
+     * @return the open response; callers must {@link WeatherResponse#disconnect()} it.
+     */
+    WeatherResponse fetch(String locationSetting, String etag, String lastModified, boolean force)
+            throws IOException;
+
+    /**
+     * Requests the forecast of several cities in a single call.  Only valid when
+     * {@link #supportsGroups()} is true.
+     *
+     * @param cityIds OpenWeatherMap ids of the cities.
+     * @return the open response; callers must {@link WeatherResponse#disconnect()} it.
+     */
+    WeatherResponse fetchGroup(long[] cityIds) throws IOException;
+
+    /**
+     * @return whether {@link #fetchHourly(String)} may be called.
+     */
+    boolean supportsHourly();
+
+    /**
+     * Requests the forecast for the given location every 3 hours, over the next days.  Only
+     * valid when {@link #supportsHourly()} is true.  Requests are never conditional.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @return the open response; callers must {@link WeatherResponse#disconnect()} it.
+     */
+    WeatherResponse fetchHourly(String locationSetting) throws IOException;
+
+    /**
+     * @return whether {@link #fetchCurrent(String)} may be called.
+     */
+    boolean supportsCurrent();
+
+    /**
+     * Requests the weather right now at the given location.  Only valid when
+     * {@link #supportsCurrent()} is true.  Requests are never conditional.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @return the open response; callers must {@link WeatherResponse#disconnect()} it.
+     */
+    WeatherResponse fetchCurrent(String locationSetting) throws IOException;
+}